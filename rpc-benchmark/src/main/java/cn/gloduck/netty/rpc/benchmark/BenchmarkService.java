@@ -0,0 +1,21 @@
+package cn.gloduck.netty.rpc.benchmark;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准测试使用的服务接口，请求和响应的参数类型、返回值类型从这里的方法声明中获取，和客户端代理一致
+ * @author Gloduck
+ */
+public interface BenchmarkService {
+    /**
+     * 只有基本类型
+     */
+    Long sum(int count, long offset, double ratio, boolean desc);
+
+    User getUser(Integer id, String name, String password);
+
+    List<User> listUsers(List<Long> ids);
+
+    Map<String, Map<String, Object>> query(Map<String, Map<String, Object>> filter);
+}
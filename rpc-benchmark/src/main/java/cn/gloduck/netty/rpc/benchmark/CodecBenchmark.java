@@ -0,0 +1,123 @@
+package cn.gloduck.netty.rpc.benchmark;
+
+import cn.gloduck.netty.rpc.codec.RpcDecoder;
+import cn.gloduck.netty.rpc.codec.RpcEncoder;
+import cn.gloduck.netty.rpc.codec.RpcFragmentHandler;
+import cn.gloduck.netty.rpc.codec.RpcMessage;
+import cn.gloduck.netty.rpc.codec.RpcProtocol;
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.codec.RpcResponse;
+import cn.gloduck.netty.rpc.constant.RpcConstant;
+import cn.gloduck.netty.rpc.enums.Serializers;
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import cn.gloduck.netty.rpc.metrics.WriteMetricsHandler;
+import cn.gloduck.netty.rpc.serializer.SerializerRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求和响应经过编码器、分片处理器和解码器的基准测试，包括消息头、分片和组装的开销。
+ * 两端各是一个{@link EmbeddedChannel}，处理器的顺序和客户端、服务端的初始化器一致
+ * @author Gloduck
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"JDK", "FAST_JDK", "FAST_JSON", "TYPED_JSON", "KRYO", "FAST_KRYO", "PROTOBUF", "FAST_PROTOBUF", "CODEGEN"})
+    private Serializers serializer;
+    @Param
+    private Payload payload;
+    /**
+     * 客户端使用的协议版本
+     */
+    @Param({"1", "2"})
+    private int version;
+
+    private EmbeddedChannel client;
+    private EmbeddedChannel server;
+    private Method method;
+    private RpcRequest request;
+    private RpcResponse response;
+
+    @Setup(Level.Trial)
+    public void setup() throws SerializationException {
+        client = channel(serializer, version);
+        server = channel(serializer, RpcProtocol.VERSION_1);
+        method = payload.getMethod();
+        request = payload.request();
+        // 服务端收到第一个请求后才知道客户端的协议版本
+        response = payload.response(request());
+        response();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        client.finishAndReleaseAll();
+        server.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public RpcRequest request() throws SerializationException {
+        RpcRequest decoded = transfer(client, server, request);
+        decoded.resolveParameters(method.getGenericParameterTypes());
+        return decoded;
+    }
+
+    @Benchmark
+    public RpcResponse response() throws SerializationException {
+        RpcResponse decoded = transfer(server, client, response);
+        decoded.resolveData(method.getGenericReturnType());
+        return decoded;
+    }
+
+    /**
+     * 从一端写出消息，把写出的帧交给另一端，直到另一端解码出消息
+     * @param from
+     * @param to
+     * @param message
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends RpcMessage> T transfer(EmbeddedChannel from, EmbeddedChannel to, RpcMessage message){
+        from.writeOutbound(message);
+        Object decoded;
+        while ((decoded = to.readInbound()) == null){
+            // 大消息的分片在事件循环的任务中发送
+            from.runPendingTasks();
+            ByteBuf frame;
+            while ((frame = from.readOutbound()) != null){
+                to.writeInbound(frame);
+            }
+        }
+        return (T) decoded;
+    }
+
+    static EmbeddedChannel channel(Serializers serializer, int version){
+        SerializerRegistry serializers = new SerializerRegistry(SerializerBenchmark.newSerializer(serializer));
+        return new EmbeddedChannel(
+                new RpcDecoder(serializers, RpcConstant.MAX_REASSEMBLY_SIZE),
+                new RpcFragmentHandler(),
+                WriteMetricsHandler.instance(),
+                new RpcEncoder(serializers, version, RpcConstant.DEFAULT_COMPRESSION_THRESHOLD));
+    }
+}
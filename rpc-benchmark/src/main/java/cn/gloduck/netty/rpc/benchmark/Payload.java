@@ -0,0 +1,155 @@
+package cn.gloduck.netty.rpc.benchmark;
+
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.codec.RpcResponse;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准测试的消息内容，每种对应{@link BenchmarkService}中的一个方法。
+ * 请求和响应按照客户端代理和服务端的方式填充，参数类型和返回值类型来自方法声明
+ * @author Gloduck
+ */
+public enum Payload {
+    /**
+     * 基本类型的参数和返回值
+     */
+    PRIMITIVES("sum"){
+        @Override
+        Object[] arguments() {
+            return new Object[]{20, 1024L, 0.75D, true};
+        }
+
+        @Override
+        Object result() {
+            return 123456789L;
+        }
+    },
+    /**
+     * 单个对象
+     */
+    USER("getUser"){
+        @Override
+        Object[] arguments() {
+            return new Object[]{10086, "gloduck", "123456"};
+        }
+
+        @Override
+        Object result() {
+            return user(10086);
+        }
+    },
+    /**
+     * 大集合，响应在jdk和fastjson下也不超过v1协议的最大帧长度
+     */
+    LARGE_LIST("listUsers"){
+        @Override
+        Object[] arguments() {
+            List<Long> ids = new ArrayList<>(1024);
+            for (int i = 0; i < 1024; i++) {
+                ids.add(100000L + i);
+            }
+            return new Object[]{ids};
+        }
+
+        @Override
+        Object result() {
+            List<User> users = new ArrayList<>(256);
+            for (int i = 0; i < 256; i++) {
+                users.add(user(i));
+            }
+            return users;
+        }
+    },
+    /**
+     * 两层的Map，值的类型混合
+     */
+    NESTED_MAP("query"){
+        @Override
+        Object[] arguments() {
+            return new Object[]{nestedMap(4)};
+        }
+
+        @Override
+        Object result() {
+            return nestedMap(32);
+        }
+    };
+
+    private final Method method;
+
+    Payload(String methodName) {
+        Method found = null;
+        for (Method method : BenchmarkService.class.getMethods()) {
+            if(method.getName().equals(methodName)){
+                found = method;
+            }
+        }
+        this.method = found;
+    }
+
+    /**
+     * 调用的参数
+     * @return
+     */
+    abstract Object[] arguments();
+
+    /**
+     * 调用的结果
+     * @return
+     */
+    abstract Object result();
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * 创建和客户端代理发送的相同的请求
+     * @return
+     */
+    public RpcRequest request(){
+        RpcRequest request = new RpcRequest();
+        request.setId(1L);
+        request.setServiceName(BenchmarkService.class.getName());
+        request.setParameterTypes(method.getParameterTypes());
+        request.setArgumentTypes(method.getParameterTypes());
+        request.setResultType(method.getGenericReturnType());
+        request.setParameters(arguments());
+        return request;
+    }
+
+    /**
+     * 创建和服务端返回的相同的响应
+     * @param request 服务端收到的请求，v1协议的请求号在编码时填入
+     * @return
+     */
+    public RpcResponse response(RpcRequest request){
+        RpcResponse response = RpcResponse.success(request, result());
+        response.setResultType(method.getReturnType());
+        return response;
+    }
+
+    private static User user(int id){
+        return new User(id, "user-" + id, "password-" + id);
+    }
+
+    private static Map<String, Map<String, Object>> nestedMap(int size){
+        Map<String, Map<String, Object>> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> inner = new HashMap<>(16);
+            inner.put("id", i);
+            inner.put("name", "item-" + i);
+            inner.put("price", i * 1.5D);
+            inner.put("stock", 1000L + i);
+            inner.put("enabled", i % 2 == 0);
+            inner.put("tag", "tag-" + (i % 7));
+            map.put("key-" + i, inner);
+        }
+        return map;
+    }
+}
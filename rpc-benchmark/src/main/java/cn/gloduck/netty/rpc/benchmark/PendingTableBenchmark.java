@@ -0,0 +1,81 @@
+package cn.gloduck.netty.rpc.benchmark;
+
+import cn.gloduck.netty.rpc.utils.RequestIdMap;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端正在处理的请求表的基准测试。连接上保持inflight个请求，每次操作登记一个新的请求号并移除最早的请求，
+ * 对比原来的{@link ConcurrentHashMap}、线性探测的{@link LongObjectHashMap}和现在事件循环中使用的{@link RequestIdMap}。
+ * 连续的请求号在{@link LongObjectHashMap}中连成一片，请求很多时删除最早的请求需要移动整片元素
+ * @author Gloduck
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PendingTableBenchmark {
+    @Param({"16", "10000", "1000000"})
+    private int inflight;
+
+    private Map<Long, Object> concurrentMap;
+    private LongObjectMap<Object> longMap;
+    private RequestIdMap<Object> requestIdMap;
+    private final Object future = new Object();
+    /**
+     * 下一个请求号，请求号连续递增，和连接上分配的一致
+     */
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        concurrentMap = new ConcurrentHashMap<>(16);
+        longMap = new LongObjectHashMap<>();
+        requestIdMap = new RequestIdMap<>();
+        for (long id = 1; id <= inflight; id++) {
+            concurrentMap.put(id, future);
+            longMap.put(id, future);
+            requestIdMap.put(id, future);
+        }
+        next = inflight + 1;
+    }
+
+    @Benchmark
+    public Object concurrentHashMap(){
+        long id = next++;
+        concurrentMap.put(id, future);
+        return concurrentMap.remove(id - inflight);
+    }
+
+    @Benchmark
+    public Object longObjectHashMap(){
+        long id = next++;
+        longMap.put(id, future);
+        return longMap.remove(id - inflight);
+    }
+
+    @Benchmark
+    public Object requestIdMap(){
+        long id = next++;
+        requestIdMap.put(id, future);
+        return requestIdMap.remove(id - inflight);
+    }
+}
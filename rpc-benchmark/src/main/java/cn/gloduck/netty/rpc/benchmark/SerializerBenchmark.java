@@ -0,0 +1,138 @@
+package cn.gloduck.netty.rpc.benchmark;
+
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.codec.RpcResponse;
+import cn.gloduck.netty.rpc.enums.Serializers;
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import cn.gloduck.netty.rpc.serializer.RpcSerializer;
+import cn.gloduck.netty.rpc.serializer.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 序列化器编解码请求和响应的基准测试，不包括消息头。
+ * 编码写入池化的直接内存，和编码器一致；解码后按照方法声明的类型解析参数和返回值，和服务端、客户端一致。
+ * 同时测试吞吐量和平均耗时，分配速率使用 -prof gc 查看，编码后的大小见{@link WireSize}
+ * @author Gloduck
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+    @Param({"JDK", "FAST_JDK", "FAST_JSON", "TYPED_JSON", "KRYO", "FAST_KRYO", "PROTOBUF", "FAST_PROTOBUF", "CODEGEN"})
+    private Serializers serializer;
+    @Param
+    private Payload payload;
+
+    /**
+     * 编码端和解码端分开，有连接状态的序列化器（如{@link Serializers#FAST_JDK}）和实际使用时一致
+     */
+    private RpcSerializer encoder;
+    private RpcSerializer decoder;
+    private Method method;
+    private RpcRequest request;
+    private RpcResponse response;
+    private ByteBuf out;
+    /**
+     * 编码好的请求和响应，每次解码前重置读索引
+     */
+    private ByteBuf encodedRequest;
+    private ByteBuf encodedResponse;
+
+    @Setup(Level.Trial)
+    public void setup() throws SerializationException {
+        encoder = newSerializer(serializer);
+        decoder = newSerializer(serializer);
+        method = payload.getMethod();
+        request = payload.request();
+        response = payload.response(request);
+        out = PooledByteBufAllocator.DEFAULT.directBuffer(1 << 16);
+        // 先完整地编解码一次，之后的数据是连接上稳定状态的数据
+        ByteBuf first = encode(request);
+        decodeRequest(first);
+        first.release();
+        first = encode(response);
+        decodeResponse(first);
+        first.release();
+        encodedRequest = encode(request);
+        encodedResponse = encode(response);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        out.release();
+        encodedRequest.release();
+        encodedResponse.release();
+    }
+
+    @Benchmark
+    public ByteBuf encodeRequest() throws SerializationException {
+        out.clear();
+        encoder.encode(request, out);
+        return out;
+    }
+
+    @Benchmark
+    public RpcRequest decodeRequest() throws SerializationException {
+        encodedRequest.readerIndex(0);
+        return decodeRequest(encodedRequest);
+    }
+
+    @Benchmark
+    public ByteBuf encodeResponse() throws SerializationException {
+        out.clear();
+        encoder.encode(response, out);
+        return out;
+    }
+
+    @Benchmark
+    public RpcResponse decodeResponse() throws SerializationException {
+        encodedResponse.readerIndex(0);
+        return decodeResponse(encodedResponse);
+    }
+
+    private RpcRequest decodeRequest(ByteBuf in) throws SerializationException {
+        RpcRequest decoded = decoder.decode(in, RpcRequest.class);
+        decoded.resolveParameters(method.getGenericParameterTypes());
+        return decoded;
+    }
+
+    private RpcResponse decodeResponse(ByteBuf in) throws SerializationException {
+        RpcResponse decoded = decoder.decode(in, RpcResponse.class);
+        decoded.resolveData(method.getGenericReturnType());
+        return decoded;
+    }
+
+    private ByteBuf encode(Object message) throws SerializationException {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer();
+        if(message instanceof RpcRequest){
+            encoder.encode((RpcRequest) message, buf);
+        } else {
+            encoder.encode((RpcResponse) message, buf);
+        }
+        return buf;
+    }
+
+    static RpcSerializer newSerializer(Serializers type){
+        return new SerializerFactory<>(type.getSerializerClass()).newInstance();
+    }
+}
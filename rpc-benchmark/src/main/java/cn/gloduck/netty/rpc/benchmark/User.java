@@ -0,0 +1,48 @@
+package cn.gloduck.netty.rpc.benchmark;
+
+import java.io.Serializable;
+
+/**
+ * 和测试模块中的User字段一致，jdk序列化需要实现Serializable
+ * @author Gloduck
+ */
+public class User implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Integer id;
+    private String name;
+    private String password;
+
+    public User() {
+    }
+
+    public User(Integer id, String name, String password) {
+        this.id = id;
+        this.name = name;
+        this.password = password;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+}
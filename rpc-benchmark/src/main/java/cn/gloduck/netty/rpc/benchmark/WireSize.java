@@ -0,0 +1,60 @@
+package cn.gloduck.netty.rpc.benchmark;
+
+import cn.gloduck.netty.rpc.codec.RpcMessage;
+import cn.gloduck.netty.rpc.codec.RpcProtocol;
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.enums.Serializers;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * 输出每种序列化器和消息内容编码后的字节数，包括v1和v2协议的整帧大小。
+ * 有连接状态的序列化器取连接上第二次发送的大小
+ * @author Gloduck
+ */
+public class WireSize {
+
+    public static void main(String[] args) {
+        System.out.printf("%-14s %-11s %10s %10s %10s %10s%n", "serializer", "payload", "request.v1", "request.v2", "response.v1", "response.v2");
+        for (Serializers serializer : Serializers.values()) {
+            if(serializer.getSerializerClass() == null){
+                continue;
+            }
+            for (Payload payload : Payload.values()) {
+                RpcRequest v1 = payload.request();
+                RpcRequest v2 = payload.request();
+                System.out.printf("%-14s %-11s %10d %10d %10d %10d%n", serializer, payload,
+                        frameSize(serializer, RpcProtocol.VERSION_1, v1),
+                        frameSize(serializer, RpcProtocol.VERSION_2, v2),
+                        frameSize(serializer, RpcProtocol.VERSION_1, payload.response(v1)),
+                        frameSize(serializer, RpcProtocol.VERSION_2, payload.response(v2)));
+            }
+        }
+    }
+
+    private static int frameSize(Serializers serializer, int version, RpcMessage message){
+        EmbeddedChannel from = CodecBenchmark.channel(serializer, version);
+        EmbeddedChannel to = CodecBenchmark.channel(serializer, version);
+        try {
+            CodecBenchmark.transfer(from, to, message);
+            from.writeOutbound(message);
+            int size = 0;
+            boolean written;
+            do {
+                // 分片每轮只写出一个
+                from.runPendingTasks();
+                written = false;
+                ByteBuf frame;
+                while ((frame = from.readOutbound()) != null){
+                    size += frame.readableBytes();
+                    frame.release();
+                    written = true;
+                }
+            } while (written);
+            return size;
+        } finally {
+            from.finishAndReleaseAll();
+            to.finishAndReleaseAll();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package cn.gloduck.netty.rpc.benchmark;
+
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.serializer.protostuff.FastProtostuffSerializer;
+import cn.gloduck.netty.rpc.transport.NettyConfig;
+import cn.gloduck.netty.rpc.transport.client.NettyClient;
+import cn.gloduck.netty.rpc.transport.client.Transporter;
+import cn.gloduck.netty.rpc.transport.server.NettyServer;
+import cn.gloduck.netty.rpc.utils.ReflectUtil;
+import com.sun.management.ThreadMXBean;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同步调用时客户端和服务端所有线程每次调用分配的内存，防止热路径上重新出现多余的分配。
+ * 请求和代理一样只带方法ID，上限在实测值（紧凑编码约780字节，protostuff约1260字节）上留了余量。
+ * 测量的是整个JVM的分配，默认的mvn test不运行，使用 mvn test -Dbenchmark 运行
+ * @author Gloduck
+ */
+public class AllocationTest {
+    private static final int CALLS = 20000;
+    private static final int ROUNDS = 5;
+    private static final long COMPACT_BUDGET = 1024;
+    private static final long SERIALIZED_BUDGET = 1536;
+    private static NettyServer server;
+    private static NettyClient client;
+    private static Transporter transporter;
+    private static Class<?>[] types;
+    private static int methodId;
+
+    public static class Calculator {
+        public int add(int a, int b){
+            return a + b;
+        }
+    }
+
+    @BeforeClass
+    public static void start() throws Exception {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        int port = freePort();
+        server = new NettyServer(NettyConfig.serverBuilder()
+                .address("127.0.0.1", port)
+                .serializer(FastProtostuffSerializer.class)
+                .threadPool(new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>()))
+                .build());
+        Method add = Calculator.class.getMethod("add", int.class, int.class);
+        server.registryServiceBean("add", new Calculator(), add);
+        server.start();
+        client = new NettyClient(NettyConfig.clientBuilder()
+                .serializer(FastProtostuffSerializer.class)
+                .protocolVersion(2)
+                .requestTimeout(5000)
+                .build());
+        client.start();
+        transporter = client.createTransporter("127.0.0.1", port);
+        types = add.getParameterTypes();
+        // 等待握手完成
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((methodId = transporter.lookupMethodId("add", ReflectUtil.signature(types))) <= 0){
+            Assert.assertTrue("握手超时", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @AfterClass
+    public static void stop() {
+        if(transporter != null){
+            transporter.destroy();
+        }
+        if(client != null){
+            client.stop();
+        }
+        if(server != null){
+            server.stop();
+        }
+    }
+
+    @Test
+    public void compactCall() throws Exception {
+        long bytes = bytesPerCall(true);
+        Assert.assertTrue("紧凑编码每次调用分配 " + bytes + " 字节", bytes <= COMPACT_BUDGET);
+    }
+
+    @Test
+    public void serializedCall() throws Exception {
+        long bytes = bytesPerCall(false);
+        Assert.assertTrue("protostuff每次调用分配 " + bytes + " 字节", bytes <= SERIALIZED_BUDGET);
+    }
+
+    /**
+     * 预热后执行多轮，取最小值排除GC、JIT等偶发的分配
+     * @param compact
+     * @return
+     */
+    private static long bytesPerCall(boolean compact) throws Exception {
+        Object[] args = {1, 2};
+        long min = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < CALLS; i++) {
+                RpcRequest request = RpcRequest.newInstance();
+                request.setMethodId(methodId);
+                request.setParameters(args);
+                request.setArgumentTypes(types);
+                request.setResultType(int.class);
+                request.setCompact(compact);
+                Assert.assertEquals(3, transporter.syncSend(request));
+            }
+            // 第一轮用于预热
+            if(round > 0){
+                min = Math.min(min, (allocatedBytes() - before) / CALLS);
+            }
+        }
+        return min;
+    }
+
+    private static long allocatedBytes(){
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sum = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if(bytes > 0){
+                sum += bytes;
+            }
+        }
+        return sum;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package cn.gloduck.netty.rpc.benchmark;
+
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.codec.RpcResponse;
+import cn.gloduck.netty.rpc.transport.client.ResponseFuture;
+import cn.gloduck.netty.rpc.transport.client.RpcResponseHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个连接上有100万个正在处理的请求时，请求表本身占用的内存。
+ * 请求和future在测量前创建，测量的增量只包括{@link RpcResponseHandler}中的表，原来的{@link ConcurrentHashMap}作为对照。
+ * 测量的是整个堆，默认的mvn test不运行，使用 mvn test -Dbenchmark 运行
+ * @author Gloduck
+ */
+public class PendingTableFootprintTest {
+    private static final int INFLIGHT = 1_000_000;
+    /**
+     * 请求表每个槽位12字节（long键和压缩指针值），100万个请求正好放入2^20个槽位；ConcurrentHashMap约64字节
+     */
+    private static final long BYTES_PER_CALL_BUDGET = 16;
+
+    @Test
+    public void millionInflight() throws InterruptedException {
+        // 请求不设置超时，不会加入时间轮
+        HashedWheelTimer timer = new HashedWheelTimer();
+        RpcResponseHandler handler = new RpcResponseHandler("127.0.0.1:0", timer);
+        // 丢弃写出的请求，只保留登记的结果
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+                ReferenceCountUtil.release(msg);
+                promise.setSuccess();
+            }
+        }, handler);
+        // 写出后future不再持有请求，测量期间由数组保留
+        RpcRequest[] requests = new RpcRequest[INFLIGHT];
+        ResponseFuture[] futures = new ResponseFuture[INFLIGHT];
+        for (int i = 0; i < INFLIGHT; i++) {
+            requests[i] = new RpcRequest();
+            futures[i] = handler.registryProcessRequest(requests[i]);
+        }
+
+        long before = usedHeap();
+        for (ResponseFuture future : futures) {
+            channel.write(future);
+        }
+        long bytesPerCall = (usedHeap() - before) / INFLIGHT;
+
+        Map<Long, ResponseFuture> concurrentMap = new ConcurrentHashMap<>(16);
+        long concurrentBefore = usedHeap();
+        for (int i = 0; i < INFLIGHT; i++) {
+            concurrentMap.put((long) i + 1, futures[i]);
+        }
+        long concurrentBytesPerCall = (usedHeap() - concurrentBefore) / INFLIGHT;
+        concurrentMap.clear();
+        Reference.reachabilityFence(requests);
+        Assert.assertTrue("请求表每个请求占用 " + bytesPerCall + " 字节，ConcurrentHashMap为 " + concurrentBytesPerCall + " 字节",
+                bytesPerCall <= BYTES_PER_CALL_BUDGET);
+
+        // 所有请求都能收到响应
+        for (ResponseFuture future : futures) {
+            RpcResponse response = new RpcResponse(null, RpcResponse.SUCCESS, null, null);
+            response.setId(future.getRequestId());
+            channel.writeInbound(response);
+        }
+        for (ResponseFuture future : futures) {
+            Assert.assertTrue(future.isDone());
+        }
+        channel.finishAndReleaseAll();
+        timer.stop();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
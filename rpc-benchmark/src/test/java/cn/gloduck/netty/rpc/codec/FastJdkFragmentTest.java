@@ -0,0 +1,63 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.serializer.jdk.FastJdkSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * 使用{@link FastJdkSerializer}的连接上，大消息分片发送时后面的小消息不能先于它到达，
+ * 否则小消息中引用的类描述编号在接收方还没有定义
+ * @author Gloduck
+ */
+public class FastJdkFragmentTest {
+    private static final int FRAGMENT_SIZE = 256;
+
+    @Test
+    public void smallFrameAfterFragmentedFrame() {
+        EmbeddedChannel sender = new EmbeddedChannel(new RpcFragmentHandler(FRAGMENT_SIZE),
+                new RpcEncoder(new FastJdkSerializer(), RpcProtocol.VERSION_2, Integer.MAX_VALUE));
+        EmbeddedChannel receiver = new EmbeddedChannel(new RpcDecoder(new FastJdkSerializer()));
+
+        // 第一个请求定义了RpcRequest等类描述的编号，需要分片
+        char[] chars = new char[FRAGMENT_SIZE * 8];
+        Arrays.fill(chars, 'a');
+        String large = new String(chars);
+        sender.write(request(1, large));
+        // 第二个请求只写编号，不需要分片
+        sender.write(request(2, "b"));
+        sender.flush();
+        sender.runPendingTasks();
+
+        ByteBuf frame;
+        int frames = 0;
+        while ((frame = sender.readOutbound()) != null) {
+            receiver.writeInbound(frame);
+            frames++;
+        }
+        Assert.assertTrue("第一个请求没有分片", frames > 2);
+
+        RpcRequest first = receiver.readInbound();
+        RpcRequest second = receiver.readInbound();
+        Assert.assertEquals(1, first.getId());
+        Assert.assertEquals(large, first.getParameters()[0]);
+        Assert.assertEquals(2, second.getId());
+        Assert.assertEquals("b", second.getParameters()[0]);
+        Assert.assertNull(receiver.readInbound());
+
+        Assert.assertFalse(sender.finishAndReleaseAll());
+        Assert.assertFalse(receiver.finishAndReleaseAll());
+    }
+
+    private static RpcRequest request(long id, String parameter) {
+        RpcRequest request = new RpcRequest();
+        request.setId(id);
+        request.setServiceName("test");
+        request.setParameterTypes(new Class<?>[]{String.class});
+        request.setParameters(new Object[]{parameter});
+        return request;
+    }
+}
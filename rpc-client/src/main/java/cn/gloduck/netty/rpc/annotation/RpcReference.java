@@ -1,6 +1,7 @@
 package cn.gloduck.netty.rpc.annotation;
 
 
+import cn.gloduck.netty.rpc.enums.Serializers;
 import cn.gloduck.netty.rpc.loadbance.LoadBlance;
 
 import java.lang.annotation.*;
@@ -27,4 +28,16 @@ public @interface RpcReference {
 
     int timeout() default 500;
 
+    /**
+     * 单向调用，只发送请求不等待响应，方法的返回值始终为null。需要使用v2协议
+     * @return
+     */
+    boolean oneway() default false;
+
+    /**
+     * 调用使用的序列化方式，默认使用服务端为该服务指定的序列化方式，服务端没有指定时使用连接的序列化器
+     * @return
+     */
+    Serializers serializer() default Serializers.DEFAULT;
+
 }
@@ -0,0 +1,188 @@
+package cn.gloduck.netty.rpc.proxy;
+
+import cn.gloduck.netty.rpc.annotation.RpcReference;
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.serializer.codegen.GeneratedCodecs;
+import cn.gloduck.netty.rpc.serializer.kryo.KryoRegistry;
+import cn.gloduck.netty.rpc.transport.client.ResponseFuture;
+import cn.gloduck.netty.rpc.transport.client.Transporter;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量调用。通过{@link #service()}得到的代理只记录调用，返回值为null或基本类型的默认值，
+ * 调用{@link #submit()}后同一个连接上的调用放在一个帧中发送。
+ * <pre>
+ * RpcBatch&lt;TestService&gt; batch = RpcBatch.of(TestService.class);
+ * batch.service().getUser(1);
+ * batch.service().getUser(2);
+ * List&lt;ResponseFuture&gt; futures = batch.submit();
+ * </pre>
+ * 同一个服务的调用发送到同一个实例。单向调用在提交时单独发送，对应位置的ResponseFuture为null。
+ * 该类不是线程安全的
+ * @author Gloduck
+ */
+public final class RpcBatch<T> {
+    private final T service;
+    private final List<Invocation> invocations;
+    private boolean submitted;
+
+    @SuppressWarnings("unchecked")
+    private RpcBatch(Class<T> interfaceType) {
+        this.invocations = new ArrayList<>();
+        this.service = (T) Proxy.newProxyInstance(interfaceType.getClassLoader(), new Class<?>[]{interfaceType}, new Recorder());
+    }
+
+    /**
+     * 为接口创建一个批量调用
+     * @param interfaceType
+     * @param <T>
+     * @return
+     */
+    public static <T> RpcBatch<T> of(Class<T> interfaceType) {
+        return new RpcBatch<>(interfaceType);
+    }
+
+    /**
+     * 记录调用的代理
+     * @return
+     */
+    public T service() {
+        return service;
+    }
+
+    /**
+     * 已经记录的调用数量
+     * @return
+     */
+    public int size() {
+        return invocations.size();
+    }
+
+    /**
+     * 发送所有记录的调用，每个批量调用只能提交一次
+     * @return 和调用顺序一致的ResponseFuture
+     */
+    public List<ResponseFuture> submit() {
+        if (submitted) {
+            throw new IllegalStateException("批量调用已经提交");
+        }
+        submitted = true;
+        // 同一个服务只选择一次实例
+        Map<String, List<Invocation>> services = new LinkedHashMap<>();
+        for (Invocation invocation : invocations) {
+            services.computeIfAbsent(invocation.annotation.serviceName(), k -> new ArrayList<>()).add(invocation);
+        }
+        // 不同服务可能在同一个实例上，按照连接再次分组
+        Map<Transporter, List<Invocation>> transporters = new IdentityHashMap<>();
+        for (List<Invocation> group : services.values()) {
+            Invocation first = group.get(0);
+            Transporter transporter = RpcProxy.chooseTransporter(first.annotation.serviceName(), first.annotation.loadBlance(), first.method);
+            List<Invocation> sameTransporter = transporters.computeIfAbsent(transporter, k -> new ArrayList<>());
+            for (Invocation invocation : group) {
+                invocation.request = RpcProxy.buildRequest(invocation.method, invocation.args, invocation.annotation, transporter);
+                if (invocation.annotation.oneway()) {
+                    transporter.onewaySend(invocation.request);
+                } else {
+                    sameTransporter.add(invocation);
+                }
+            }
+        }
+        ResponseFuture[] futures = new ResponseFuture[invocations.size()];
+        for (Map.Entry<Transporter, List<Invocation>> entry : transporters.entrySet()) {
+            List<Invocation> group = entry.getValue();
+            if (group.isEmpty()) {
+                continue;
+            }
+            List<RpcRequest> requests = new ArrayList<>(group.size());
+            for (Invocation invocation : group) {
+                requests.add(invocation.request);
+            }
+            List<ResponseFuture> sent = entry.getKey().batchSend(requests);
+            for (int i = 0; i < group.size(); i++) {
+                futures[group.get(i).index] = sent.get(i);
+            }
+        }
+        return Arrays.asList(futures);
+    }
+
+    /**
+     * 一次被记录的调用
+     */
+    private static final class Invocation {
+        private final int index;
+        private final Method method;
+        private final Object[] args;
+        private final RpcReference annotation;
+        private RpcRequest request;
+
+        private Invocation(int index, Method method, Object[] args, RpcReference annotation) {
+            this.index = index;
+            this.method = method;
+            this.args = args;
+            this.annotation = annotation;
+        }
+    }
+
+    private final class Recorder implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (Object.class == method.getDeclaringClass()) {
+                String name = method.getName();
+                if ("equals".equals(name)) {
+                    return proxy == args[0];
+                } else if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                } else if ("toString".equals(name)) {
+                    return "RpcBatch@" + Integer.toHexString(System.identityHashCode(RpcBatch.this));
+                } else {
+                    throw new IllegalStateException(String.valueOf(method));
+                }
+            }
+            if (submitted) {
+                throw new IllegalStateException("批量调用已经提交");
+            }
+            RpcReference annotation = RpcProxy.getReference(method);
+            KryoRegistry.instance().registerMethod(method);
+            GeneratedCodecs.instance().registerMethod(method);
+            invocations.add(new Invocation(invocations.size(), method, args, annotation));
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * 记录调用时的返回值
+     * @param type
+     * @return
+     */
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0F;
+        } else {
+            return 0D;
+        }
+    }
+}
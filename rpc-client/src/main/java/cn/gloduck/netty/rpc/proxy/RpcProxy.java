@@ -1,22 +1,32 @@
 package cn.gloduck.netty.rpc.proxy;
 
 import cn.gloduck.netty.rpc.annotation.RpcReference;
+import cn.gloduck.netty.rpc.codec.CompactCodec;
 import cn.gloduck.netty.rpc.codec.RpcRequest;
 import cn.gloduck.netty.rpc.exception.RpcInvokeException;
 import cn.gloduck.netty.rpc.loadbance.LoadBlance;
 import cn.gloduck.netty.rpc.transport.client.Transporter;
 import cn.gloduck.netty.rpc.transport.client.ConnectionManager;
 import cn.gloduck.netty.rpc.ref.client.Instance;
+import cn.gloduck.netty.rpc.thread.NamedThreadFactory;
 import cn.gloduck.netty.rpc.transport.client.ResponseFuture;
 import cn.gloduck.netty.rpc.utils.CollectionUtil;
+import cn.gloduck.netty.rpc.utils.ReflectUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
 
 /**
  * @author Gloduck
@@ -24,7 +34,27 @@ import java.util.UUID;
 public class RpcProxy implements InvocationHandler {
     private final static Logger logger = LoggerFactory.getLogger(RpcProxy.class);
     // 获取channel失败默认重试的次数
-    private final int DEFAULT_RETRY_COUNTS = 5;
+    private static final int DEFAULT_RETRY_COUNTS = 5;
+    /**
+     * 方法参数类型的签名缓存
+     */
+    private static final Map<Method, Integer> signatureCache = new ConcurrentHashMap<>(16);
+    /**
+     * 方法的返回值类型，无法确定时保存为void.class
+     */
+    private static final Map<Method, Type> resultTypeCache = new ConcurrentHashMap<>(16);
+    /**
+     * 方法的参数和返回值能否使用紧凑编码
+     */
+    private static final Map<Method, Boolean> compactCache = new ConcurrentHashMap<>(16);
+    /**
+     * 方法的参数类型，避免每次调用{@link Method#getParameterTypes()}复制数组，数组在请求之间共享，不能修改
+     */
+    private static final Map<Method, Class<?>[]> parameterTypesCache = new ConcurrentHashMap<>(16);
+    /**
+     * 返回值为{@link Flow.Publisher}的方法在还没有连接时，在这里创建连接并发送请求，不阻塞订阅者的线程
+     */
+    private static final Executor publisherConnector = Executors.newCachedThreadPool(new NamedThreadFactory("rpc-publisher-connect-", true));
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         if (Object.class == method.getDeclaringClass()) {
@@ -41,6 +71,63 @@ public class RpcProxy implements InvocationHandler {
                 throw new IllegalStateException(String.valueOf(method));
             }
         }
+        RpcReference annotation = getReference(method);
+        Class<?> returnType = method.getReturnType();
+        if(returnType == Flow.Publisher.class && !annotation.oneway()){
+            // 订阅后才选择连接并发送请求
+            return new RpcPublisher<>(() -> {
+                Transporter transporter = chooseConnectedTransporter(annotation.serviceName(), annotation.loadBlance());
+                if(transporter != null){
+                    return CompletableFuture.completedFuture(asyncSend(transporter, buildRequest(method, args, annotation, transporter), annotation.timeout()));
+                }
+                // 还没有可用的连接，创建连接可能阻塞，放到单独的线程中
+                return CompletableFuture.supplyAsync(() -> {
+                    Transporter created = chooseTransporter(annotation.serviceName(), annotation.loadBlance(), method);
+                    return asyncSend(created, buildRequest(method, args, annotation, created), annotation.timeout());
+                }, publisherConnector);
+            });
+        }
+        Transporter transporter = chooseTransporter(annotation.serviceName(), annotation.loadBlance(), method);
+        RpcRequest request = buildRequest(method, args, annotation, transporter);
+        int timeout = annotation.timeout();
+        Object returnValue = null;
+        if(annotation.oneway()){
+            // 单向调用
+            transporter.onewaySend(request);
+        } else if(isAsync(returnType)){
+            // 异步执行，同样在超时后结束
+            ResponseFuture<?> future = asyncSend(transporter, request, timeout);
+            returnValue = returnType == ResponseFuture.class ? future : future.toCompletableFuture();
+        } else {
+            // 同步执行
+            if(timeout <= 0 ){
+                // 如果timeout设置出错，那么使用config中提供的超时时间
+                returnValue = transporter.syncSend(request);
+            } else {
+                // 否则使用注解的超时时间。
+                returnValue = transporter.syncSend(request, timeout);
+            }
+        }
+        return returnValue;
+    }
+
+    /**
+     * 异步发送，注解没有设置超时时间时使用config中提供的超时时间
+     * @param transporter
+     * @param request
+     * @param timeout
+     * @return
+     */
+    private static <T> ResponseFuture<T> asyncSend(Transporter transporter, RpcRequest request, int timeout){
+        return timeout <= 0 ? transporter.asyncSend(request) : transporter.asyncSend(request, timeout);
+    }
+
+    /**
+     * 获取方法上的RpcReference注解
+     * @param method
+     * @return
+     */
+    static RpcReference getReference(Method method){
         RpcReference annotation = method.getAnnotation(RpcReference.class);
         if(annotation == null){
             // 注：此处待完善
@@ -48,16 +135,17 @@ public class RpcProxy implements InvocationHandler {
             logger.warn(msg);
             throw new AbstractMethodError(msg);
         }
-        LoadBlance loadBlance = annotation.loadBlance();
-        String serviceName = annotation.serviceName();
-        RpcRequest request = new RpcRequest();
-        String requestId = UUID.randomUUID().toString();
-        request.setRequestId(requestId);
-        request.setServiceName(serviceName);
-/*        request.setInterfaceName(method.getDeclaringClass().getName());
-        request.setMethodName(method.getName());*/
-        request.setParameters(args);
-        request.setParameterTypes(method.getParameterTypes());
+        return annotation;
+    }
+
+    /**
+     * 从注册中心获取服务的实例，并按照负载均衡算法选择一个可用的连接
+     * @param serviceName
+     * @param loadBlance
+     * @param method
+     * @return
+     */
+    static Transporter chooseTransporter(String serviceName, LoadBlance loadBlance, Method method){
         // 从注册中心获取实例
         List<Instance> instances = ConnectionManager.instance().getInstanceForServiceName(serviceName);
         if(CollectionUtil.isEmptyCollection(instances)){
@@ -83,23 +171,102 @@ public class RpcProxy implements InvocationHandler {
             // 如果始终获取不到有效实例，则异常退出。
             throw new RpcInvokeException("无法创建连接来执行RPC服务 :" + method.getName());
         }
-        final String asyncReturn = ResponseFuture.class.getTypeName();
-        Type returnType = method.getReturnType();
-        int timeout = annotation.timeout();
-        Object returnValue = null;
-        if(asyncReturn.equals(returnType.getTypeName())){
-            // 异步执行
-           returnValue =  transporter.asyncSend(request);
+        return transporter;
+    }
+
+    /**
+     * 按照负载均衡算法选择实例，只使用已经建立的连接，不会阻塞
+     * @param serviceName
+     * @param loadBlance
+     * @return 没有实例或者选中的实例还没有可用的连接时返回null
+     */
+    static Transporter chooseConnectedTransporter(String serviceName, LoadBlance loadBlance){
+        List<Instance> instances = ConnectionManager.instance().getInstanceForServiceName(serviceName);
+        if(CollectionUtil.isEmptyCollection(instances)){
+            return null;
+        }
+        return ConnectionManager.instance().getTransporter(loadBlance.chooseHandler(instances).getAddress());
+    }
+
+    /**
+     * 创建请求，握手完成后只携带方法ID
+     * @param method
+     * @param args
+     * @param annotation
+     * @param transporter 请求将要使用的连接
+     * @return
+     */
+    static RpcRequest buildRequest(Method method, Object[] args, RpcReference annotation, Transporter transporter){
+        String serviceName = annotation.serviceName();
+        // 请求号由连接在发送时分配
+        RpcRequest request = RpcRequest.newInstance();
+        request.setParameters(args);
+        Class<?>[] parameterTypes = parameterTypesCache.computeIfAbsent(method, Method::getParameterTypes);
+        request.setArgumentTypes(parameterTypes);
+        if(!annotation.oneway()){
+            Type resultType = resultTypeCache.computeIfAbsent(method, RpcProxy::resultType);
+            request.setResultType(resultType == void.class ? null : resultType);
+        }
+        request.setCompact(compactCache.computeIfAbsent(method, RpcProxy::compact));
+        int signature = signatureCache.computeIfAbsent(method, m -> ReflectUtil.signature(parameterTypes));
+        int methodId = transporter.lookupMethodId(serviceName, signature);
+        if(methodId > 0){
+            // 握手完成后只发送方法ID
+            request.setMethodId(methodId);
         } else {
-            // 同步执行
-            if(timeout <= 0 ){
-                // 如果timeout设置出错，那么使用config中提供的超时时间
-                returnValue = transporter.syncSend(request);
-            } else {
-                // 否则使用注解的超时时间。
-                returnValue = transporter.syncSend(request, timeout);
+            request.setServiceName(serviceName);
+            request.setParameterTypes(parameterTypes);
+        }
+        // 优先使用注解指定的序列化器，其次是服务端建议的序列化器
+        byte serializerTypeCode = annotation.serializer().getTypeCode();
+        if(serializerTypeCode < 0 && methodId > 0){
+            serializerTypeCode = transporter.preferredSerializer(methodId);
+        }
+        request.setSerializerTypeCode(serializerTypeCode);
+        return request;
+    }
+
+    /**
+     * 参数和返回值是否都可以使用紧凑编码，异步调用没有声明返回值类型时不使用
+     * @param method
+     * @return
+     */
+    private static boolean compact(Method method){
+        Type resultType = resultTypeCache.computeIfAbsent(method, RpcProxy::resultType);
+        if(resultType == void.class && method.getReturnType() != void.class){
+            return false;
+        }
+        return resultType instanceof Class && CompactCodec.supports(method.getParameterTypes(), (Class<?>) resultType);
+    }
+
+    /**
+     * 是否为异步调用，返回{@link ResponseFuture}、{@link CompletableFuture}、{@link CompletionStage}或{@link Flow.Publisher}
+     * @param returnType
+     * @return
+     */
+    private static boolean isAsync(Class<?> returnType){
+        return returnType == ResponseFuture.class || returnType == CompletableFuture.class
+                || returnType == CompletionStage.class || returnType == Flow.Publisher.class;
+    }
+
+    /**
+     * 响应中返回值的类型，包括泛型参数，异步调用取future的泛型参数
+     * @param method
+     * @return 无法确定时返回void.class
+     */
+    private static Type resultType(Method method){
+        Class<?> returnType = method.getReturnType();
+        if(returnType == void.class){
+            return void.class;
+        }
+        Type genericReturnType = method.getGenericReturnType();
+        if(isAsync(returnType)){
+            if(genericReturnType instanceof ParameterizedType){
+                Type argument = ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
+                return argument instanceof Class || argument instanceof ParameterizedType ? argument : void.class;
             }
+            return void.class;
         }
-        return returnValue;
+        return genericReturnType instanceof Class || genericReturnType instanceof ParameterizedType ? genericReturnType : returnType;
     }
 }
@@ -0,0 +1,138 @@
+package cn.gloduck.netty.rpc.proxy;
+
+import cn.gloduck.netty.rpc.transport.client.ResponseFuture;
+import cn.gloduck.netty.rpc.transport.client.RpcResponseHandler;
+
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 返回值为{@link Flow.Publisher}的RPC方法返回的发布者。每次订阅都是一次独立的调用，
+ * 订阅者第一次请求数据时才选择连接并发送请求，取消订阅时取消请求。
+ * 已经有可用的连接时在订阅者的线程中直接发送，需要创建连接时在单独的线程中创建连接并发送，{@link Flow.Subscription#request(long)}不会阻塞。
+ * <p>
+ * 响应只有一个元素，收到响应后依次发出onNext和onComplete，返回值为null时只发出onComplete。
+ * 信号在完成请求的线程中发出，通常是事件循环，配置了回调线程池时在线程池中发出
+ * @author Gloduck
+ */
+final class RpcPublisher<T> implements Flow.Publisher<T> {
+    /**
+     * 发送请求，每次订阅调用一次，请求发出后返回的stage结束
+     */
+    private final Supplier<CompletionStage<ResponseFuture<T>>> call;
+
+    RpcPublisher(Supplier<CompletionStage<ResponseFuture<T>>> call) {
+        this.call = call;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        subscriber.onSubscribe(new RpcSubscription<>(subscriber, call));
+    }
+
+    private static final class RpcSubscription<T> implements Flow.Subscription, ResponseFuture.ResponseListener<T> {
+        /**
+         * 还没有请求数据
+         */
+        private static final int INIT = 0;
+        /**
+         * 已经发送请求，等待响应
+         */
+        private static final int REQUESTED = 1;
+        /**
+         * 已经发出结束信号或者被取消
+         */
+        private static final int DONE = 2;
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Supplier<CompletionStage<ResponseFuture<T>>> call;
+        private final AtomicInteger state = new AtomicInteger(INIT);
+        private volatile ResponseFuture<T> future;
+
+        RpcSubscription(Flow.Subscriber<? super T> subscriber, Supplier<CompletionStage<ResponseFuture<T>>> call) {
+            this.subscriber = subscriber;
+            this.call = call;
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0){
+                int previous = state.getAndSet(DONE);
+                if(previous != DONE){
+                    if(previous == REQUESTED){
+                        cancelFuture();
+                    }
+                    subscriber.onError(new IllegalArgumentException("请求的数量必须大于0 : " + n));
+                }
+                return;
+            }
+            if(!state.compareAndSet(INIT, REQUESTED)){
+                // 请求已经发出，或者已经取消
+                return;
+            }
+            CompletionStage<ResponseFuture<T>> sent;
+            try {
+                sent = call.get();
+            } catch (Throwable e){
+                sendFailed(e);
+                return;
+            }
+            sent.whenComplete(this::sent);
+        }
+
+        private void sent(ResponseFuture<T> future, Throwable cause){
+            if(cause != null){
+                sendFailed(cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause);
+                return;
+            }
+            this.future = future;
+            if(state.get() == DONE){
+                // 发送请求时被取消
+                future.cancel(true);
+                return;
+            }
+            future.addListener(this);
+        }
+
+        private void sendFailed(Throwable cause){
+            if(state.compareAndSet(REQUESTED, DONE)){
+                subscriber.onError(cause);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if(state.getAndSet(DONE) == REQUESTED){
+                cancelFuture();
+            }
+        }
+
+        private void cancelFuture(){
+            ResponseFuture<T> future = this.future;
+            if(future != null){
+                future.cancel(true);
+            }
+        }
+
+        @Override
+        public void operationComplete(T data, Throwable cause) {
+            if(!state.compareAndSet(REQUESTED, DONE)){
+                // 订阅已经取消，返回值没有交给订阅者
+                RpcResponseHandler.discard(data);
+                return;
+            }
+            if(cause != null){
+                subscriber.onError(cause);
+                return;
+            }
+            if(data != null){
+                subscriber.onNext(data);
+            }
+            subscriber.onComplete();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package cn.gloduck.netty.rpc.scan;
 
+import cn.gloduck.netty.rpc.annotation.RpcReference;
 import cn.gloduck.netty.rpc.proxy.RpcProxy;
+import cn.gloduck.netty.rpc.serializer.codegen.GeneratedCodecs;
+import cn.gloduck.netty.rpc.serializer.kryo.KryoRegistry;
 import org.springframework.beans.factory.FactoryBean;
 
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 
 /**
@@ -21,6 +25,12 @@ public class RpcServiceFactory<T> implements FactoryBean<T> {
     @SuppressWarnings("unchecked")
     @Override
     public T getObject() {
+        for (Method method : interfaceType.getMethods()) {
+            if(method.isAnnotationPresent(RpcReference.class)){
+                KryoRegistry.instance().registerMethod(method);
+                GeneratedCodecs.instance().registerMethod(method);
+            }
+        }
         return (T)Proxy.newProxyInstance(interfaceType.getClassLoader(), new Class<?>[]{interfaceType}, new RpcProxy());
     }
 
@@ -3,16 +3,21 @@ package cn.gloduck.netty.rpc.transport.client;
 import cn.gloduck.netty.rpc.ref.client.Instance;
 import cn.gloduck.netty.rpc.ref.client.ServiceInstance;
 import cn.gloduck.netty.rpc.registry.Registry;
+import cn.gloduck.netty.rpc.thread.NamedThreadFactory;
 import cn.gloduck.netty.rpc.transport.functional.TransporterCreator;
 import cn.gloduck.netty.rpc.utils.CollectionUtil;
+import io.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * 管理连接会话
+ * 管理连接会话，每个地址对应一个{@link TransporterPool}
  *
  * @author Gloduck
  */
@@ -20,9 +25,17 @@ public class ConnectionManager {
     private final static Logger logger = LoggerFactory.getLogger(ConnectionManager.class);
     private static ConnectionManager instance = new ConnectionManager();
     /**
-     * 保存了rpc服务端地址和连接的映射
+     * 维护连接池的间隔，毫秒
      */
-    private final Map<String, Transporter> transporterMapping;
+    private static final long MAINTAIN_INTERVAL = 1000;
+    /**
+     * 保存了rpc服务端地址和连接池的映射
+     */
+    private final Map<String, TransporterPool> transporterMapping;
+    /**
+     * 维护连接池的线程，连接池的大小可以变化时才创建
+     */
+    private ScheduledExecutorService maintainer;
     /**
      * 用于创建连接，一般是NettyClient
      */
@@ -41,11 +54,12 @@ public class ConnectionManager {
     }
 
     /**
-     * 创建一个新的连接
+     * 创建一个新的连接池，并创建第一个连接
      *
      * @param address
+     * @return 创建连接失败时返回null
      */
-    private boolean createTransporter(String address) {
+    private TransporterPool createTransporterPool(String address) {
         String host = null;
         int port = 0;
         try {
@@ -56,62 +70,125 @@ public class ConnectionManager {
             logger.warn("创建链接失败，可能是因为地址格式不正确，{}", address);
         }
         if (host == null || port == 0) {
-            return false;
+            return null;
         }
-        Transporter transporter = transporterCreator.createTransporter(host, port);
-        if(transporter.isAvailable()){
-            this.transporterMapping.put(address, transporter);
-            return true;
-        } else {
-            return false;
+        ScheduledExecutorService maintainer = maintainer();
+        TransporterPool pool = new TransporterPool(host, port, transporterCreator, maintainer);
+        if(!pool.connect()){
+            return null;
+        }
+        if(maintainer != null && transporterCreator.getNettyConfig().getMinConnections() > 1){
+            // 在后台补充到最少连接数
+            maintainer.execute(pool::maintain);
+        }
+        return pool;
+    }
+
+    /**
+     * 获取维护连接池的线程，每个地址只有一个连接时不需要维护
+     * @return
+     */
+    private ScheduledExecutorService maintainer(){
+        if(transporterCreator.getNettyConfig().getMaxConnections() <= 1){
+            return null;
+        }
+        if(maintainer == null){
+            maintainer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("rpc-connection-pool-", true));
+            maintainer.scheduleWithFixedDelay(this::maintainPools, MAINTAIN_INTERVAL, MAINTAIN_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        return maintainer;
+    }
+
+    private void maintainPools(){
+        for (TransporterPool pool : transporterMapping.values()) {
+            try {
+                pool.maintain();
+            } catch (Exception e){
+                logger.warn("维护连接池出现错误", e);
+            }
         }
     }
 
     /**
-     * 获取或创建一个新的连接
+     * 从地址已有的连接池中选择一个连接，不创建连接，不会阻塞
+     * @param address
+     * @return 连接池不存在或者没有可用的连接时返回null
+     */
+    public Transporter getTransporter(String address){
+        TransporterPool pool = transporterMapping.get(address);
+        return pool == null ? null : pool.select();
+    }
+
+    /**
+     * 从地址的连接池中选择一个连接，连接池不存在时创建
      * @param address
      * @return
      */
     public Transporter getOrCreateTransporter(String address){
-        Transporter transporter = transporterMapping.get(address);
-        if(transporter != null){
-            return transporter;
-        }
-        boolean create = false;
-        synchronized (this){
-            transporter = transporterMapping.get(address);
-            if(transporter == null){
-                create = createTransporter(address);
-            } else {
-                create = true;
+        TransporterPool pool = transporterMapping.get(address);
+        if(pool == null){
+            synchronized (this){
+                pool = transporterMapping.get(address);
+                if(pool == null){
+                    pool = createTransporterPool(address);
+                    if(pool == null){
+                        return null;
+                    }
+                    transporterMapping.put(address, pool);
+                }
             }
         }
-        return create ? transporterMapping.get(address) : null;
+        Transporter transporter = pool.select();
+        if(transporter == null && transporterMapping.remove(address, pool)){
+            // 连接都已经不可用，下次调用时重新创建
+            pool.destroy();
+        }
+        return transporter;
     }
 
 
     /**
-     * 移除连接
+     * 移除地址的所有连接
      * @param address
      */
     public void removeTransporter(String address) {
-        Transporter transporter = this.transporterMapping.remove(address);
-        transporter.destroy();
+        TransporterPool pool = this.transporterMapping.remove(address);
+        if(pool != null){
+            pool.destroy();
+        }
+    }
+
+    /**
+     * 连接断开时从连接池中移除，连接池中没有连接时移除连接池
+     * @param address
+     * @param channel
+     */
+    public void removeTransporter(String address, Channel channel) {
+        TransporterPool pool = this.transporterMapping.get(address);
+        if(pool != null && pool.remove(channel) && pool.isEmpty()){
+            this.transporterMapping.remove(address, pool);
+        }
     }
 
     /**
      * 移除所有连接
      */
     public void removeAllTransporter(){
-        Set<Map.Entry<String, Transporter>> entries =
+        Set<Map.Entry<String, TransporterPool>> entries =
                 this.transporterMapping.entrySet();
-        Iterator<Map.Entry<String, Transporter>> iterator = entries.iterator();
+        Iterator<Map.Entry<String, TransporterPool>> iterator = entries.iterator();
         while (iterator.hasNext()){
-            Map.Entry<String, Transporter> next = iterator.next();
-            Transporter value = next.getValue();
+            Map.Entry<String, TransporterPool> next = iterator.next();
+            TransporterPool value = next.getValue();
             value.destroy();
             iterator.remove();
         }
+        synchronized (this){
+            if(maintainer != null){
+                maintainer.shutdownNow();
+                maintainer = null;
+            }
+        }
     }
 
 
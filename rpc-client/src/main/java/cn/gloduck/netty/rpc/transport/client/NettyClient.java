@@ -10,9 +10,14 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Netty客户端
  * @author Gloduck
@@ -20,6 +25,10 @@ import org.slf4j.LoggerFactory;
 public class NettyClient extends AbstractNettyServer implements TransporterCreator {
     private static final Logger logger = LoggerFactory.getLogger(NettyClient.class);
     private EventLoopGroup eventLoopGroup;
+    /**
+     * 请求超时使用的时间轮，所有连接共享
+     */
+    private Timer timeoutTimer;
     public NettyClient(NettyConfig nettyConfig) {
         super(nettyConfig);
     }
@@ -27,6 +36,7 @@ public class NettyClient extends AbstractNettyServer implements TransporterCreat
     @Override
     protected boolean initNettyServer() throws Exception {
         eventLoopGroup = new NioEventLoopGroup(nettyConfig.getWorkerThread());
+        timeoutTimer = new HashedWheelTimer(new DefaultThreadFactory("rpc-timeout", true), 10, TimeUnit.MILLISECONDS, 512);
         return true;
     }
 
@@ -36,10 +46,19 @@ public class NettyClient extends AbstractNettyServer implements TransporterCreat
             eventLoopGroup.shutdownGracefully();
             eventLoopGroup = null;
         }
+        if(timeoutTimer != null){
+            timeoutTimer.stop();
+            timeoutTimer = null;
+        }
+    }
+
+    @Override
+    public NettyConfig getNettyConfig() {
+        return nettyConfig;
     }
 
     /**
-     * 创建一个新的连接
+     * 创建一个新的连接，连接依次分配到不同的事件循环
      * @param host
      * @param port
      * @return
@@ -47,7 +66,7 @@ public class NettyClient extends AbstractNettyServer implements TransporterCreat
     @Override
     public Transporter createTransporter(String host, int port) {
         String remoteAddress = NetUtil.toUrlString(host, port);
-        RpcClientInitializer initializer = new RpcClientInitializer(remoteAddress,nettyConfig);
+        RpcClientInitializer initializer = new RpcClientInitializer(remoteAddress, nettyConfig, timeoutTimer);
         Bootstrap bootstrap = new Bootstrap();
         // 设置连接超时时间
         bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, nettyConfig.getConnectTimeout());
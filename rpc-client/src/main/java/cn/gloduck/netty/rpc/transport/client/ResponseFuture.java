@@ -4,181 +4,502 @@ package cn.gloduck.netty.rpc.transport.client;
 import cn.gloduck.netty.rpc.codec.RpcRequest;
 import cn.gloduck.netty.rpc.codec.RpcResponse;
 import cn.gloduck.netty.rpc.exception.*;
+import io.netty.util.Recycler;
+import io.netty.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutionException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 
 /**
+ * 通过{@link #newInstance(RpcRequest, RpcResponseHandler)}创建的future来自对象池，
+ * 同步调用取出返回值后由{@link Transporter}连同响应一起回收，异步调用返回给调用者的future不回收。
+ * 设置了超时时间的future登记时在时间轮中加入超时任务，到期没有收到响应时以{@link RpcTimeoutException}结束。
+ * <p>
+ * 结果保存在volatile字段中，完成时只需要获取一次没有竞争的对象锁，只有调用{@link #get()}的线程会在当前对象上等待。
+ * 通过{@link #addListener(ResponseListener)}或{@link #toCompletableFuture()}等待结果时不占用线程，
+ * 回调在完成future的线程（通常是事件循环）中执行，配置了回调线程池时交给线程池执行
  * @author Gloduck
  */
 public final class ResponseFuture<T> implements Future<T> {
-    private final String requestId;
-    private final String serviceName;
-    private RpcResponse response;
+    private static final Logger logger = LoggerFactory.getLogger(ResponseFuture.class);
+    private static final Recycler<ResponseFuture<?>> RECYCLER = new Recycler<ResponseFuture<?>>() {
+        @Override
+        protected ResponseFuture<?> newObject(Handle<ResponseFuture<?>> handle) {
+            return new ResponseFuture<>(handle);
+        }
+    };
+    /**
+     * 取消后的结果，{@link #get()}返回null
+     */
+    private static final RpcResponse CANCELLED = new RpcResponse(null, RpcResponse.CLIENT_FAILED, "请求已取消", null);
+    private final Recycler.Handle<ResponseFuture<?>> handle;
+    private long requestId;
+    /**
+     * 等待写出的请求，写出时由{@link RpcResponseHandler}取出
+     */
+    private RpcRequest request;
+    private String serviceName;
+    /**
+     * 返回值的类型，用于解码按照声明类型编码的返回值
+     */
+    private Type resultType;
+    /**
+     * 结果，为null时还没有完成。只在持有当前对象的锁时设置
+     */
+    private volatile RpcResponse response;
     private RpcResponseHandler handler;
-    private final Sync sync;
-    private volatile boolean cancel;
-/*    private ExceptionListener exceptionListener;
-    private ReceiveMessageListener<T> receiveMessageListener;*/
+    /**
+     * 超时时间，毫秒，小于等于0时不超时
+     */
+    private int timeout;
+    /**
+     * 时间轮中的超时任务，只在事件循环中访问
+     */
+    private Timeout deadline;
+    /**
+     * 执行回调的线程池，为null时在完成future的线程中执行
+     */
+    private Executor callbackExecutor;
+    /**
+     * 正在等待结果的线程数，持有当前对象的锁时访问
+     */
+    private int waiters;
+    /**
+     * 完成前添加的回调，只有一个时为{@link ResponseListener}，多个时为List。持有当前对象的锁时访问
+     */
+    private Object listeners;
 
     void receiveResponse(RpcResponse response) {
-        this.response = response;
-        sync.release(1);
-//        notifyListener(response);
+        if(isDone()){
+            // 已经取消或者超时，事件循环还没有移除请求，返回值没有调用者接收
+            RpcResponseHandler.discard(response.getData());
+            return;
+        }
+        try {
+            response.resolveData(resultType);
+        } catch (SerializationException e) {
+            RpcResponse failed = new RpcResponse(response.getRequestId(), RpcResponse.CLIENT_FAILED, "解码返回值失败 : " + e.getMessage(), null);
+            failed.setId(response.getId());
+            response = failed;
+        }
+        if(!complete(response)){
+            // 解码返回值时被取消
+            RpcResponseHandler.discard(response.getData());
+        }
     }
 
 
     public ResponseFuture(RpcRequest request, RpcResponseHandler handler) {
+        this.handle = null;
+        init(request, handler);
+    }
+
+    private ResponseFuture(Recycler.Handle<ResponseFuture<?>> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * 从对象池中获取future
+     * @param request
+     * @param handler
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ResponseFuture<T> newInstance(RpcRequest request, RpcResponseHandler handler){
+        ResponseFuture<T> future = (ResponseFuture<T>) RECYCLER.get();
+        future.init(request, handler);
+        return future;
+    }
+
+    private void init(RpcRequest request, RpcResponseHandler handler){
         this.handler = handler;
-        this.requestId = request.getRequestId();
+        this.request = request;
+        this.requestId = request.getId();
         this.serviceName = request.getServiceName();
-        this.sync = new Sync();
-        this.cancel = false;
+        this.resultType = request.getResultType();
+        this.callbackExecutor = handler.callbackExecutor();
     }
 
- /*   private void notifyListener(RpcResponse response){
-        if(response.success()){
-            // 如果成功
-            if(this.receiveMessageListener != null){
-                Object data = response.getData();
-                try {
-                    T res = (T) data;
-                    receiveMessageListener.handleMessageReceive(res);
-                } catch (ClassCastException e){
-                    if(this.exceptionListener != null){
-                        exceptionListener.handleException(e);
-                    }
-                }
+    public long getRequestId(){
+        return requestId;
+    }
+
+    int getTimeout(){
+        return timeout;
+    }
+
+    void setTimeout(int timeout){
+        this.timeout = timeout;
+    }
+
+    void setDeadline(Timeout deadline){
+        this.deadline = deadline;
+    }
+
+    /**
+     * 收到响应或者移除时取消超时任务，在事件循环中调用
+     */
+    void cancelDeadline(){
+        if(deadline != null){
+            deadline.cancel();
+            deadline = null;
+        }
+    }
+
+    /**
+     * 超时，在事件循环中调用
+     */
+    void expire(){
+        String msg = String.format("RPC服务获取响应超时, 请求ID为 : %s, 请求的服务为 : %s", requestId, serviceName);
+        RpcResponse timeout = new RpcResponse(null, RpcResponse.TIMEOUT, msg, null);
+        timeout.setId(requestId);
+        this.deadline = null;
+        complete(timeout);
+    }
+
+    /**
+     * 请求没有写出，移除请求后以{@link RpcSendException}结束
+     * @param cause
+     */
+    void sendFailed(Throwable cause){
+        handler.removeRequest(requestId);
+        String msg = String.format("发送RPC请求失败, 请求ID为 : %s, 请求的服务为 : %s, 原因 : %s", requestId, serviceName, cause.getMessage());
+        RpcResponse failed = new RpcResponse(null, RpcResponse.SEND_FAILED, msg, null);
+        failed.setId(requestId);
+        complete(failed);
+    }
+
+    /**
+     * 取出等待写出的请求，之后future不再持有请求
+     * @return
+     */
+    RpcRequest request(){
+        RpcRequest request = this.request;
+        this.request = null;
+        return request;
+    }
+
+    /**
+     * 是否收到了响应，收到响应后事件循环不会再访问当前future
+     * @return
+     */
+    boolean isResponded(){
+        RpcResponse response = this.response;
+        return response != null && response != CANCELLED;
+    }
+
+    /**
+     * 调用者放弃了已经收到的结果（例如同步调用等待超时的同时收到了响应），释放作为返回值的ByteBuf，关闭作为返回值的文件
+     */
+    void discardResult(){
+        RpcResponse response = this.response;
+        if(response != null && response != CANCELLED && response.success()){
+            RpcResponseHandler.discard(response.getData());
+        }
+    }
+
+    /**
+     * 连同响应一起放回对象池，只能在收到响应并且取出返回值后调用。不是从对象池中获取的future不做处理
+     */
+    void recycle(){
+        if(handle == null){
+            return;
+        }
+        RpcResponse response = this.response;
+        if(response != null && response != CANCELLED){
+            response.recycle();
+        }
+        this.response = null;
+        handler = null;
+        request = null;
+        serviceName = null;
+        resultType = null;
+        timeout = 0;
+        deadline = null;
+        callbackExecutor = null;
+        handle.recycle(this);
+    }
+
+    /**
+     * 设置结果，唤醒等待的线程并执行回调，只有第一次设置生效
+     * @param response
+     * @return 是否设置成功
+     */
+    private boolean complete(RpcResponse response){
+        Object listeners;
+        synchronized (this){
+            if(this.response != null){
+                return false;
             }
+            this.response = response;
+            if(waiters > 0){
+                notifyAll();
+            }
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        if(listeners != null){
+            notifyListeners(listeners);
+        }
+        return true;
+    }
+
+    private void notifyListeners(Object listeners){
+        Executor executor = this.callbackExecutor;
+        if(executor == null){
+            invokeListeners(listeners);
+            return;
+        }
+        try {
+            executor.execute(() -> invokeListeners(listeners));
+        } catch (RejectedExecutionException e){
+            logger.warn("回调线程池拒绝执行，在当前线程执行回调，请求ID为：{}", requestId);
+            invokeListeners(listeners);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void invokeListeners(Object listeners){
+        T data = null;
+        Throwable cause = null;
+        if(response == CANCELLED){
+            cause = new CancellationException(CANCELLED.getMessage());
         } else {
-            if(this.exceptionListener != null){
-                switch (response.getCode()){
-                    case RpcResponse.CLIENT_FAILED:
-                        this.exceptionListener.handleException(new RpcClientInvokeException(response.getMessage()));
-                        break;
-                    case RpcResponse.SEND_FAILED:
-                        this.exceptionListener.handleException(new RpcSendException(response.getMessage()));
-                        break;
-                    case RpcResponse.SERVER_FAILED:
-                        this.exceptionListener.handleException(new RpcServerInvokeException(response.getMessage()));
-                        break;
-                    default:
-                        break;
-                }
+            try {
+                data = report();
+            } catch (RpcInvokeException e){
+                cause = e;
+            }
+        }
+        if(listeners instanceof List){
+            for (ResponseListener<T> listener : (List<ResponseListener<T>>) listeners) {
+                invokeListener(listener, data, cause);
             }
+        } else {
+            invokeListener((ResponseListener<T>) listeners, data, cause);
         }
-    }*/
+    }
+
+    private static <T> void invokeListener(ResponseListener<T> listener, T data, Throwable cause){
+        try {
+            listener.operationComplete(data, cause);
+        } catch (Throwable e){
+            logger.warn("执行RPC回调出现异常", e);
+        }
+    }
 
     @Override
     public boolean isDone() {
-        return sync.isDone();
+        return response != null;
     }
 
     @Override
     public boolean cancel(boolean removeRequest) {
-        boolean release = sync.release(1);
+        boolean cancelled = complete(CANCELLED);
         if(removeRequest){
             this.handler.removeRequest(requestId);
         }
-        return release;
+        return cancelled;
     }
-/*
-    public ResponseFuture<T> onException(ExceptionListener listener) {
-        this.exceptionListener = listener;
+
+    /**
+     * 添加完成时执行的回调，已经完成时立即执行。
+     * 失败时cause为对应的{@link RpcInvokeException}，取消或者连接断开时为{@link CancellationException}
+     * @param listener
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public ResponseFuture<T> addListener(ResponseListener<T> listener) {
+        synchronized (this){
+            if(response == null){
+                if(listeners == null){
+                    listeners = listener;
+                } else if(listeners instanceof List){
+                    ((List<ResponseListener<T>>) listeners).add(listener);
+                } else {
+                    List<ResponseListener<T>> list = new ArrayList<>(4);
+                    list.add((ResponseListener<T>) listeners);
+                    list.add(listener);
+                    listeners = list;
+                }
+                return this;
+            }
+        }
+        notifyListeners(listener);
         return this;
-    }*/
+    }
 
+    public ResponseFuture<T> onException(ExceptionListener listener) {
+        return addListener((data, cause) -> {
+            if(cause != null){
+                listener.handleException(cause);
+            }
+        });
+    }
 
-/*    public ResponseFuture<T> onReceiveMessage(ReceiveMessageListener listener) {
-        this.receiveMessageListener = listener;
-        return this;
-    }*/
+    public ResponseFuture<T> onReceiveMessage(ReceiveMessageListener<T> listener) {
+        return addListener((data, cause) -> {
+            if(cause == null){
+                listener.handleMessageReceive(data);
+            }
+        });
+    }
 
-    @Override
-    public T get() throws InterruptedException, RpcInvokeException {
-        sync.acquire(1);
-        if (this.response != null) {
-            if (response.success()) {
-                return (T) response.getData();
-            } else {
-                switch (response.getCode()) {
-                    // 远程发送错误
-                    case RpcResponse.SEND_FAILED:
-                        throw new RpcSendException(response.getMessage());
-                    // 远程执行错误
-                    case RpcResponse.SERVER_FAILED:
-                        throw new RpcServerInvokeException(response.getMessage());
-                    default:
-                        return null;
+    /**
+     * 转换为{@link CompletableFuture}，取消返回的future时同时取消请求
+     * @return
+     */
+    public CompletableFuture<T> toCompletableFuture() {
+        CompletableResponse<T> future = new CompletableResponse<>(this);
+        addListener((data, cause) -> {
+            if(cause == null){
+                if(!future.complete(data)){
+                    // 返回的future已经被取消
+                    RpcResponseHandler.discard(data);
                 }
+            } else {
+                future.completeExceptionally(cause);
             }
-        } else {
-            return null;
-        }
+        });
+        return future;
+    }
+
+    @Override
+    public T get() throws InterruptedException, RpcInvokeException {
+        await();
+        return report();
     }
 
     @Override
     public T get(long timeout, TimeUnit unit) throws InterruptedException, RpcInvokeException, TimeoutException {
-        boolean success = sync.tryAcquireNanos(1, unit.toNanos(timeout));
-        if (success) {
-            if (response == null) {
-                // 没有获取到结果
-                return null;
-            } else {
-                if (response.success()) {
-                    // 执行成功
-                    return (T) response.getData();
-                } else {
-                    // 远程执行错误
-                    switch (response.getCode()) {
-                        // 远程发送错误
-                        case RpcResponse.SEND_FAILED:
-                            throw new RpcSendException(response.getMessage());
-                            // 远程执行错误
-                        case RpcResponse.SERVER_FAILED:
-                            throw new RpcServerInvokeException(response.getMessage());
-                        default:
-                            return null;
-                    }                }
-            }
-        } else {
+        if(!await(unit.toNanos(timeout))){
             String msg = String.format("RPC服务获取响应超时, 请求ID为 : %s, 请求的服务为 : %s", requestId, serviceName);
             throw new TimeoutException(msg);
         }
+        return report();
     }
 
-    private static class Sync extends AbstractQueuedSynchronizer {
-        private final static int DONE_STATE = 1;
-        private final static int PENDING_STATE = 0;
-
-        @Override
-        protected boolean tryAcquire(int arg) {
-            return getState() == DONE_STATE;
+    private void await() throws InterruptedException {
+        if(isDone()){
+            return;
+        }
+        if(Thread.interrupted()){
+            throw new InterruptedException();
+        }
+        synchronized (this){
+            while (!isDone()){
+                waiters++;
+                try {
+                    wait();
+                } finally {
+                    waiters--;
+                }
+            }
         }
+    }
 
-        @Override
-        protected boolean tryRelease(int arg) {
-            if (getState() == PENDING_STATE) {
-                if (compareAndSetState(PENDING_STATE, DONE_STATE)) {
-                    return true;
-                } else {
+    private boolean await(long nanos) throws InterruptedException {
+        if(isDone()){
+            return true;
+        }
+        if(Thread.interrupted()){
+            throw new InterruptedException();
+        }
+        long end = System.nanoTime() + nanos;
+        synchronized (this){
+            while (!isDone()){
+                long remaining = end - System.nanoTime();
+                if(remaining <= 0){
                     return false;
                 }
-            } else {
-                return true;
+                waiters++;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } finally {
+                    waiters--;
+                }
             }
         }
+        return true;
+    }
+
+    /**
+     * 根据结果返回数据，失败时根据失败的类型抛出异常，取消时返回null
+     * @return
+     * @throws RpcInvokeException
+     */
+    @SuppressWarnings("unchecked")
+    private T report() throws RpcInvokeException {
+        RpcResponse response = this.response;
+        if (response == null || response == CANCELLED) {
+            return null;
+        }
+        if (response.success()) {
+            return (T) response.getData();
+        }
+        switch (response.getCode()) {
+            // 客户端解码错误
+            case RpcResponse.CLIENT_FAILED:
+                throw new RpcClientInvokeException(response.getMessage());
+            // 远程发送错误
+            case RpcResponse.SEND_FAILED:
+                throw new RpcSendException(response.getMessage());
+            // 远程执行错误
+            case RpcResponse.SERVER_FAILED:
+                throw new RpcServerInvokeException(response.getMessage());
+            // 超时
+            case RpcResponse.TIMEOUT:
+                throw new RpcTimeoutException(response.getMessage());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 取消时同时取消请求，依赖的future使用普通的{@link CompletableFuture}
+     */
+    private static final class CompletableResponse<T> extends CompletableFuture<T> {
+        private final ResponseFuture<T> source;
+
+        CompletableResponse(ResponseFuture<T> source) {
+            this.source = source;
+        }
 
-        protected boolean isDone() {
-            return DONE_STATE == getState();
+        @Override
+        public <U> CompletableFuture<U> newIncompleteFuture() {
+            return new CompletableFuture<>();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if(cancelled){
+                source.cancel(true);
+            }
+            return cancelled;
         }
     }
 
-/*    @FunctionalInterface
+    @FunctionalInterface
+    public interface ResponseListener<T>{
+        /**
+         * future完成
+         * @param data 返回值，失败时为null
+         * @param cause 失败的原因，成功时为null
+         */
+        void operationComplete(T data, Throwable cause);
+    }
+
+    @FunctionalInterface
     public interface ExceptionListener{
         void handleException(Throwable e);
     }
@@ -186,5 +507,5 @@ public final class ResponseFuture<T> implements Future<T> {
     @FunctionalInterface
     public interface ReceiveMessageListener<T>{
         void handleMessageReceive(T data);
-    }*/
+    }
 }
@@ -2,15 +2,19 @@ package cn.gloduck.netty.rpc.transport.client;
 
 import cn.gloduck.netty.rpc.codec.RpcDecoder;
 import cn.gloduck.netty.rpc.codec.RpcEncoder;
+import cn.gloduck.netty.rpc.codec.RpcFragmentHandler;
 import cn.gloduck.netty.rpc.constant.RpcConstant;
+import cn.gloduck.netty.rpc.metrics.WriteMetricsHandler;
 import cn.gloduck.netty.rpc.serializer.RpcSerializer;
+import cn.gloduck.netty.rpc.serializer.SerializerRegistry;
 import cn.gloduck.netty.rpc.serializer.jdk.JdKSerializer;
 import cn.gloduck.netty.rpc.transport.NettyConfig;
+import cn.gloduck.netty.rpc.transport.WriteCoalescer;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,10 +43,15 @@ public class RpcClientInitializer extends ChannelInitializer<SocketChannel> {
      * initChannel初始化的序列化器
      */
     private RpcSerializer serializer;
+    /**
+     * 请求超时使用的时间轮
+     */
+    private Timer timer;
 
-    public RpcClientInitializer(String remoteAddress, NettyConfig nettyConfig) {
+    public RpcClientInitializer(String remoteAddress, NettyConfig nettyConfig, Timer timer) {
         this.remoteAddress = remoteAddress;
         this.nettyConfig = nettyConfig;
+        this.timer = timer;
     }
     /*    private final ThreadPoolExecutor executor;
 
@@ -53,18 +62,23 @@ public class RpcClientInitializer extends ChannelInitializer<SocketChannel> {
 
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
-        clientHandler = new RpcResponseHandler(remoteAddress);
+        clientHandler = new RpcResponseHandler(remoteAddress, timer, nettyConfig.getCallbackExecutor());
         serializer = nettyConfig.getNewSerializer();
         if (serializer == null) {
             // 反射创建序列化器失败，使用默认的JDK序列化器
             logger.warn("创建序列化器失败，使用默认的JDK序列化器");
             serializer = new JdKSerializer();
         }
+        // 编码器和解码器共用，方法可以单独指定序列化器
+        SerializerRegistry serializers = new SerializerRegistry(serializer, nettyConfig.getAcceptedSerializers());
         ChannelPipeline pipeline = ch.pipeline();
-        pipeline.addLast(new LengthFieldBasedFrameDecoder(RpcConstant.MAX_FRAME_LENGTH, RpcConstant.MAGIC_NUMBER.length + 2, 4))
-                .addLast(new IdleStateHandler(RpcConstant.BEAT_READER_IDLE_TIME, RpcConstant.BEAT_WRITER_IDLE_TIME, nettyConfig.getHeartBeatInterval(), TimeUnit.SECONDS))
-                .addLast(new RpcDecoder(serializer))
-                .addLast(new RpcEncoder(serializer))
+        WriteCoalescer.install(ch, nettyConfig);
+        pipeline.addLast(new IdleStateHandler(RpcConstant.BEAT_READER_IDLE_TIME, RpcConstant.BEAT_WRITER_IDLE_TIME, nettyConfig.getHeartBeatInterval(), TimeUnit.SECONDS))
+                .addLast(new RpcDecoder(serializers, RpcConstant.MAX_REASSEMBLY_SIZE))
+                .addLast(new RpcFragmentHandler())
+                .addLast(WriteMetricsHandler.instance())
+                .addLast(new RpcEncoder(serializers, nettyConfig.getProtocolVersion(), nettyConfig.getCompressionThreshold()))
+                .addLast(new RpcHandshakeHandler(nettyConfig.getProtocolVersion(), nettyConfig.getCompressionType(), serializers))
                 .addLast(clientHandler);
     }
 
@@ -0,0 +1,76 @@
+package cn.gloduck.netty.rpc.transport.client;
+
+import cn.gloduck.netty.rpc.codec.RpcHandshake;
+import cn.gloduck.netty.rpc.codec.RpcProtocol;
+import cn.gloduck.netty.rpc.enums.CompressionType;
+import cn.gloduck.netty.rpc.enums.Serializers;
+import cn.gloduck.netty.rpc.ref.client.MethodDictionary;
+import cn.gloduck.netty.rpc.serializer.RpcSerializer;
+import cn.gloduck.netty.rpc.serializer.SerializerRegistry;
+import cn.gloduck.netty.rpc.serializer.kryo.FastKryoSerializer;
+import cn.gloduck.netty.rpc.serializer.kryo.KryoRegistry;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 客户端握手处理器，连接建立后向服务端请求方法表并协商压缩方式，收到后保存在连接上。
+ * 双方同时交换各自注册的Kryo类，见{@link FastKryoSerializer}。
+ * 握手完成前的请求仍然携带服务名和参数类型
+ * @author Gloduck
+ */
+public class RpcHandshakeHandler extends SimpleChannelInboundHandler<RpcHandshake> {
+    private static final Logger logger = LoggerFactory.getLogger(RpcHandshakeHandler.class);
+    private final int protocolVersion;
+    /**
+     * 期望使用的压缩方式
+     */
+    private final CompressionType compressionType;
+    /**
+     * 连接上的序列化器
+     */
+    private final SerializerRegistry serializers;
+
+    public RpcHandshakeHandler(int protocolVersion, CompressionType compressionType, SerializerRegistry serializers) {
+        this.protocolVersion = protocolVersion;
+        this.compressionType = compressionType;
+        this.serializers = serializers;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        // v1协议的服务端不认识握手消息
+        if(protocolVersion >= RpcProtocol.VERSION_2){
+            RpcHandshake handshake = new RpcHandshake();
+            handshake.setCompressionType(compressionType.getTypeCode());
+            if(fastKryo() != null){
+                handshake.setKryoClassNames(KryoRegistry.instance().classNames());
+            }
+            ctx.writeAndFlush(handshake);
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, RpcHandshake msg) {
+        ctx.channel().attr(MethodDictionary.KEY).set(new MethodDictionary(msg));
+        CompressionType negotiated = CompressionType.getCompressionTypeByTypeCode(msg.getCompressionType());
+        ctx.channel().attr(RpcProtocol.COMPRESSION).set(negotiated == null ? CompressionType.NONE : negotiated);
+        ctx.channel().attr(RpcProtocol.COMPACT).set(msg.isCompact());
+        FastKryoSerializer fastKryo = fastKryo();
+        if(fastKryo != null){
+            fastKryo.setPeerClassNames(msg.getKryoClassNames());
+        }
+        logger.info("握手完成，收到方法表 : {}", msg);
+    }
+
+    /**
+     * 连接可以使用的{@link FastKryoSerializer}
+     * @return 不能使用时返回null
+     */
+    private FastKryoSerializer fastKryo(){
+        RpcSerializer serializer = serializers.get(Serializers.FAST_KRYO.getTypeCode());
+        return serializer instanceof FastKryoSerializer ? (FastKryoSerializer) serializer : null;
+    }
+}
@@ -1,70 +1,324 @@
 package cn.gloduck.netty.rpc.transport.client;
 
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
+import cn.gloduck.netty.rpc.codec.RpcBatchResponse;
 import cn.gloduck.netty.rpc.codec.RpcBeat;
+import cn.gloduck.netty.rpc.codec.RpcFile;
+import cn.gloduck.netty.rpc.codec.RpcMessage;
+import cn.gloduck.netty.rpc.codec.RpcPing;
+import cn.gloduck.netty.rpc.codec.RpcProtocol;
 import cn.gloduck.netty.rpc.codec.RpcRequest;
 import cn.gloduck.netty.rpc.codec.RpcResponse;
 
+import cn.gloduck.netty.rpc.metrics.RpcMetrics;
 import cn.gloduck.netty.rpc.transport.NettyConfig;
+import cn.gloduck.netty.rpc.utils.RequestIdMap;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * 客户端处理响应，同时维护连接上正在处理的请求。
+ * 正在处理的请求表只在事件循环中访问：发送时写出的是{@link ResponseFuture}，经过当前handler时登记后再把请求交给编码器，
+ * 收到响应、连接断开时在事件循环中移除，其他线程取消请求时提交到事件循环中移除。
+ * 表以请求号为键，使用按请求号取模定位的{@link RequestIdMap}，不需要装箱和链表节点。
+ * 设置了超时时间的请求在登记时加入时间轮，到期后在事件循环中移除并以超时结束，同步和异步调用都一样
  * @author Gloduck
  */
-public class RpcResponseHandler extends SimpleChannelInboundHandler<RpcResponse> {
+public class RpcResponseHandler extends ChannelDuplexHandler {
     private static final Logger logger = LoggerFactory.getLogger(RpcResponseHandler.class);
     /**
      * 连接的远程服务器的地址
      */
     private final String remoteAddress;
     /**
-     * 正在处理中的rpc任务
+     * 正在处理中的rpc任务，只在事件循环中访问
      */
-    private final Map<String, ResponseFuture> processingRpcRequest;
+    private final RequestIdMap<ResponseFuture> processingRpcRequest;
+    /**
+     * 连接内单调递增的请求号
+     */
+    private final AtomicLong requestIdGenerator;
+    /**
+     * 所有连接共享的时间轮，用于请求超时
+     */
+    private final Timer timer;
+    /**
+     * 执行异步调用回调的线程池，为null时在事件循环中执行
+     */
+    private final Executor callbackExecutor;
+    private volatile ChannelHandlerContext ctx;
+    private static final AtomicIntegerFieldUpdater<RpcResponseHandler> INFLIGHT_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(RpcResponseHandler.class, "inflight");
+    /**
+     * 正在处理的请求数，用于连接池选择连接
+     */
+    private volatile int inflight;
+
+    public RpcResponseHandler(String remoteAddress, Timer timer) {
+        this(remoteAddress, timer, null);
+    }
 
-    public RpcResponseHandler(String remoteAddress) {
+    public RpcResponseHandler(String remoteAddress, Timer timer, Executor callbackExecutor) {
         this.remoteAddress = remoteAddress;
-        this.processingRpcRequest = new ConcurrentHashMap<>(16);
+        this.timer = timer;
+        this.callbackExecutor = callbackExecutor;
+        this.processingRpcRequest = new RequestIdMap<>();
+        this.requestIdGenerator = new AtomicLong();
+    }
+
+    /**
+     * 分配一个新的请求号
+     * @return
+     */
+    public long nextRequestId() {
+        return requestIdGenerator.incrementAndGet();
+    }
+
+    Executor callbackExecutor() {
+        return callbackExecutor;
     }
 
     /**
-     * 注册当前任务为正在执行的任务
+     * 为请求分配请求号并创建对应的future，future需要通过连接写出，经过当前handler时登记为正在执行的任务
      *
      * @return
      */
     public ResponseFuture registryProcessRequest(RpcRequest request) {
-        ResponseFuture future = new ResponseFuture(request, this);
-        this.processingRpcRequest.put(request.getRequestId(), future);
+        return registryProcessRequest(request, 0);
+    }
+
+    /**
+     * 同{@link #registryProcessRequest(RpcRequest)}，登记时开始计算超时
+     * @param request
+     * @param timeout 超时时间，毫秒，小于等于0时不超时
+     * @return
+     */
+    public ResponseFuture registryProcessRequest(RpcRequest request, int timeout) {
+        request.setId(nextRequestId());
+        ResponseFuture future = ResponseFuture.newInstance(request, this);
+        future.setTimeout(timeout);
+        return future;
+    }
+
+    /**
+     * 移除正在执行的任务，不在事件循环中调用时提交到事件循环中执行
+     * @param requestId
+     */
+    public void removeRequest(long requestId) {
+        ChannelHandlerContext ctx = this.ctx;
+        if(ctx == null){
+            return;
+        }
+        if(ctx.executor().inEventLoop()){
+            remove(requestId);
+        } else {
+            ctx.executor().execute(() -> remove(requestId));
+        }
+    }
+
+    private void remove(long requestId){
+        unregister(requestId);
+    }
+
+    /**
+     * 从正在处理的请求中移除并取消超时任务，在事件循环中调用
+     * @param requestId
+     * @return 请求对应的future，不存在时返回null
+     */
+    private ResponseFuture unregister(long requestId){
+        ResponseFuture future = processingRpcRequest.remove(requestId);
+        if(future != null){
+            future.cancelDeadline();
+            INFLIGHT_UPDATER.lazySet(this, processingRpcRequest.size());
+        }
         return future;
     }
 
-    public ResponseFuture removeRequest(String requestId) {
-        return processingRpcRequest.remove(requestId);
+    /**
+     * 正在处理的请求数，只在事件循环中更新，其他线程读到的可能稍有延迟
+     * @return
+     */
+    public int inflight(){
+        return inflight;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, RpcResponse msg) {
-        String requestId = msg.getRequestId();
-        logger.info("收到服务ID为：{} 的响应", requestId);
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if(msg instanceof ResponseFuture){
+            ResponseFuture future = (ResponseFuture) msg;
+            RpcRequest request = future.request();
+            if(!register(ctx, future)){
+                discardRequest(request);
+                promise.tryFailure(dropCause(ctx));
+                return;
+            }
+            ctx.write(request, promise);
+        } else if(msg instanceof PendingBatch){
+            PendingBatch batch = (PendingBatch) msg;
+            boolean registered = false;
+            for (ResponseFuture future : batch.futures) {
+                registered |= register(ctx, future);
+            }
+            if(!registered){
+                for (int i = 0; i < batch.request.size(); i++) {
+                    discardRequest(batch.request.getRequest(i));
+                }
+                promise.tryFailure(dropCause(ctx));
+                return;
+            }
+            ctx.write(batch.request, promise);
+        } else {
+            ctx.write(msg, promise);
+        }
+    }
+
+    /**
+     * 登记正在处理的请求
+     * @param ctx
+     * @param future
+     * @return 是否需要写出请求，future已经结束或者连接已经关闭时返回false
+     */
+    private boolean register(ChannelHandlerContext ctx, ResponseFuture future){
+        if(future.isDone() || !ctx.channel().isActive()){
+            // 写出之前已经超时或者取消，或者连接已经关闭，不会再收到响应
+            return false;
+        }
+        long requestId = future.getRequestId();
+        processingRpcRequest.put(requestId, future);
+        INFLIGHT_UPDATER.lazySet(this, processingRpcRequest.size());
+        if(future.getTimeout() > 0){
+            future.setDeadline(timer.newTimeout(timeout -> ctx.executor().execute(() -> expire(requestId)),
+                    future.getTimeout(), TimeUnit.MILLISECONDS));
+        }
+        return true;
+    }
+
+    /**
+     * 没有写出的请求的失败原因，发送方在写出失败时以该原因结束还没有结束的future
+     * @param ctx
+     * @return
+     */
+    private static Throwable dropCause(ChannelHandlerContext ctx){
+        return ctx.channel().isActive() ? new CancellationException("请求在写出之前已经结束") : new ClosedChannelException();
+    }
+
+    /**
+     * 丢弃没有写出的请求，释放作为附件的ByteBuf参数后放回对象池
+     * @param request
+     */
+    private static void discardRequest(RpcRequest request){
+        if(request == null){
+            return;
+        }
+        Object[] parameters = request.getParameters();
+        if(parameters != null){
+            for (Object parameter : parameters) {
+                if(parameter instanceof ByteBuf){
+                    ReferenceCountUtil.safeRelease(parameter);
+                }
+            }
+        }
+        request.recycle();
+    }
+
+    /**
+     * 请求到期没有收到响应，在事件循环中调用
+     * @param requestId
+     */
+    private void expire(long requestId){
+        ResponseFuture future = unregister(requestId);
+        if(future == null || future.isDone()){
+            // 已经收到响应，或者调用者已经放弃
+            return;
+        }
+        RpcMetrics.instance().recordTimeout();
+        logger.warn("请求超时，请求ID为：{}", requestId);
+        future.expire();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if(msg instanceof RpcResponse || msg instanceof RpcBatchResponse || msg instanceof RpcPing){
+            try {
+                channelRead0(ctx, (RpcMessage) msg);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    private void channelRead0(ChannelHandlerContext ctx, RpcMessage msg) {
+        if(msg instanceof RpcBatchResponse){
+            RpcBatchResponse batch = (RpcBatchResponse) msg;
+            for (int i = 0; i < batch.size(); i++) {
+                receiveResponse(batch.getResponse(i));
+            }
+        } else if(msg instanceof RpcPing){
+            RpcPing ping = (RpcPing) msg;
+            if(ping.isPong()){
+                RpcMetrics.instance().recordHeartbeatRtt(System.nanoTime() - ping.getTimestamp());
+            }
+        } else {
+            receiveResponse((RpcResponse) msg);
+        }
+    }
+
+    private void receiveResponse(RpcResponse msg) {
+        long requestId = msg.getId();
+        if(logger.isInfoEnabled()){
+            logger.info("收到服务ID为：{} 的响应", requestId);
+        }
         // 收到响应后，将当前请求从正在请求的任务中移除
-        ResponseFuture responseFuture = removeRequest(requestId);
+        ResponseFuture responseFuture = unregister(requestId);
         if (responseFuture == null) {
             logger.warn("收到未知的服务ID : {}", requestId);
+            // 没有调用者接收作为附件的返回值
+            discard(msg.getData());
         } else {
             // 收到消息，这个消息可能是调用失败的消息，也可能是调用成功的消息。在使用ResponseFuture#get的时候，如果是失败消息则直接根据失败的类型抛出异常。
             responseFuture.receiveResponse(msg);
         }
     }
 
+    /**
+     * 释放没有调用者接收的返回值，文件丢弃之后收到的数据
+     * @param data
+     */
+    public static void discard(Object data){
+        if(data instanceof RpcFile){
+            try {
+                ((RpcFile) data).close();
+            } catch (IOException e){
+                logger.warn("关闭文件失败 : {}", e.getMessage());
+            }
+        } else {
+            ReferenceCountUtil.release(data);
+        }
+    }
+
 
     /**
      * 出现异常关闭通道
@@ -80,6 +334,7 @@ public class RpcResponseHandler extends SimpleChannelInboundHandler<RpcResponse>
 
     /**
      * 自定义心跳，每到一定时间{@link NettyConfig#getHeartBeatInterval()}，就会触发时间，然后发送间隔。
+     * v2连接发送带时间戳的ping，服务端回复pong后记录往返时间；v1连接仍然发送{@link RpcBeat}
      *
      * @param ctx
      * @param evt
@@ -89,7 +344,12 @@ public class RpcResponseHandler extends SimpleChannelInboundHandler<RpcResponse>
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
         if(evt instanceof IdleStateEvent){
             Channel channel = ctx.channel();
-            channel.writeAndFlush(RpcBeat.instance());
+            Integer version = channel.attr(RpcProtocol.PROTOCOL_VERSION).get();
+            if(version != null && version == RpcProtocol.VERSION_2){
+                channel.writeAndFlush(RpcPing.ping(System.nanoTime()));
+            } else {
+                channel.writeAndFlush(RpcBeat.instance());
+            }
             logger.info("向服务器：{} 发送心跳",remoteAddress);
         } else {
             super.userEventTriggered(ctx, evt);
@@ -100,23 +360,32 @@ public class RpcResponseHandler extends SimpleChannelInboundHandler<RpcResponse>
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         super.channelInactive(ctx);
-        // 删除连接
-        ConnectionManager.instance().removeTransporter(remoteAddress);
+        // 从连接池中删除当前连接
+        ConnectionManager.instance().removeTransporter(remoteAddress, ctx.channel());
         // 取消所有任务
         if(!this.processingRpcRequest.isEmpty()){
-            Set<Map.Entry<String, ResponseFuture>> entries =
-                    this.processingRpcRequest.entrySet();
-            Iterator<Map.Entry<String, ResponseFuture>> iterator = entries.iterator();
-            while (iterator.hasNext()){
-                Map.Entry<String, ResponseFuture> next = iterator.next();
-                ResponseFuture value = next.getValue();
-                value.cancel(false);
-                logger.warn("因为连接关闭，任务被取消，请求ID为：{}",next.getKey());
-                iterator.remove();
-            }
+            this.processingRpcRequest.removeAll(future -> {
+                future.cancelDeadline();
+                future.cancel(false);
+                logger.warn("因为连接关闭，任务被取消，请求ID为：{}", future.getRequestId());
+            });
+            INFLIGHT_UPDATER.lazySet(this, 0);
         }
         logger.warn("关闭连接：{}",remoteAddress);
     }
 
+    /**
+     * 批量请求和对应的future，写出时一起登记
+     */
+    static final class PendingBatch {
+        private final RpcBatchRequest request;
+        private final List<ResponseFuture> futures;
+
+        PendingBatch(RpcBatchRequest request, List<ResponseFuture> futures) {
+            this.request = request;
+            this.futures = futures;
+        }
+    }
+
 
 }
@@ -1,21 +1,32 @@
 package cn.gloduck.netty.rpc.transport.client;
 
 
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
 import cn.gloduck.netty.rpc.codec.RpcRequest;
 import cn.gloduck.netty.rpc.exception.RpcClientInvokeException;
 import cn.gloduck.netty.rpc.exception.RpcException;
 import cn.gloduck.netty.rpc.exception.RpcInvokeException;
-import cn.gloduck.netty.rpc.exception.RpcSendException;
+import cn.gloduck.netty.rpc.exception.RpcTimeoutException;
+import cn.gloduck.netty.rpc.metrics.RpcMetrics;
+import cn.gloduck.netty.rpc.ref.client.MethodDictionary;
+import cn.gloduck.netty.rpc.transport.WriteCoalescer;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 public class Transporter {
     private final static Logger logger = LoggerFactory.getLogger(Transporter.class);
+    /**
+     * 同步调用等待的时间比超时时间多出的部分。超时由时间轮在事件循环中处理，等待只是兜底，避免事件循环阻塞时调用线程一直等待
+     */
+    private static final int TIMEOUT_GRACE_MILLIS = 1000;
     private int timeout;
     private Channel channel;
     private RpcResponseHandler responseHandler;
@@ -40,6 +51,35 @@ public class Transporter {
         return channel;
     }
 
+    /**
+     * 当前连接上正在处理的请求数
+     * @return
+     */
+    public int inflight(){
+        return responseHandler.inflight();
+    }
+
+    /**
+     * 查找服务在当前连接上的方法ID
+     * @param serviceName
+     * @param signature
+     * @return 握手未完成或没有找到时返回0
+     */
+    public int lookupMethodId(String serviceName, int signature){
+        MethodDictionary dictionary = channel.attr(MethodDictionary.KEY).get();
+        return dictionary == null ? 0 : dictionary.lookup(serviceName, signature);
+    }
+
+    /**
+     * 服务端为方法指定的序列化器
+     * @param methodId
+     * @return 序列化器编号，小于0表示使用连接默认的序列化器
+     */
+    public byte preferredSerializer(int methodId){
+        MethodDictionary dictionary = channel.attr(MethodDictionary.KEY).get();
+        return dictionary == null ? -1 : dictionary.getSerializerTypeCode(methodId);
+    }
+
     protected void checkConnection(){
         if(!isAvailable()){
             throw new RpcClientInvokeException("当前连接不可用");
@@ -54,8 +94,16 @@ public class Transporter {
         Object data = null;
         ResponseFuture future = null;
         try {
-            future = doSend(request);
-            data = future.get(timeout, TimeUnit.MILLISECONDS);
+            future = doSend(request, timeout);
+            data = future.get(timeout + TIMEOUT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e){
+            // 时间轮没有按时处理超时
+            RpcMetrics.instance().recordTimeout();
+            if(!future.cancel(true)){
+                // 等待超时的同时收到了响应
+                future.discardResult();
+            }
+            throw new RpcTimeoutException(e.getMessage());
         } catch (RpcInvokeException e){
             if(future != null){
                 // 如果服务执行失败，则取消请求
@@ -65,20 +113,38 @@ public class Transporter {
         } catch (Exception e){
             if(future != null){
                 // 如果服务执行失败，则取消请求
-                future.cancel(true);
+                if(!future.cancel(true)){
+                    // 等待时被中断，已经收到的返回值没有交给调用者
+                    future.discardResult();
+                }
             }
             throw new RpcException(e.getMessage(), e.getCause());
         }
+        if(future.isResponded()){
+            // 收到响应时请求早已写出，请求、响应和future都不会再被访问
+            future.recycle();
+            request.recycle();
+        }
         return data;
     }
 
 
 
     public ResponseFuture asyncSend(RpcRequest request){
+        return asyncSend(request, timeout);
+    }
+
+    /**
+     * 异步发送
+     * @param request
+     * @param timeout 超时时间，毫秒，超时后future以{@link RpcTimeoutException}结束
+     * @return
+     */
+    public ResponseFuture asyncSend(RpcRequest request, int timeout){
         checkConnection();
         ResponseFuture future = null;
         try {
-             future = doSend(request);
+             future = doSend(request, timeout);
         } catch (RpcInvokeException e){
             throw e;
         } catch (Exception e){
@@ -88,21 +154,59 @@ public class Transporter {
     }
 
 
-    protected ResponseFuture doSend(final RpcRequest request){
-        ChannelFuture write = channel.write(request);
-        write.addListener(future -> {
-            if(future.isDone()){
-                Throwable cause = future.cause();
-                if(cause != null){
-                    // 发送请求出现错误
-                    logger.error("发送RPC请求时候出现错误", cause);
-                    throw new RpcSendException(cause.getMessage(), cause.getCause());
+    /**
+     * 单向发送，不等待响应
+     * @param request
+     */
+    public void onewaySend(RpcRequest request){
+        checkConnection();
+        request.setOneway(true);
+        request.setId(responseHandler.nextRequestId());
+        WriteCoalescer.writeAndFlush(channel, request).addListener(future -> {
+            Throwable cause = future.cause();
+            if(cause != null){
+                logger.error("发送单向RPC请求时候出现错误", cause);
+            }
+        });
+    }
+
+    /**
+     * 批量发送，所有请求放在一个帧中发送，每个请求对应一个独立的ResponseFuture
+     * @param requests
+     * @return 和requests顺序一致的ResponseFuture
+     */
+    public List<ResponseFuture> batchSend(List<RpcRequest> requests){
+        checkConnection();
+        List<ResponseFuture> futures = new ArrayList<>(requests.size());
+        for (RpcRequest request : requests) {
+            futures.add(responseHandler.registryProcessRequest(request, timeout));
+        }
+        // 写出时由RpcResponseHandler登记所有请求
+        WriteCoalescer.writeAndFlush(channel, new RpcResponseHandler.PendingBatch(new RpcBatchRequest(requests), futures)).addListener(future -> {
+            Throwable cause = future.cause();
+            if(cause != null){
+                logger.error("发送批量RPC请求时候出现错误", cause);
+                for (ResponseFuture responseFuture : futures) {
+                    responseFuture.sendFailed(cause);
                 }
             }
+        });
+        return futures;
+    }
 
+    protected ResponseFuture doSend(final RpcRequest request, int timeout){
+        // 先分配请求号，写出的是future，由RpcResponseHandler在事件循环中登记后把请求交给编码器，同时开始计算超时
+        ResponseFuture responseFuture = responseHandler.registryProcessRequest(request, timeout);
+        // 开启合并写时由事件循环批量写入并flush
+        ChannelFuture write = WriteCoalescer.writeAndFlush(channel, responseFuture);
+        write.addListener(future -> {
+            Throwable cause = future.cause();
+            if(cause != null){
+                // 发送请求出现错误，立即结束future，不用等到超时
+                logger.error("发送RPC请求时候出现错误", cause);
+                responseFuture.sendFailed(cause);
+            }
         });
-        ResponseFuture future = responseHandler.registryProcessRequest(request);
-        channel.flush();
-        return future;
+        return responseFuture;
     }
 }
@@ -0,0 +1,230 @@
+package cn.gloduck.netty.rpc.transport.client;
+
+import cn.gloduck.netty.rpc.transport.NettyConfig;
+import cn.gloduck.netty.rpc.transport.functional.TransporterCreator;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 同一个地址的连接池。
+ * <p>
+ * 每次调用从随机的位置开始遍历连接，选择正在处理的请求最少的连接，请求数相同时不会总是选中同一个连接。
+ * 选中的连接的请求数也达到阈值时，在维护线程中增加一个连接。维护线程定期检查，负载长时间较低时把请求最少的连接移出连接池，
+ * 等连接上的请求处理完后再关闭
+ * @author Gloduck
+ */
+final class TransporterPool {
+    private static final Logger logger = LoggerFactory.getLogger(TransporterPool.class);
+    private static final Transporter[] EMPTY = new Transporter[0];
+    /**
+     * 连续多少次检查负载都较低时减少一个连接
+     */
+    private static final int SHRINK_CHECKS = 30;
+    private final String host;
+    private final int port;
+    private final TransporterCreator creator;
+    private final int minConnections;
+    private final int maxConnections;
+    private final int growThreshold;
+    /**
+     * 创建连接、回收连接的单线程，连接数固定为1时为null
+     */
+    private final Executor maintainer;
+    /**
+     * 可以选择的连接，修改时复制，持有当前对象的锁时修改
+     */
+    private volatile Transporter[] transporters = EMPTY;
+    /**
+     * 移出连接池等待关闭的连接，持有当前对象的锁时访问
+     */
+    private final List<Transporter> retired = new ArrayList<>();
+    /**
+     * 是否正在增加连接
+     */
+    private final AtomicBoolean growing = new AtomicBoolean();
+    /**
+     * 连续负载较低的检查次数，只在维护线程中访问
+     */
+    private int idleChecks;
+
+    TransporterPool(String host, int port, TransporterCreator creator, Executor maintainer) {
+        NettyConfig config = creator.getNettyConfig();
+        this.host = host;
+        this.port = port;
+        this.creator = creator;
+        this.minConnections = config.getMinConnections();
+        this.maxConnections = config.getMaxConnections();
+        this.growThreshold = config.getConnectionGrowThreshold();
+        this.maintainer = maintainer;
+    }
+
+    /**
+     * 创建一个连接并放入连接池
+     * @return 是否创建成功
+     */
+    boolean connect(){
+        Transporter transporter = creator.createTransporter(host, port);
+        if(!transporter.isAvailable()){
+            return false;
+        }
+        synchronized (this){
+            Transporter[] transporters = this.transporters;
+            Transporter[] copy = new Transporter[transporters.length + 1];
+            System.arraycopy(transporters, 0, copy, 0, transporters.length);
+            copy[transporters.length] = transporter;
+            this.transporters = copy;
+        }
+        return true;
+    }
+
+    /**
+     * 选择正在处理的请求最少的连接，所有连接的请求数都达到阈值时增加连接
+     * @return 没有可用的连接时返回null
+     */
+    Transporter select(){
+        Transporter[] transporters = this.transporters;
+        int size = transporters.length;
+        int start = size > 1 ? ThreadLocalRandom.current().nextInt(size) : 0;
+        Transporter selected = null;
+        int least = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int index = start + i;
+            Transporter transporter = transporters[index < size ? index : index - size];
+            if(!transporter.isAvailable()){
+                continue;
+            }
+            int inflight = transporter.inflight();
+            if(inflight < least){
+                selected = transporter;
+                least = inflight;
+            }
+        }
+        if(least >= growThreshold && size < maxConnections){
+            grow();
+        }
+        return selected;
+    }
+
+    private void grow(){
+        if(maintainer == null || !growing.compareAndSet(false, true)){
+            return;
+        }
+        try {
+            maintainer.execute(() -> {
+                try {
+                    if(transporters.length < maxConnections && connect()){
+                        logger.info("连接池增加连接：{}:{}，当前连接数：{}", host, port, transporters.length);
+                    }
+                } catch (Exception e){
+                    logger.warn("连接池增加连接失败：{}:{}，{}", host, port, e.getMessage());
+                } finally {
+                    growing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e){
+            growing.set(false);
+        }
+    }
+
+    /**
+     * 定期检查连接池，在维护线程中调用。补充连接到最少连接数，负载较低时减少连接，关闭已经处理完请求的连接
+     */
+    void maintain(){
+        synchronized (this){
+            Iterator<Transporter> iterator = retired.iterator();
+            while (iterator.hasNext()){
+                Transporter transporter = iterator.next();
+                if(transporter.inflight() == 0 || !transporter.isAvailable()){
+                    transporter.destroy();
+                    iterator.remove();
+                }
+            }
+        }
+        int size = transporters.length;
+        if(size == 0){
+            // 所有连接都已经断开，连接池会被移除
+            return;
+        }
+        try {
+            while (size < minConnections && connect()){
+                size++;
+            }
+        } catch (Exception e){
+            logger.warn("连接池补充连接失败：{}:{}，{}", host, port, e.getMessage());
+        }
+        Transporter[] transporters = this.transporters;
+        if(transporters.length <= minConnections){
+            idleChecks = 0;
+            return;
+        }
+        long total = 0;
+        Transporter least = null;
+        for (Transporter transporter : transporters) {
+            int inflight = transporter.inflight();
+            total += inflight;
+            if(least == null || inflight < least.inflight()){
+                least = transporter;
+            }
+        }
+        // 少一个连接后每个连接的请求数仍然不到阈值的一半
+        if(total * 2 >= (long) growThreshold * (transporters.length - 1)){
+            idleChecks = 0;
+            return;
+        }
+        if(++idleChecks >= SHRINK_CHECKS){
+            idleChecks = 0;
+            synchronized (this){
+                if(remove(least.getChannel())){
+                    retired.add(least);
+                    logger.info("连接池负载较低，移除连接：{}:{}，当前连接数：{}", host, port, this.transporters.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除连接
+     * @param channel
+     * @return 是否移除了连接
+     */
+    synchronized boolean remove(Channel channel){
+        Transporter[] transporters = this.transporters;
+        for (int i = 0; i < transporters.length; i++) {
+            if(transporters[i].getChannel() == channel){
+                Transporter[] copy = new Transporter[transporters.length - 1];
+                System.arraycopy(transporters, 0, copy, 0, i);
+                System.arraycopy(transporters, i + 1, copy, i, transporters.length - i - 1);
+                this.transporters = copy;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isEmpty(){
+        return transporters.length == 0;
+    }
+
+    /**
+     * 关闭所有连接
+     */
+    synchronized void destroy(){
+        for (Transporter transporter : transporters) {
+            transporter.destroy();
+        }
+        transporters = EMPTY;
+        for (Transporter transporter : retired) {
+            transporter.destroy();
+        }
+        retired.clear();
+    }
+}
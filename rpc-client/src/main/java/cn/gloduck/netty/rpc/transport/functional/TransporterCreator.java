@@ -1,5 +1,6 @@
 package cn.gloduck.netty.rpc.transport.functional;
 
+import cn.gloduck.netty.rpc.transport.NettyConfig;
 import cn.gloduck.netty.rpc.transport.client.Transporter;
 
 /**
@@ -12,4 +13,10 @@ public interface TransporterCreator {
      * @return
      */
     Transporter createTransporter(String host, int port);
+
+    /**
+     * 创建连接使用的配置，包括每个地址的连接池大小
+     * @return
+     */
+    NettyConfig getNettyConfig();
 }
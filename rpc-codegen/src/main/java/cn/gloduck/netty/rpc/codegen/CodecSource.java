@@ -0,0 +1,189 @@
+package cn.gloduck.netty.rpc.codegen;
+
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个类型的编解码器源码。基本类型的字段使用固定长度直接读写，
+ * 字符串、枚举、byte[]和有编解码器的嵌套对象调用CodecIO中对应的方法，其他字段按照运行时类型写入
+ * @author Gloduck
+ */
+final class CodecSource {
+    final TypeElement type;
+    private final String packageName;
+    private final String codecName;
+    private final List<Field> fields;
+
+    CodecSource(TypeElement type, String packageName, String codecName, List<Field> fields) {
+        this.type = type;
+        this.packageName = packageName;
+        this.codecName = codecName;
+        this.fields = fields;
+    }
+
+    String qualifiedCodecName() {
+        return packageName.isEmpty() ? codecName : packageName + "." + codecName;
+    }
+
+    /**
+     * 生成源码
+     * @param types
+     * @param codecs 有编解码器的类型和编解码器的类名
+     * @return
+     */
+    String generate(Types types, Map<String, String> codecs) {
+        String typeName = type.getQualifiedName().toString();
+        StringBuilder source = new StringBuilder(1024);
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import cn.gloduck.netty.rpc.exception.SerializationException;\n")
+                .append("import cn.gloduck.netty.rpc.serializer.codegen.CodecIO;\n")
+                .append("import cn.gloduck.netty.rpc.serializer.codegen.GeneratedCodec;\n")
+                .append("import io.netty.buffer.ByteBuf;\n\n")
+                // 生成的源码按照编译器的编码写出，注释只使用ASCII字符
+                .append("/**\n * Codec for {@link ").append(typeName).append("}, generated by RpcCodecProcessor. Do not edit.\n */\n")
+                .append("@javax.annotation.processing.Generated(\"").append(RpcCodecProcessor.class.getName()).append("\")\n")
+                .append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+                .append("public final class ").append(codecName).append(" implements GeneratedCodec<").append(typeName).append("> {\n")
+                .append("    public static final ").append(codecName).append(" INSTANCE = new ").append(codecName).append("();\n\n")
+                .append("    @Override\n")
+                .append("    public Class<").append(typeName).append("> type() {\n")
+                .append("        return ").append(typeName).append(".class;\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public void write(ByteBuf out, ").append(typeName).append(" value) throws SerializationException {\n");
+        for (Field field : fields) {
+            source.append("        ").append(writeStatement(field, codecs)).append(";\n");
+        }
+        source.append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public ").append(typeName).append(" read(ByteBuf in) throws SerializationException {\n")
+                .append("        ").append(typeName).append(" value = new ").append(typeName).append("();\n");
+        for (Field field : fields) {
+            String read = readExpression(field, types, codecs);
+            if (field.setter == null) {
+                source.append("        value.").append(field.name).append(" = ").append(read).append(";\n");
+            } else {
+                source.append("        value.").append(field.setter).append('(').append(read).append(");\n");
+            }
+        }
+        source.append("        return value;\n")
+                .append("    }\n")
+                .append("}\n");
+        return source.toString();
+    }
+
+    private static String writeStatement(Field field, Map<String, String> codecs) {
+        String value = field.getter == null ? "value." + field.name : "value." + field.getter + "()";
+        TypeMirror fieldType = field.type;
+        switch (fieldType.getKind()) {
+            case BOOLEAN:
+                return "out.writeBoolean(" + value + ")";
+            case BYTE:
+                return "out.writeByte(" + value + ")";
+            case SHORT:
+                return "out.writeShort(" + value + ")";
+            case CHAR:
+                return "out.writeChar(" + value + ")";
+            case INT:
+                return "out.writeInt(" + value + ")";
+            case LONG:
+                return "out.writeLong(" + value + ")";
+            case FLOAT:
+                return "out.writeFloat(" + value + ")";
+            case DOUBLE:
+                return "out.writeDouble(" + value + ")";
+            default:
+                break;
+        }
+        if (isByteArray(fieldType)) {
+            return "CodecIO.writeBytes(out, " + value + ")";
+        }
+        if (fieldType.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) fieldType).asElement();
+            String name = element.getQualifiedName().toString();
+            if ("java.lang.String".equals(name)) {
+                return "CodecIO.writeString(out, " + value + ")";
+            }
+            if (element.getKind() == ElementKind.ENUM) {
+                return "CodecIO.writeEnum(out, " + value + ")";
+            }
+            String codec = codecs.get(name);
+            if (codec != null) {
+                return "CodecIO.writeObject(out, " + value + ", " + codec + ".INSTANCE)";
+            }
+        }
+        return "CodecIO.writeValue(out, " + value + ")";
+    }
+
+    private static String readExpression(Field field, Types types, Map<String, String> codecs) {
+        TypeMirror fieldType = field.type;
+        switch (fieldType.getKind()) {
+            case BOOLEAN:
+                return "in.readBoolean()";
+            case BYTE:
+                return "in.readByte()";
+            case SHORT:
+                return "in.readShort()";
+            case CHAR:
+                return "in.readChar()";
+            case INT:
+                return "in.readInt()";
+            case LONG:
+                return "in.readLong()";
+            case FLOAT:
+                return "in.readFloat()";
+            case DOUBLE:
+                return "in.readDouble()";
+            default:
+                break;
+        }
+        if (isByteArray(fieldType)) {
+            return "CodecIO.readBytes(in)";
+        }
+        if (fieldType.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) fieldType).asElement();
+            String name = element.getQualifiedName().toString();
+            if ("java.lang.String".equals(name)) {
+                return "CodecIO.readString(in)";
+            }
+            if (element.getKind() == ElementKind.ENUM) {
+                return "CodecIO.readEnum(in, " + name + ".class)";
+            }
+            String codec = codecs.get(name);
+            if (codec != null) {
+                return "CodecIO.readObject(in, " + codec + ".INSTANCE)";
+            }
+        }
+        return "(" + types.erasure(fieldType) + ") CodecIO.readValue(in)";
+    }
+
+    private static boolean isByteArray(TypeMirror type) {
+        return type.getKind() == TypeKind.ARRAY && ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE;
+    }
+
+    /**
+     * 需要编码的字段，getter和setter都为null时直接访问字段
+     */
+    static final class Field {
+        final String name;
+        final TypeMirror type;
+        final String getter;
+        final String setter;
+
+        Field(String name, TypeMirror type, String getter, String setter) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+}
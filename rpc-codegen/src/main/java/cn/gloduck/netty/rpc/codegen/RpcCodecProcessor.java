@@ -0,0 +1,324 @@
+package cn.gloduck.netty.rpc.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 为{@code @RpcService}和{@code @RpcReference}方法的参数、返回值类型生成编解码器的注解处理器。
+ * 只为本次编译的源码中的具体类生成，字段的类型也是这样的类时一并生成。
+ * 生成的编解码器和类型在同一个包中，直接读写非private的字段，private字段通过getter和setter读写，
+ * 没有办法访问的字段、final字段或者缺少无参构造方法的类不生成，运行时使用其他方式序列化。
+ * 生成的编解码器登记在META-INF/services中，运行时由GeneratedCodecs加载
+ * @author Gloduck
+ */
+@SupportedAnnotationTypes({RpcCodecProcessor.RPC_SERVICE, RpcCodecProcessor.RPC_REFERENCE})
+public class RpcCodecProcessor extends AbstractProcessor {
+    static final String RPC_SERVICE = "cn.gloduck.netty.rpc.annotation.RpcService";
+    static final String RPC_REFERENCE = "cn.gloduck.netty.rpc.annotation.RpcReference";
+    static final String SUFFIX = "$$RpcCodec";
+    private static final String SERVICE_FILE = "META-INF/services/cn.gloduck.netty.rpc.serializer.codegen.GeneratedCodec";
+
+    /**
+     * 本次编译的源码中的类
+     */
+    private final Set<String> sourceTypes = new HashSet<>();
+    /**
+     * 已经检查过的类，不管是否生成
+     */
+    private final Set<String> visited = new HashSet<>();
+    /**
+     * 需要生成编解码器的类和字段
+     */
+    private final Map<String, CodecSource> pending = new LinkedHashMap<>();
+    /**
+     * 已经生成的编解码器的类名
+     */
+    private final Map<String, String> generated = new LinkedHashMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element root : roundEnv.getRootElements()) {
+            recordSourceType(root);
+        }
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.METHOD) {
+                    continue;
+                }
+                ExecutableElement method = (ExecutableElement) element;
+                for (VariableElement parameter : method.getParameters()) {
+                    collect(parameter.asType());
+                }
+                collect(method.getReturnType());
+            }
+        }
+        // 字段的类型全部收集完以后再生成，嵌套的对象才能直接引用对应的编解码器
+        for (CodecSource source : pending.values()) {
+            write(source);
+        }
+        pending.clear();
+        if (roundEnv.processingOver() && !generated.isEmpty()) {
+            writeServiceFile();
+        }
+        return false;
+    }
+
+    private void recordSourceType(Element element) {
+        if (element instanceof TypeElement) {
+            sourceTypes.add(((TypeElement) element).getQualifiedName().toString());
+            for (Element enclosed : element.getEnclosedElements()) {
+                recordSourceType(enclosed);
+            }
+        }
+    }
+
+    private void collect(TypeMirror type) {
+        switch (type.getKind()) {
+            case DECLARED:
+                DeclaredType declaredType = (DeclaredType) type;
+                for (TypeMirror argument : declaredType.getTypeArguments()) {
+                    collect(argument);
+                }
+                consider((TypeElement) declaredType.asElement());
+                break;
+            case ARRAY:
+                collect(((ArrayType) type).getComponentType());
+                break;
+            case WILDCARD:
+                WildcardType wildcardType = (WildcardType) type;
+                if (wildcardType.getExtendsBound() != null) {
+                    collect(wildcardType.getExtendsBound());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void consider(TypeElement type) {
+        String name = type.getQualifiedName().toString();
+        if (!visited.add(name) || !eligible(type)) {
+            return;
+        }
+        List<CodecSource.Field> fields = fields(type);
+        if (fields == null) {
+            return;
+        }
+        pending.put(name, new CodecSource(type, packageName(type), codecSimpleName(type), fields));
+        for (CodecSource.Field field : fields) {
+            collect(field.type);
+        }
+    }
+
+    /**
+     * 本次编译的源码中的具体类，有非private的无参构造方法，嵌套类必须是静态的
+     * @param type
+     * @return
+     */
+    private boolean eligible(TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)
+                || !sourceTypes.contains(type.getQualifiedName().toString())) {
+            return false;
+        }
+        for (Element current = type; current instanceof TypeElement; current = current.getEnclosingElement()) {
+            Set<Modifier> modifiers = current.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (current.getEnclosingElement() instanceof TypeElement && !modifiers.contains(Modifier.STATIC)) {
+                return false;
+            }
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        note(type, "没有非private的无参构造方法，不生成编解码器");
+        return false;
+    }
+
+    /**
+     * 按照声明顺序获取需要编码的字段，父类的字段在前
+     * @param type
+     * @return 有无法访问的字段时返回null
+     */
+    private List<CodecSource.Field> fields(TypeElement type) {
+        List<TypeElement> hierarchy = new ArrayList<>();
+        for (TypeElement current = type; current != null; current = superclass(current)) {
+            if (current.getQualifiedName().contentEquals("java.lang.Object")) {
+                break;
+            }
+            hierarchy.add(0, current);
+        }
+        String packageName = packageName(type);
+        Set<String> names = new HashSet<>();
+        List<CodecSource.Field> fields = new ArrayList<>();
+        for (TypeElement owner : hierarchy) {
+            boolean samePackage = packageName.equals(packageName(owner));
+            for (VariableElement field : ElementFilter.fieldsIn(owner.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                String name = field.getSimpleName().toString();
+                if (modifiers.contains(Modifier.FINAL)) {
+                    note(type, "字段 " + name + " 是final的，不生成编解码器");
+                    return null;
+                }
+                if (!names.add(name)) {
+                    note(type, "字段 " + name + " 和父类的字段同名，不生成编解码器");
+                    return null;
+                }
+                if (modifiers.contains(Modifier.PUBLIC) || (samePackage && !modifiers.contains(Modifier.PRIVATE))) {
+                    fields.add(new CodecSource.Field(name, field.asType(), null, null));
+                    continue;
+                }
+                String getter = accessor(owner, samePackage, getterNames(field), field.asType(), false);
+                String setter = accessor(owner, samePackage, new String[]{"set" + capitalize(name)}, field.asType(), true);
+                if (getter == null || setter == null) {
+                    note(type, "字段 " + name + " 无法访问并且没有getter和setter，不生成编解码器");
+                    return null;
+                }
+                fields.add(new CodecSource.Field(name, field.asType(), getter, setter));
+            }
+        }
+        return fields;
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+    }
+
+    private static String[] getterNames(VariableElement field) {
+        String name = capitalize(field.getSimpleName().toString());
+        if (field.asType().getKind() == TypeKind.BOOLEAN) {
+            return new String[]{"is" + name, "get" + name};
+        }
+        return new String[]{"get" + name};
+    }
+
+    /**
+     * 查找可以访问的getter或setter
+     * @return 方法名，没有找到时返回null
+     */
+    private String accessor(TypeElement owner, boolean samePackage, String[] names, TypeMirror fieldType, boolean setter) {
+        for (ExecutableElement method : ElementFilter.methodsIn(owner.getEnclosedElements())) {
+            Set<Modifier> modifiers = method.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || !(modifiers.contains(Modifier.PUBLIC) || (samePackage && !modifiers.contains(Modifier.PRIVATE)))) {
+                continue;
+            }
+            String methodName = method.getSimpleName().toString();
+            for (String name : names) {
+                if (!name.equals(methodName)) {
+                    continue;
+                }
+                if (setter && method.getParameters().size() == 1
+                        && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), fieldType)) {
+                    return name;
+                }
+                if (!setter && method.getParameters().isEmpty()
+                        && processingEnv.getTypeUtils().isSameType(method.getReturnType(), fieldType)) {
+                    return name;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void write(CodecSource source) {
+        String codecName = source.qualifiedCodecName();
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(codecName, source.type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.generate(processingEnv.getTypeUtils(), generatedTypes()));
+            }
+            generated.put(source.type.getQualifiedName().toString(), codecName);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "生成编解码器 " + codecName + " 失败 : " + e.getMessage(), source.type);
+        }
+    }
+
+    /**
+     * 已经生成或者即将生成编解码器的类型和编解码器的类名
+     * @return
+     */
+    private Map<String, String> generatedTypes() {
+        Map<String, String> types = new LinkedHashMap<>(generated);
+        for (Map.Entry<String, CodecSource> entry : pending.entrySet()) {
+            types.put(entry.getKey(), entry.getValue().qualifiedCodecName());
+        }
+        return types;
+    }
+
+    private void writeServiceFile() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Writer writer = file.openWriter()) {
+                for (String codecName : generated.values()) {
+                    writer.write(codecName);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "写入 " + SERVICE_FILE + " 失败 : " + e.getMessage());
+        }
+    }
+
+    private String packageName(TypeElement type) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+    }
+
+    /**
+     * 编解码器的类名，为类型的二进制名去掉包名后加上后缀，例如Outer$Inner$$RpcCodec
+     * @param type
+     * @return
+     */
+    private String codecSimpleName(TypeElement type) {
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String packageName = packageName(type);
+        return (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+    }
+
+    private void note(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
@@ -0,0 +1,157 @@
+package cn.gloduck.netty.rpc.codegen;
+
+import cn.gloduck.netty.rpc.annotation.RpcService;
+import cn.gloduck.netty.rpc.serializer.codegen.GeneratedCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * 用{@link RpcCodecProcessor}编译一个示例服务，加载生成的编解码器，写出再读回对象
+ * @author Gloduck
+ */
+public class RpcCodecProcessorTest {
+    private static final String ADDRESS = "package sample;\n"
+            + "public class Address {\n"
+            + "    String city;\n"
+            + "    int zip;\n"
+            + "    public boolean equals(Object o) {\n"
+            + "        return o instanceof Address && java.util.Objects.equals(city, ((Address) o).city) && zip == ((Address) o).zip;\n"
+            + "    }\n"
+            + "    public int hashCode() {\n"
+            + "        return java.util.Objects.hash(city, zip);\n"
+            + "    }\n"
+            + "}\n";
+    private static final String USER = "package sample;\n"
+            + "public class User {\n"
+            + "    private long id;\n"
+            + "    private String name;\n"
+            + "    private boolean active;\n"
+            + "    private byte[] avatar;\n"
+            + "    private Address address;\n"
+            + "    public long getId() { return id; }\n"
+            + "    public void setId(long id) { this.id = id; }\n"
+            + "    public String getName() { return name; }\n"
+            + "    public void setName(String name) { this.name = name; }\n"
+            + "    public boolean isActive() { return active; }\n"
+            + "    public void setActive(boolean active) { this.active = active; }\n"
+            + "    public byte[] getAvatar() { return avatar; }\n"
+            + "    public void setAvatar(byte[] avatar) { this.avatar = avatar; }\n"
+            + "    public Address getAddress() { return address; }\n"
+            + "    public void setAddress(Address address) { this.address = address; }\n"
+            + "    public boolean equals(Object o) {\n"
+            + "        if (!(o instanceof User)) {\n"
+            + "            return false;\n"
+            + "        }\n"
+            + "        User user = (User) o;\n"
+            + "        return id == user.id && active == user.active && java.util.Objects.equals(name, user.name)\n"
+            + "                && java.util.Arrays.equals(avatar, user.avatar) && java.util.Objects.equals(address, user.address);\n"
+            + "    }\n"
+            + "    public int hashCode() {\n"
+            + "        return java.util.Objects.hash(id, name);\n"
+            + "    }\n"
+            + "    public static User sample() {\n"
+            + "        Address address = new Address();\n"
+            + "        address.city = \"hangzhou\";\n"
+            + "        address.zip = 310000;\n"
+            + "        User user = new User();\n"
+            + "        user.id = 7L;\n"
+            + "        user.name = \"bob\";\n"
+            + "        user.active = true;\n"
+            + "        user.avatar = new byte[]{1, 2, 3};\n"
+            + "        user.address = address;\n"
+            + "        return user;\n"
+            + "    }\n"
+            + "}\n";
+    private static final String SERVICE = "package sample;\n"
+            + "import cn.gloduck.netty.rpc.annotation.RpcService;\n"
+            + "public class UserService {\n"
+            + "    @RpcService(serviceName = \"user.echo\")\n"
+            + "    public User echo(User user) {\n"
+            + "        return user;\n"
+            + "    }\n"
+            + "}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void roundTrip() throws Exception {
+        File classes = compile();
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, getClass().getClassLoader())) {
+            Set<String> types = new HashSet<>();
+            for (GeneratedCodec<?> codec : ServiceLoader.load(GeneratedCodec.class, loader)) {
+                types.add(codec.type().getName());
+            }
+            Assert.assertEquals(new HashSet<>(Arrays.asList("sample.User", "sample.Address")), types);
+
+            Class<?> userClass = loader.loadClass("sample.User");
+            GeneratedCodec<Object> codec = (GeneratedCodec<Object>) loader.loadClass("sample.User" + RpcCodecProcessor.SUFFIX)
+                    .getField("INSTANCE").get(null);
+            Object user = userClass.getMethod("sample").invoke(null);
+            ByteBuf buf = Unpooled.buffer();
+            try {
+                codec.write(buf, user);
+                Object read = codec.read(buf);
+                Assert.assertEquals(user, read);
+                Assert.assertFalse(buf.isReadable());
+            } finally {
+                buf.release();
+            }
+        }
+    }
+
+    private File compile() throws IOException, URISyntaxException {
+        File sources = folder.newFolder("sources");
+        File classes = folder.newFolder("classes");
+        List<File> files = Arrays.asList(
+                source(sources, "Address", ADDRESS), source(sources, "User", USER), source(sources, "UserService", SERVICE));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            // surefire的类路径可能只有一个manifest jar，直接使用依赖所在的位置
+            String classpath = String.join(File.pathSeparator, location(RpcService.class),
+                    location(GeneratedCodec.class), location(ByteBuf.class));
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    Arrays.asList("-classpath", classpath, "-d", classes.getPath()),
+                    null, fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Collections.singletonList(new RpcCodecProcessor()));
+            Assert.assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+        }
+        return classes;
+    }
+
+    private static File source(File dir, String name, String content) throws IOException {
+        Path path = new File(dir, name + ".java").toPath();
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+
+    private static String location(Class<?> clazz) throws URISyntaxException {
+        return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+}
@@ -0,0 +1,367 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.enums.MessageType;
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import cn.gloduck.netty.rpc.serializer.codegen.CodecIO;
+import cn.gloduck.netty.rpc.utils.VarIntUtil;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 参数和返回值只有基本类型、包装类型、字符串和基本类型数组的请求、响应使用的紧凑编码，不经过序列化器。
+ * 每个值前面是一个字节的类型编号（最高位表示null），int、long及其包装类型写为zigzag变长整数，
+ * 其他基本类型写为固定长度，数组写长度后整块复制。
+ * <pre>
+ * 请求：方法ID(varint) + [服务名，方法ID为0时] + 参数个数加1(varint，0表示null) + (类型编号 + 值)*
+ * 响应：状态码加1(varint，0表示null) + 附加信息 + 类型编号 + 返回值
+ * </pre>
+ * 参数的类型编号按照方法声明的类型写入，所以服务端可以直接还原出参数类型；只在v2协议中使用，见{@link RpcProtocol#FLAG_COMPACT}
+ * @author Gloduck
+ */
+public final class CompactCodec {
+    private CompactCodec(){}
+
+    /**
+     * 下标为类型编号，void只用于返回值
+     */
+    private static final Class<?>[] TYPES = {
+            void.class,
+            boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class,
+            Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class, Float.class, Double.class,
+            String.class, byte[].class, int[].class, long[].class, double[].class
+    };
+    private static final int VOID = 0;
+    private static final int BOOLEAN = 1;
+    private static final int BYTE = 2;
+    private static final int SHORT = 3;
+    private static final int CHAR = 4;
+    private static final int INT = 5;
+    private static final int LONG = 6;
+    private static final int FLOAT = 7;
+    private static final int DOUBLE = 8;
+    /**
+     * 包装类型的编号减去该值为对应基本类型的编号
+     */
+    private static final int BOXED = 8;
+    private static final int STRING = 17;
+    private static final int BYTE_ARRAY = 18;
+    private static final int INT_ARRAY = 19;
+    private static final int LONG_ARRAY = 20;
+    private static final int DOUBLE_ARRAY = 21;
+    /**
+     * 值为null
+     */
+    private static final int NULL = 0x80;
+    private static final Map<Class<?>, Integer> CODES = new IdentityHashMap<>(TYPES.length * 2);
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            CODES.put(TYPES[i], i);
+        }
+    }
+
+    /**
+     * 方法能否使用紧凑编码
+     * @param parameterTypes
+     * @param returnType
+     * @return
+     */
+    public static boolean supports(Class<?>[] parameterTypes, Class<?> returnType){
+        for (Class<?> parameterType : parameterTypes) {
+            Integer code = CODES.get(parameterType);
+            if(code == null || code == VOID){
+                return false;
+            }
+        }
+        return CODES.containsKey(returnType);
+    }
+
+    /**
+     * 返回值能否使用紧凑编码
+     * @param data
+     * @return
+     */
+    static boolean supports(Object data){
+        return data == null || CODES.containsKey(data.getClass());
+    }
+
+    static void encode(RpcMessage msg, ByteBuf out) throws SerializationException {
+        if(msg instanceof RpcRequest){
+            writeRequest((RpcRequest) msg, out);
+        } else if(msg instanceof RpcResponse){
+            writeResponse((RpcResponse) msg, out);
+        } else {
+            throw new SerializationException("不支持紧凑编码的消息 : " + msg.getMessageType());
+        }
+    }
+
+    static RpcMessage decode(byte messageTypeCode, ByteBuf in) throws SerializationException {
+        try {
+            if(messageTypeCode == MessageType.RPC_REQUEST.getTypeCode()){
+                return readRequest(in);
+            } else if(messageTypeCode == MessageType.RPC_RESPONSE.getTypeCode()){
+                return readResponse(in);
+            }
+        } catch (IndexOutOfBoundsException e){
+            throw new SerializationException("消息体不完整", e);
+        }
+        throw new SerializationException("不支持紧凑编码的消息类型 : " + messageTypeCode);
+    }
+
+    private static void writeRequest(RpcRequest request, ByteBuf out) throws SerializationException {
+        int methodId = request.getMethodId();
+        VarIntUtil.writeVarInt(out, methodId);
+        if(methodId <= 0){
+            CodecIO.writeString(out, request.getServiceName());
+        }
+        Object[] parameters = request.getParameters();
+        if(parameters == null){
+            out.writeByte(0);
+            return;
+        }
+        Class<?>[] argumentTypes = request.getArgumentTypes();
+        VarIntUtil.writeVarInt(out, parameters.length + 1);
+        for (int i = 0; i < parameters.length; i++) {
+            Integer code = CODES.get(argumentTypes[i]);
+            if(code == null){
+                throw new SerializationException("不支持紧凑编码的参数类型 : " + argumentTypes[i].getName());
+            }
+            writeValue(out, code, parameters[i]);
+        }
+    }
+
+    private static RpcRequest readRequest(ByteBuf in) throws SerializationException {
+        RpcRequest request = RpcRequest.newInstance();
+        request.setCompact(true);
+        int methodId = VarIntUtil.readVarInt(in);
+        request.setMethodId(methodId);
+        if(methodId <= 0){
+            request.setServiceName(CodecIO.readString(in));
+        }
+        int count = VarIntUtil.readVarInt(in) - 1;
+        if(count < 0){
+            return request;
+        }
+        Object[] parameters = new Object[count];
+        Class<?>[] parameterTypes = new Class<?>[count];
+        for (int i = 0; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            int code = tag & ~NULL;
+            if(code == VOID || code >= TYPES.length){
+                throw new SerializationException("错误的参数类型编号 : " + code);
+            }
+            parameterTypes[i] = TYPES[code];
+            parameters[i] = (tag & NULL) == 0 ? readValue(in, code) : null;
+        }
+        request.setParameters(parameters);
+        if(methodId <= 0){
+            request.setParameterTypes(parameterTypes);
+        }
+        return request;
+    }
+
+    private static void writeResponse(RpcResponse response, ByteBuf out) throws SerializationException {
+        Integer code = response.getCode();
+        // 状态码加1，0表示null
+        VarIntUtil.writeVarInt(out, code == null ? 0 : code + 1);
+        CodecIO.writeString(out, response.getMessage());
+        Object data = response.getData();
+        if(data == null){
+            out.writeByte(VOID);
+            return;
+        }
+        Integer dataCode = CODES.get(data.getClass());
+        if(dataCode == null){
+            throw new SerializationException("不支持紧凑编码的返回值类型 : " + data.getClass().getName());
+        }
+        writeValue(out, dataCode, data);
+    }
+
+    private static RpcResponse readResponse(ByteBuf in) throws SerializationException {
+        int code = VarIntUtil.readVarInt(in) - 1;
+        String message = CodecIO.readString(in);
+        int tag = in.readUnsignedByte();
+        if(tag >= TYPES.length){
+            throw new SerializationException("错误的返回值类型编号 : " + tag);
+        }
+        Object data = tag == VOID ? null : readValue(in, tag);
+        RpcResponse response = RpcResponse.newInstance();
+        response.setCode(code < 0 ? null : code);
+        response.setMessage(message);
+        response.setData(data);
+        response.setCompact(true);
+        return response;
+    }
+
+    private static void writeValue(ByteBuf out, int code, Object value){
+        if(value == null){
+            out.writeByte(code | NULL);
+            return;
+        }
+        out.writeByte(code);
+        switch (code > BOXED && code < STRING ? code - BOXED : code) {
+            case BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case BYTE:
+                out.writeByte((Byte) value);
+                break;
+            case SHORT:
+                out.writeShort((Short) value);
+                break;
+            case CHAR:
+                out.writeChar((Character) value);
+                break;
+            case INT:
+                int intValue = (Integer) value;
+                VarIntUtil.writeVarInt(out, (intValue << 1) ^ (intValue >> 31));
+                break;
+            case LONG:
+                long longValue = (Long) value;
+                VarIntUtil.writeVarLong(out, (longValue << 1) ^ (longValue >> 63));
+                break;
+            case FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case STRING:
+                CodecIO.writeString(out, (String) value);
+                break;
+            case BYTE_ARRAY:
+                byte[] bytes = (byte[]) value;
+                VarIntUtil.writeVarInt(out, bytes.length);
+                out.writeBytes(bytes);
+                break;
+            case INT_ARRAY:
+                int[] ints = (int[]) value;
+                VarIntUtil.writeVarInt(out, ints.length);
+                ByteBuffer intBuffer = reserve(out, ints.length * Integer.BYTES);
+                if(intBuffer != null){
+                    intBuffer.asIntBuffer().put(ints);
+                } else {
+                    for (int element : ints) {
+                        out.writeInt(element);
+                    }
+                }
+                break;
+            case LONG_ARRAY:
+                long[] longs = (long[]) value;
+                VarIntUtil.writeVarInt(out, longs.length);
+                ByteBuffer longBuffer = reserve(out, longs.length * Long.BYTES);
+                if(longBuffer != null){
+                    longBuffer.asLongBuffer().put(longs);
+                } else {
+                    for (long element : longs) {
+                        out.writeLong(element);
+                    }
+                }
+                break;
+            case DOUBLE_ARRAY:
+                double[] doubles = (double[]) value;
+                VarIntUtil.writeVarInt(out, doubles.length);
+                ByteBuffer doubleBuffer = reserve(out, doubles.length * Double.BYTES);
+                if(doubleBuffer != null){
+                    doubleBuffer.asDoubleBuffer().put(doubles);
+                } else {
+                    for (double element : doubles) {
+                        out.writeDouble(element);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("错误的类型编号 : " + code);
+        }
+    }
+
+    private static Object readValue(ByteBuf in, int code) throws SerializationException {
+        switch (code > BOXED && code < STRING ? code - BOXED : code) {
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTE:
+                return in.readByte();
+            case SHORT:
+                return in.readShort();
+            case CHAR:
+                return in.readChar();
+            case INT:
+                int intValue = VarIntUtil.readVarInt(in);
+                return (intValue >>> 1) ^ -(intValue & 1);
+            case LONG:
+                long longValue = VarIntUtil.readVarLong(in);
+                return (longValue >>> 1) ^ -(longValue & 1);
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return CodecIO.readString(in);
+            case BYTE_ARRAY:
+                byte[] bytes = new byte[readLength(in, 1)];
+                in.readBytes(bytes);
+                return bytes;
+            case INT_ARRAY:
+                int[] ints = new int[readLength(in, Integer.BYTES)];
+                readArray(in, ints.length * Integer.BYTES).asIntBuffer().get(ints);
+                return ints;
+            case LONG_ARRAY:
+                long[] longs = new long[readLength(in, Long.BYTES)];
+                readArray(in, longs.length * Long.BYTES).asLongBuffer().get(longs);
+                return longs;
+            case DOUBLE_ARRAY:
+                double[] doubles = new double[readLength(in, Double.BYTES)];
+                readArray(in, doubles.length * Double.BYTES).asDoubleBuffer().get(doubles);
+                return doubles;
+            default:
+                throw new SerializationException("错误的类型编号 : " + code);
+        }
+    }
+
+    /**
+     * 读取数组长度，长度超过剩余数据时直接报错，避免分配过大的数组
+     * @param in
+     * @param elementSize
+     * @return
+     * @throws SerializationException
+     */
+    private static int readLength(ByteBuf in, int elementSize) throws SerializationException {
+        int length = VarIntUtil.readVarInt(in);
+        if(length < 0 || (long) length * elementSize > in.readableBytes()){
+            throw new SerializationException("错误的数组长度 : " + length);
+        }
+        return length;
+    }
+
+    /**
+     * 在out的写索引处预留length字节，返回覆盖这段空间的ByteBuffer，数组直接整块写入
+     * @param out
+     * @param length
+     * @return out由多块内存组成时返回null，不预留空间
+     */
+    private static ByteBuffer reserve(ByteBuf out, int length){
+        out.ensureWritable(length);
+        if(out.nioBufferCount() != 1){
+            return null;
+        }
+        int index = out.writerIndex();
+        out.writerIndex(index + length);
+        return out.internalNioBuffer(index, length).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * 返回覆盖in的读索引处length字节的ByteBuffer，并移动读索引
+     * @param in
+     * @param length
+     * @return
+     */
+    private static ByteBuffer readArray(ByteBuf in, int length){
+        int index = in.readerIndex();
+        in.skipBytes(length);
+        return in.nioBuffer(index, length).order(ByteOrder.BIG_ENDIAN);
+    }
+}
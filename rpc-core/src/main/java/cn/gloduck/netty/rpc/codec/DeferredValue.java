@@ -0,0 +1,21 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.exception.SerializationException;
+
+import java.lang.reflect.Type;
+
+/**
+ * 按照声明类型编码、解码时还不知道类型的值。
+ * 序列化器在消息体中只写值本身不写类型时，解码得到的参数或者返回值先用它占位，
+ * 由知道方法签名的一方（服务端的{@link cn.gloduck.netty.rpc.ref.server.BeanAndMethod}，客户端的请求）按照类型完成解码
+ * @author Gloduck
+ */
+public interface DeferredValue {
+    /**
+     * 按照类型解码
+     * @param type 声明的类型，可能是带泛型参数的类型。客户端不知道返回值类型时为null
+     * @return
+     * @throws SerializationException
+     */
+    Object resolve(Type type) throws SerializationException;
+}
@@ -0,0 +1,122 @@
+package cn.gloduck.netty.rpc.codec;
+
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * 服务端返回的本地文件，发送时由{@link RpcFragmentHandler}分帧写出，每帧是共用同一个{@link FileChannel}的{@link DefaultFileRegion}
+ * @author Gloduck
+ */
+final class LocalFile extends RpcFile {
+    private static final Logger logger = LoggerFactory.getLogger(LocalFile.class);
+    private final FileChannel file;
+    private final long position;
+    private final long count;
+
+    LocalFile(FileChannel file, long position, long count) {
+        this.file = file;
+        this.position = position;
+        this.count = count;
+    }
+
+    @Override
+    public long length() {
+        return count;
+    }
+
+    /**
+     * 文件中的一段，释放时不关闭文件
+     * @param offset 相对于开始位置的偏移
+     * @param length
+     * @return
+     */
+    FileRegion region(long offset, long length){
+        return new DefaultFileRegion(file, position + offset, length){
+            @Override
+            protected void deallocate() {
+                // 文件由LocalFile关闭
+            }
+        };
+    }
+
+    @Override
+    public ReadableByteChannel channel() {
+        return new ReadableByteChannel() {
+            private long offset;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if(!file.isOpen()){
+                    throw new ClosedChannelException();
+                }
+                long remaining = count - offset;
+                if(remaining <= 0){
+                    return -1;
+                }
+                int limit = dst.limit();
+                if(dst.remaining() > remaining){
+                    dst.limit(dst.position() + (int) remaining);
+                }
+                try {
+                    int read = file.read(dst, position + offset);
+                    offset += Math.max(read, 0);
+                    return read;
+                } finally {
+                    dst.limit(limit);
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return file.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                LocalFile.this.close();
+            }
+        };
+    }
+
+    @Override
+    public long transferTo(Path target) throws IOException {
+        try (FileChannel out = openTarget(target)) {
+            long written = 0;
+            while (written < count){
+                long transferred = file.transferTo(position + written, count - written, out);
+                if(transferred <= 0){
+                    throw new IOException("文件大小小于指定的范围");
+                }
+                written += transferred;
+            }
+            return written;
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * 关闭文件，忽略异常
+     */
+    void release(){
+        try {
+            file.close();
+        } catch (IOException e){
+            logger.debug("关闭文件失败", e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package cn.gloduck.netty.rpc.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+
+/**
+ * 客户端收到的文件，数据帧由{@link RpcDecoder}在事件循环中放入，调用者在自己的线程中读取。
+ * 数据帧以入站数据切片的形式保存，读取时直接从切片复制到调用者的缓冲区或者写入文件。
+ * 没有读取的数据超过{@link #HIGH_WATER_MARK}时关闭连接的自动读取，读取到{@link #LOW_WATER_MARK}以下时恢复，
+ * 暂停期间同一个连接上的其他响应也会延迟
+ * @author Gloduck
+ */
+final class ReceivedFile extends RpcFile {
+    static final int HIGH_WATER_MARK = 1 << 22;
+    static final int LOW_WATER_MARK = 1 << 20;
+    private final long length;
+    private final ArrayDeque<ByteBuf> chunks;
+    private Channel channel;
+    /**
+     * 收到的数据总大小
+     */
+    private long received;
+    /**
+     * 没有读取的数据大小
+     */
+    private long buffered;
+    private boolean paused;
+    private boolean completed;
+    private boolean closed;
+    private IOException cause;
+
+    ReceivedFile(long length) {
+        this.length = length;
+        this.chunks = new ArrayDeque<>();
+        this.completed = length == 0;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * 绑定接收数据的连接
+     * @param channel
+     */
+    synchronized void bind(Channel channel){
+        this.channel = channel;
+    }
+
+    /**
+     * 收到一个数据帧，在事件循环中调用
+     * @param chunk 数据，所有权交给当前对象
+     * @param last 是否是最后一帧
+     */
+    synchronized void receive(ByteBuf chunk, boolean last){
+        if(closed || completed || cause != null){
+            chunk.release();
+            return;
+        }
+        int size = chunk.readableBytes();
+        received += size;
+        if(received > length || last && received != length){
+            chunk.release();
+            fail(new IOException(String.format("收到的文件长度和响应中的长度不一致 : %d , %d", received, length)));
+            return;
+        }
+        if(size > 0){
+            chunks.add(chunk);
+            buffered += size;
+        } else {
+            chunk.release();
+        }
+        completed = last;
+        if(buffered > HIGH_WATER_MARK){
+            paused = true;
+            channel.config().setAutoRead(false);
+        }
+        notifyAll();
+    }
+
+    /**
+     * 连接断开或者解码失败
+     * @param cause
+     */
+    synchronized void fail(IOException cause){
+        if(completed || this.cause != null){
+            return;
+        }
+        this.cause = cause;
+        releaseChunks();
+        notifyAll();
+    }
+
+    /**
+     * 数据是否已经全部收到，收到后不再需要保留在解码器中
+     * @return
+     */
+    synchronized boolean isDone(){
+        return completed || closed || cause != null;
+    }
+
+    /**
+     * 取出下一个数据帧，没有数据时等待
+     * @return 数据帧，由调用者释放；数据已经读完时返回null
+     * @throws IOException
+     */
+    private synchronized ByteBuf poll() throws IOException {
+        while (true){
+            if(closed){
+                throw new ClosedChannelException();
+            }
+            ByteBuf chunk = chunks.poll();
+            if(chunk != null){
+                buffered -= chunk.readableBytes();
+                if(paused && buffered < LOW_WATER_MARK){
+                    paused = false;
+                    channel.config().setAutoRead(true);
+                }
+                return chunk;
+            }
+            if(cause != null){
+                throw new IOException("接收文件失败", cause);
+            }
+            if(completed){
+                return null;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待文件数据时被中断");
+            }
+        }
+    }
+
+    @Override
+    public ReadableByteChannel channel() {
+        return new ReadableByteChannel() {
+            /**
+             * 正在读取的数据帧，已经从队列中取出
+             */
+            private ByteBuf current;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if(!dst.hasRemaining()){
+                    return 0;
+                }
+                if(current == null){
+                    current = poll();
+                    if(current == null){
+                        return -1;
+                    }
+                }
+                int size = Math.min(dst.remaining(), current.readableBytes());
+                int limit = dst.limit();
+                dst.limit(dst.position() + size);
+                current.readBytes(dst);
+                dst.limit(limit);
+                if(!current.isReadable()){
+                    current.release();
+                    current = null;
+                }
+                return size;
+            }
+
+            @Override
+            public boolean isOpen() {
+                synchronized (ReceivedFile.this){
+                    return !closed;
+                }
+            }
+
+            @Override
+            public void close() {
+                if(current != null){
+                    current.release();
+                    current = null;
+                }
+                ReceivedFile.this.close();
+            }
+        };
+    }
+
+    @Override
+    public long transferTo(Path target) throws IOException {
+        try (FileChannel out = openTarget(target)) {
+            long written = 0;
+            ByteBuf chunk;
+            while ((chunk = poll()) != null){
+                try {
+                    // 直接从入站数据写入文件
+                    while (chunk.isReadable()){
+                        written += chunk.readBytes(out, written, chunk.readableBytes());
+                    }
+                } finally {
+                    chunk.release();
+                }
+            }
+            return written;
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * 丢弃没有读取的数据，之后收到的数据直接释放
+     */
+    @Override
+    public synchronized void close() {
+        if(closed){
+            return;
+        }
+        closed = true;
+        releaseChunks();
+        notifyAll();
+    }
+
+    private void releaseChunks(){
+        ByteBuf chunk;
+        while ((chunk = chunks.poll()) != null){
+            chunk.release();
+        }
+        buffered = 0;
+        if(paused){
+            paused = false;
+            channel.config().setAutoRead(true);
+        }
+    }
+}
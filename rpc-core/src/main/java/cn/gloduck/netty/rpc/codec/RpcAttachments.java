@@ -0,0 +1,307 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import cn.gloduck.netty.rpc.utils.VarIntUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 消息的附件：请求中类型为{@link ByteBuf}、{@link ByteBuffer}和byte[]的参数，以及响应中这些类型的返回值。
+ * 附件不经过序列化器，序列化时对应的位置为null，原始数据追加在消息体后面，只在v2协议中使用，见{@link RpcProtocol#FLAG_ATTACHMENT}。
+ * 类型为{@link RpcFile}的返回值也是附件，但是数据不在消息体中，而是在响应之后以单独的数据帧发送。
+ * <pre>
+ * 消息体：附件个数(varint) + (位置(varint) + 类型(1) + 长度(varlong))* + 序列化的消息 + 附件数据*
+ * </pre>
+ * 引用计数的约定：
+ * <ul>
+ *     <li>发送时附件直接作为{@link io.netty.buffer.CompositeByteBuf}的组件写出，不复制。
+ *     作为参数或者返回值的ByteBuf的所有权交给框架，写出后（或者写出失败时）释放，需要继续使用时调用者先retain</li>
+ *     <li>收到的ByteBuf是入站数据的retain过的切片。服务端在方法返回后释放参数，方法需要保留或者直接返回时先retain；
+ *     客户端收到的返回值由调用者释放</li>
+ *     <li>收到的ByteBuffer和byte[]没有引用计数，从入站数据中复制一次</li>
+ * </ul>
+ * @author Gloduck
+ */
+final class RpcAttachments {
+    private static final byte BYTE_BUF = 0;
+    private static final byte BYTE_BUFFER = 1;
+    private static final byte BYTE_ARRAY = 2;
+    private static final byte FILE = 3;
+
+    /**
+     * 附件在参数中的位置，响应固定为0
+     */
+    private final int[] indexes;
+    private final byte[] kinds;
+    private final long[] lengths;
+    /**
+     * 发送时的附件数据，文件对应的位置为null
+     */
+    private final ByteBuf[] buffers;
+    /**
+     * 消息体中附件数据的总长度，不包括文件
+     */
+    private int length;
+    /**
+     * 发送的文件
+     */
+    private LocalFile file;
+    /**
+     * 编码前原始的参数或者返回值，编码后恢复
+     */
+    private Object original;
+
+    private RpcAttachments(int size) {
+        this.indexes = new int[size];
+        this.kinds = new byte[size];
+        this.lengths = new long[size];
+        this.buffers = new ByteBuf[size];
+    }
+
+    /**
+     * 找出消息中的附件
+     * @param msg
+     * @return 没有附件时返回null
+     */
+    static RpcAttachments of(RpcMessage msg){
+        if(msg instanceof RpcRequest){
+            Object[] parameters = ((RpcRequest) msg).getParameters();
+            if(parameters == null){
+                return null;
+            }
+            int size = 0;
+            for (Object parameter : parameters) {
+                if(kind(parameter) >= 0){
+                    size++;
+                }
+            }
+            if(size == 0){
+                return null;
+            }
+            RpcAttachments attachments = new RpcAttachments(size);
+            int next = 0;
+            for (int i = 0; i < parameters.length; i++) {
+                if(kind(parameters[i]) >= 0){
+                    attachments.add(next++, i, parameters[i]);
+                }
+            }
+            return attachments;
+        } else if(msg instanceof RpcResponse){
+            Object data = ((RpcResponse) msg).getData();
+            if(data instanceof LocalFile){
+                RpcAttachments attachments = new RpcAttachments(1);
+                attachments.kinds[0] = FILE;
+                attachments.lengths[0] = ((LocalFile) data).length();
+                attachments.file = (LocalFile) data;
+                return attachments;
+            }
+            if(kind(data) < 0){
+                return null;
+            }
+            RpcAttachments attachments = new RpcAttachments(1);
+            attachments.add(0, 0, data);
+            return attachments;
+        }
+        return null;
+    }
+
+    private static byte kind(Object value){
+        if(value instanceof ByteBuf){
+            return BYTE_BUF;
+        } else if(value instanceof ByteBuffer){
+            return BYTE_BUFFER;
+        } else if(value instanceof byte[]){
+            return BYTE_ARRAY;
+        }
+        return -1;
+    }
+
+    private void add(int position, int index, Object value){
+        byte kind = kind(value);
+        ByteBuf buffer;
+        if(kind == BYTE_BUF){
+            buffer = (ByteBuf) value;
+        } else if(kind == BYTE_BUFFER){
+            // 只包装，不修改ByteBuffer的position
+            buffer = Unpooled.wrappedBuffer(((ByteBuffer) value).duplicate());
+        } else {
+            buffer = Unpooled.wrappedBuffer((byte[]) value);
+        }
+        indexes[position] = index;
+        kinds[position] = kind;
+        lengths[position] = buffer.readableBytes();
+        buffers[position] = buffer;
+        length += lengths[position];
+    }
+
+    /**
+     * 附件数据的总长度
+     * @return
+     */
+    int length(){
+        return length;
+    }
+
+    /**
+     * 发送的附件数据，写出后由{@link io.netty.buffer.CompositeByteBuf}释放
+     * @return
+     */
+    ByteBuf[] buffers(){
+        return buffers;
+    }
+
+    /**
+     * 发送的文件，在消息之后由{@link RpcFragmentHandler}分帧写出
+     * @return 没有文件时返回null
+     */
+    LocalFile file(){
+        return file;
+    }
+
+    /**
+     * 释放发送的附件数据，用于编码失败时
+     */
+    void release(){
+        for (ByteBuf buffer : buffers) {
+            if(buffer != null){
+                ReferenceCountUtil.safeRelease(buffer);
+            }
+        }
+        if(file != null){
+            file.release();
+        }
+    }
+
+    /**
+     * 写入附件表
+     * @param out
+     */
+    void writeTable(ByteBuf out){
+        VarIntUtil.writeVarInt(out, indexes.length);
+        for (int i = 0; i < indexes.length; i++) {
+            VarIntUtil.writeVarInt(out, indexes[i]);
+            out.writeByte(kinds[i]);
+            VarIntUtil.writeVarLong(out, lengths[i]);
+        }
+    }
+
+    /**
+     * 把消息中附件的位置置为null，编码后调用{@link #restore(RpcMessage)}恢复
+     * @param msg
+     */
+    void strip(RpcMessage msg){
+        if(msg instanceof RpcRequest){
+            RpcRequest request = (RpcRequest) msg;
+            Object[] parameters = request.getParameters();
+            original = parameters;
+            Object[] stripped = parameters.clone();
+            for (int index : indexes) {
+                stripped[index] = null;
+            }
+            request.setParameters(stripped);
+        } else {
+            RpcResponse response = (RpcResponse) msg;
+            original = response.getData();
+            response.setData(null);
+        }
+    }
+
+    void restore(RpcMessage msg){
+        if(msg instanceof RpcRequest){
+            ((RpcRequest) msg).setParameters((Object[]) original);
+        } else {
+            ((RpcResponse) msg).setData(original);
+        }
+        original = null;
+    }
+
+    /**
+     * 读取附件表，读取后body的读索引在序列化的消息开始处
+     * @param body
+     * @return
+     * @throws SerializationException
+     */
+    static RpcAttachments readTable(ByteBuf body) throws SerializationException {
+        int size = VarIntUtil.readVarInt(body);
+        if(size <= 0 || size > body.readableBytes()){
+            throw new SerializationException("错误的附件个数 : " + size);
+        }
+        RpcAttachments attachments = new RpcAttachments(size);
+        for (int i = 0; i < size; i++) {
+            attachments.indexes[i] = VarIntUtil.readVarInt(body);
+            attachments.kinds[i] = body.readByte();
+            long length = VarIntUtil.readVarLong(body);
+            if(length < 0 || attachments.kinds[i] != FILE && length > body.readableBytes()){
+                throw new SerializationException("错误的附件长度 : " + length);
+            }
+            attachments.lengths[i] = length;
+            if(attachments.kinds[i] != FILE){
+                attachments.length += (int) length;
+            }
+        }
+        if(attachments.length < 0 || attachments.length > body.readableBytes()){
+            throw new SerializationException("附件长度超过消息体 : " + attachments.length);
+        }
+        return attachments;
+    }
+
+    /**
+     * 把body中从index开始的附件数据放回解码后的消息，文件的数据之后由{@link RpcDecoder}放入{@link ReceivedFile}
+     * @param msg
+     * @param body
+     * @param index
+     * @throws SerializationException
+     */
+    void attach(RpcMessage msg, ByteBuf body, int index) throws SerializationException {
+        Object[] values = new Object[indexes.length];
+        try {
+            for (int i = 0; i < indexes.length; i++) {
+                int length = (int) lengths[i];
+                switch (kinds[i]) {
+                    case BYTE_BUF:
+                        values[i] = body.retainedSlice(index, length);
+                        break;
+                    case BYTE_BUFFER:
+                        values[i] = ByteBuffer.wrap(ByteBufUtil.getBytes(body, index, length));
+                        break;
+                    case BYTE_ARRAY:
+                        values[i] = ByteBufUtil.getBytes(body, index, length);
+                        break;
+                    case FILE:
+                        if(!(msg instanceof RpcResponse)){
+                            throw new SerializationException("请求不支持文件附件");
+                        }
+                        values[i] = new ReceivedFile(lengths[i]);
+                        // 文件的数据不在消息体中
+                        length = 0;
+                        break;
+                    default:
+                        throw new SerializationException("错误的附件类型 : " + kinds[i]);
+                }
+                index += length;
+            }
+            if(msg instanceof RpcRequest){
+                Object[] parameters = ((RpcRequest) msg).getParameters();
+                for (int i = 0; i < indexes.length; i++) {
+                    if(parameters == null || indexes[i] >= parameters.length){
+                        throw new SerializationException("错误的附件位置 : " + indexes[i]);
+                    }
+                    parameters[indexes[i]] = values[i];
+                }
+            } else if(msg instanceof RpcResponse && indexes.length == 1){
+                ((RpcResponse) msg).setData(values[0]);
+            } else {
+                throw new SerializationException("消息不支持附件 : " + msg.getMessageType());
+            }
+        } catch (SerializationException | RuntimeException e){
+            for (Object value : values) {
+                ReferenceCountUtil.safeRelease(value);
+            }
+            throw e;
+        }
+    }
+}
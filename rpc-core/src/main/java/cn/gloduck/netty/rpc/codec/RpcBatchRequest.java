@@ -0,0 +1,114 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.enums.MessageType;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 批量请求，一个帧中携带多个请求。
+ * 请求的ID不参与序列化，所以单独保存在ids中，服务端按照下标取出请求时再设置回去。
+ * 批量请求本身的ID使用第一个请求的ID，保证分片时不会和其他消息冲突
+ * @author Gloduck
+ */
+public final class RpcBatchRequest implements RpcMessage {
+    private transient long id;
+    private transient byte serializerTypeCode = -1;
+    private RpcRequest[] requests;
+    /**
+     * 下标和requests对应的请求ID
+     */
+    private long[] ids;
+
+    public RpcBatchRequest() {
+    }
+
+    /**
+     * 请求需要已经分配了ID，所有请求使用相同的序列化器时批量请求也使用该序列化器，否则使用连接默认的序列化器
+     * @param requests
+     */
+    public RpcBatchRequest(List<RpcRequest> requests) {
+        int size = requests.size();
+        this.requests = requests.toArray(new RpcRequest[0]);
+        this.ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            RpcRequest request = this.requests[i];
+            ids[i] = request.getId();
+            if(i == 0){
+                serializerTypeCode = request.getSerializerTypeCode();
+            } else if(serializerTypeCode != request.getSerializerTypeCode()){
+                serializerTypeCode = -1;
+            }
+        }
+        this.id = size > 0 ? ids[0] : 0L;
+    }
+
+    /**
+     * 批量请求中请求的数量
+     * @return
+     */
+    public int size(){
+        return requests == null ? 0 : requests.length;
+    }
+
+    /**
+     * 按照下标获取请求，同时设置请求ID和序列化器
+     * @param index
+     * @return
+     */
+    public RpcRequest getRequest(int index){
+        RpcRequest request = requests[index];
+        request.setId(ids[index]);
+        request.setSerializerTypeCode(serializerTypeCode);
+        return request;
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return MessageType.RPC_BATCH_REQUEST;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    @Override
+    public byte getSerializerTypeCode() {
+        return serializerTypeCode;
+    }
+
+    @Override
+    public void setSerializerTypeCode(byte serializerTypeCode) {
+        this.serializerTypeCode = serializerTypeCode;
+    }
+
+    public RpcRequest[] getRequests() {
+        return requests;
+    }
+
+    public void setRequests(RpcRequest[] requests) {
+        this.requests = requests;
+    }
+
+    public long[] getIds() {
+        return ids;
+    }
+
+    public void setIds(long[] ids) {
+        this.ids = ids;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcBatchRequest{" +
+                "id=" + id +
+                ", ids=" + Arrays.toString(ids) +
+                '}';
+    }
+}
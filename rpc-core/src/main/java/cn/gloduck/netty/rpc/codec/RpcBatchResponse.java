@@ -0,0 +1,102 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.enums.MessageType;
+
+import java.util.Arrays;
+
+/**
+ * 批量响应，和{@link RpcBatchRequest}对应，一个帧中携带批量请求中所有需要返回的响应
+ * @author Gloduck
+ */
+public final class RpcBatchResponse implements RpcMessage {
+    private transient long id;
+    private transient byte serializerTypeCode = -1;
+    private RpcResponse[] responses;
+    /**
+     * 下标和responses对应的请求ID
+     */
+    private long[] ids;
+
+    public RpcBatchResponse() {
+    }
+
+    /**
+     * 创建批量响应，ID和序列化器和批量请求保持一致
+     * @param batch
+     * @param responses
+     */
+    public RpcBatchResponse(RpcBatchRequest batch, RpcResponse[] responses) {
+        this.id = batch.getId();
+        this.serializerTypeCode = batch.getSerializerTypeCode();
+        this.responses = responses;
+        this.ids = new long[responses.length];
+        for (int i = 0; i < responses.length; i++) {
+            ids[i] = responses[i].getId();
+        }
+    }
+
+    public int size(){
+        return responses == null ? 0 : responses.length;
+    }
+
+    /**
+     * 按照下标获取响应，同时设置响应对应的请求ID
+     * @param index
+     * @return
+     */
+    public RpcResponse getResponse(int index){
+        RpcResponse response = responses[index];
+        response.setId(ids[index]);
+        response.setSerializerTypeCode(serializerTypeCode);
+        return response;
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return MessageType.RPC_BATCH_RESPONSE;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    @Override
+    public byte getSerializerTypeCode() {
+        return serializerTypeCode;
+    }
+
+    @Override
+    public void setSerializerTypeCode(byte serializerTypeCode) {
+        this.serializerTypeCode = serializerTypeCode;
+    }
+
+    public RpcResponse[] getResponses() {
+        return responses;
+    }
+
+    public void setResponses(RpcResponse[] responses) {
+        this.responses = responses;
+    }
+
+    public long[] getIds() {
+        return ids;
+    }
+
+    public void setIds(long[] ids) {
+        this.ids = ids;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcBatchResponse{" +
+                "id=" + id +
+                ", ids=" + Arrays.toString(ids) +
+                '}';
+    }
+}
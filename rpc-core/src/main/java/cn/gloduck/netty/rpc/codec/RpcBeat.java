@@ -7,6 +7,7 @@ import cn.gloduck.netty.rpc.enums.MessageType;
  * @author Gloduck
  */
 public final class RpcBeat implements RpcMessage {
+    private static final long serialVersionUID = -4964457732585028L;
     private RpcBeat(){}
     private static final RpcBeat instance = new RpcBeat();
     public static RpcBeat instance(){
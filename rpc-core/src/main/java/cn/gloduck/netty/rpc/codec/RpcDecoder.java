@@ -1,20 +1,35 @@
 package cn.gloduck.netty.rpc.codec;
 
 import cn.gloduck.netty.rpc.constant.RpcConstant;
+import cn.gloduck.netty.rpc.enums.CompressionType;
 import cn.gloduck.netty.rpc.enums.MessageType;
 import cn.gloduck.netty.rpc.exception.SerializationException;
+import cn.gloduck.netty.rpc.metrics.RpcMetrics;
 import cn.gloduck.netty.rpc.serializer.RpcSerializer;
+import cn.gloduck.netty.rpc.serializer.SerializerRegistry;
+import cn.gloduck.netty.rpc.utils.VarIntUtil;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.Attribute;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
+import java.nio.channels.ClosedChannelException;
 import java.util.List;
 
 /**
- * 解码器
+ * 解码器，同时负责拆包和解析消息头。
+ * 消息头直接在累积缓冲区上读取，消息体以切片的形式交给序列化器，不会为每条消息分配byte[]。
+ * 同时支持v1和v2协议，并把对端使用的协议版本记录在连接上，具体格式见{@link RpcProtocol}。
+ * v2的分片按照请求ID组装，分片以切片的形式保存，不复制数据，正在组装的总大小有上限。
+ * v2的心跳控制帧不经过序列化器，{@link RpcBeat}使用单例，不分配对象。
+ * v2消息的附件以入站数据切片的形式放回参数或者返回值，见{@link RpcAttachments}。
+ * 返回值为文件的响应解码后按请求ID记录，之后的{@link MessageType#RPC_STREAM}数据帧以切片的形式放入对应的{@link ReceivedFile}
  * @author Gloduck
  */
 public class RpcDecoder extends ByteToMessageDecoder {
@@ -22,50 +37,347 @@ public class RpcDecoder extends ByteToMessageDecoder {
      * 基本大小，必须大于这个大小才接收。大小为：魔数 + 序列化类型 + 消息类型 + 长度（int 4个字节）
      */
     private static final int BASE_SIZE = RpcConstant.MAGIC_NUMBER.length + 1 + 1 + 4;
+    private static final int SERIALIZER_OFFSET = RpcConstant.MAGIC_NUMBER.length;
+    private static final int MESSAGE_TYPE_OFFSET = SERIALIZER_OFFSET + 1;
+    private static final int LENGTH_OFFSET = MESSAGE_TYPE_OFFSET + 1;
+    /**
+     * v2协议各字段的偏移
+     */
+    private static final int V2_SERIALIZER_OFFSET = RpcConstant.MAGIC_NUMBER.length + 1;
+    private static final int V2_MESSAGE_TYPE_OFFSET = V2_SERIALIZER_OFFSET + 1;
+    private static final int V2_FLAGS_OFFSET = V2_MESSAGE_TYPE_OFFSET + 1;
     private static final Logger logger = LoggerFactory.getLogger(RpcDecoder.class);
-    private final RpcSerializer serializer;
+    /**
+     * 按照消息头中的编号选择序列化器
+     */
+    private final SerializerRegistry serializers;
+    /**
+     * 正在组装的分片，key为请求ID
+     */
+    private final LongObjectMap<CompositeByteBuf> fragments;
+    /**
+     * 正在组装的分片的总大小
+     */
+    private int reassemblySize;
+    private final int maxReassemblySize;
+    /**
+     * 正在接收的文件，key为请求ID
+     */
+    private final LongObjectMap<ReceivedFile> files;
 
     public RpcDecoder( RpcSerializer serializer) {
-        this.serializer = serializer;
+        this(serializer, RpcConstant.MAX_REASSEMBLY_SIZE);
+    }
+
+    public RpcDecoder(RpcSerializer serializer, int maxReassemblySize) {
+        this(new SerializerRegistry(serializer), maxReassemblySize);
+    }
+
+    public RpcDecoder(SerializerRegistry serializers, int maxReassemblySize) {
+        this.serializers = serializers;
+        this.maxReassemblySize = maxReassemblySize;
+        this.fragments = new LongObjectHashMap<>();
+        this.files = new LongObjectHashMap<>();
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        byte[] magic = new byte[RpcConstant.MAGIC_NUMBER.length];
+        // v1的消息头是两个版本中最短的，不足时直接等待
+        if(in.readableBytes() < BASE_SIZE){
+            return;
+        }
+        int start = in.readerIndex();
         // 读取魔数
-        in.readBytes(magic);
-        if(!Arrays.equals(magic, RpcConstant.MAGIC_NUMBER)){
+        if(in.getLong(start) != RpcConstant.MAGIC){
             final String msg = "错误的魔数";
             logger.error(msg);
             throw new SerializationException(msg);
         }
+        if(in.getByte(start + RpcConstant.MAGIC_NUMBER.length) == RpcProtocol.V2_MARKER){
+            decodeV2(ctx, in, out);
+        } else {
+            decodeV1(ctx, in, out);
+        }
+    }
+
+    private void decodeV1(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        int start = in.readerIndex();
+        // 读取消息长度
+        int length = in.getInt(start + LENGTH_OFFSET);
+        if(length <= 0){
+            final String msg = "错误的消息长度";
+            logger.error(msg);
+            throw new SerializationException(msg);
+        }
+        if(length > RpcConstant.MAX_FRAME_LENGTH - BASE_SIZE){
+            throw new TooLongFrameException("消息长度超过限制 : " + length);
+        }
+        if(in.readableBytes() < BASE_SIZE + length){
+            // 消息还没有接收完整
+            return;
+        }
+        // 先跳过整个帧，即使后续解码失败也不会影响下一条消息
+        in.readerIndex(start + BASE_SIZE + length);
+        updateVersion(ctx, RpcProtocol.VERSION_1);
+        RpcMessage message = decodeBody(in.getByte(start + SERIALIZER_OFFSET), in.getByte(start + MESSAGE_TYPE_OFFSET), in.slice(start + BASE_SIZE, length));
+        if(message instanceof RpcResponse){
+            // v1协议的请求号在消息体中，转换为数字ID
+            RpcResponse response = (RpcResponse) message;
+            try {
+                response.setId(Long.parseLong(response.getRequestId()));
+            } catch (NumberFormatException ignore){
+            }
+        }
+        out.add(message);
+    }
+
+    private void decodeV2(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        int start = in.readerIndex();
+        int idIndex = start + RpcProtocol.V2_FIXED_HEADER_SIZE;
+        int idSize = VarIntUtil.varLength(in, idIndex, 10);
+        if(idSize < 0){
+            return;
+        }
+        int lengthIndex = idIndex + idSize;
+        int lengthSize = VarIntUtil.varLength(in, lengthIndex, 5);
+        if(lengthSize < 0){
+            return;
+        }
+        int headerSize = lengthIndex + lengthSize - start;
+        int length = VarIntUtil.getVarInt(in, lengthIndex);
+        if(length < 0 || length > RpcConstant.MAX_FRAME_LENGTH - headerSize){
+            throw new TooLongFrameException("消息长度超过限制 : " + length);
+        }
+        if(in.readableBytes() < headerSize + length){
+            // 消息还没有接收完整
+            return;
+        }
+        in.readerIndex(start + headerSize + length);
+        updateVersion(ctx, RpcProtocol.VERSION_2);
+        byte flags = in.getByte(start + V2_FLAGS_OFFSET);
+        long id = VarIntUtil.getVarLong(in, idIndex);
+        byte serializerTypeCode = in.getByte(start + V2_SERIALIZER_OFFSET);
+        byte messageTypeCode = in.getByte(start + V2_MESSAGE_TYPE_OFFSET);
+        RpcMessage message;
+        if((flags & RpcProtocol.FLAG_HEARTBEAT) != 0){
+            out.add(decodeControl(messageTypeCode, id));
+            return;
+        }
+        if(messageTypeCode == MessageType.RPC_STREAM.getTypeCode()){
+            receiveFile(id, flags, in, start + headerSize, length);
+            return;
+        }
+        if((flags & RpcProtocol.FLAG_FRAGMENT) != 0){
+            ByteBuf body = reassemble(ctx, id, flags, in, start + headerSize, length);
+            if(body == null){
+                // 分片还没有接收完整
+                return;
+            }
+            try {
+                message = decodeV2Body(ctx, flags, serializerTypeCode, messageTypeCode, body);
+            } finally {
+                body.release();
+            }
+        } else {
+            message = decodeV2Body(ctx, flags, serializerTypeCode, messageTypeCode, in.slice(start + headerSize, length));
+        }
+        message.setId(id);
+        if((flags & RpcProtocol.FLAG_ONEWAY) != 0 && message instanceof RpcRequest){
+            ((RpcRequest) message).setOneway(true);
+        } else if(message instanceof RpcResponse && ((RpcResponse) message).getData() instanceof ReceivedFile){
+            ReceivedFile file = (ReceivedFile) ((RpcResponse) message).getData();
+            file.bind(ctx.channel());
+            if(!file.isDone()){
+                files.put(id, file);
+            }
+        }
+        out.add(message);
+    }
+
+    /**
+     * 把文件的数据帧放入正在接收的文件
+     * @param id
+     * @param flags
+     * @param in
+     * @param index 数据的开始位置
+     * @param length
+     */
+    private void receiveFile(long id, byte flags, ByteBuf in, int index, int length){
+        ReceivedFile file = files.get(id);
+        if(file == null){
+            logger.debug("收到未知文件的数据帧，请求ID : {}", id);
+            return;
+        }
+        boolean last = (flags & RpcProtocol.FLAG_LAST_FRAGMENT) != 0;
+        file.receive(in.retainedSlice(index, length), last);
+        if(last || file.isDone()){
+            files.remove(id);
+        }
+    }
+
+    /**
+     * 解码v2的控制帧
+     * @param messageTypeCode
+     * @param id 心跳的时间戳
+     * @return
+     * @throws SerializationException
+     */
+    private static RpcMessage decodeControl(byte messageTypeCode, long id) throws SerializationException {
+        if(messageTypeCode == MessageType.RPC_BEAT.getTypeCode()){
+            return RpcBeat.instance();
+        } else if(messageTypeCode == MessageType.RPC_PING.getTypeCode()){
+            return RpcPing.ping(id);
+        } else if(messageTypeCode == MessageType.RPC_PONG.getTypeCode()){
+            return RpcPing.pong(id);
+        }
+        final String msg = "错误的控制帧类型 : " + messageTypeCode;
+        logger.error(msg);
+        throw new SerializationException(msg);
+    }
+
+    private RpcMessage decodeV2Body(ChannelHandlerContext ctx, byte flags, byte serializerTypeCode, byte messageTypeCode, ByteBuf body) throws Exception {
+        if((flags & RpcProtocol.FLAG_COMPRESSED) == 0){
+            return decodeV2Payload(flags, serializerTypeCode, messageTypeCode, body);
+        }
+        ByteBuf decompressed = decompress(ctx, body);
+        try {
+            return decodeV2Payload(flags, serializerTypeCode, messageTypeCode, decompressed);
+        } finally {
+            decompressed.release();
+        }
+    }
+
+    private RpcMessage decodeV2Payload(byte flags, byte serializerTypeCode, byte messageTypeCode, ByteBuf body) throws Exception {
+        if((flags & RpcProtocol.FLAG_ATTACHMENT) == 0){
+            return decodeV2Message(flags, serializerTypeCode, messageTypeCode, body);
+        }
+        // 附件表之后是序列化的消息，最后是附件数据
+        RpcAttachments attachments = RpcAttachments.readTable(body);
+        int messageStart = body.readerIndex();
+        int attachmentStart = body.writerIndex() - attachments.length();
+        RpcMessage message = decodeV2Message(flags, serializerTypeCode, messageTypeCode, body.slice(messageStart, attachmentStart - messageStart));
+        attachments.attach(message, body, attachmentStart);
+        return message;
+    }
+
+    private RpcMessage decodeV2Message(byte flags, byte serializerTypeCode, byte messageTypeCode, ByteBuf body) throws Exception {
+        if((flags & RpcProtocol.FLAG_COMPACT) == 0){
+            return decodeBody(serializerTypeCode, messageTypeCode, body);
+        }
+        RpcMessage message = CompactCodec.decode(messageTypeCode, body);
+        // 其他响应仍然使用消息头中的序列化器
+        message.setSerializerTypeCode(serializerTypeCode);
+        return message;
+    }
+
+    /**
+     * 保存一个分片
+     * @param ctx
+     * @param id
+     * @param flags
+     * @param in
+     * @param index 分片数据的开始位置
+     * @param length
+     * @return 收到最后一个分片时返回组装好的消息体，由调用者释放；否则返回null
+     * @throws TooLongFrameException 正在组装的分片超过限制
+     */
+    private ByteBuf reassemble(ChannelHandlerContext ctx, long id, byte flags, ByteBuf in, int index, int length) throws TooLongFrameException {
+        if(reassemblySize + length > maxReassemblySize){
+            releaseFragments();
+            throw new TooLongFrameException("正在组装的分片超过限制 : " + maxReassemblySize);
+        }
+        CompositeByteBuf composite = fragments.get(id);
+        if(composite == null){
+            // 不限制组件数量，避免合并组件时复制数据
+            composite = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+            fragments.put(id, composite);
+        }
+        composite.addComponent(true, in.retainedSlice(index, length));
+        reassemblySize += length;
+        if((flags & RpcProtocol.FLAG_LAST_FRAGMENT) == 0){
+            return null;
+        }
+        fragments.remove(id);
+        reassemblySize -= composite.readableBytes();
+        return composite;
+    }
+
+    private void releaseFragments(){
+        for (CompositeByteBuf composite : fragments.values()) {
+            composite.release();
+        }
+        fragments.clear();
+        reassemblySize = 0;
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        releaseFragments();
+        for (ReceivedFile file : files.values()) {
+            file.fail(new ClosedChannelException());
+        }
+        files.clear();
+    }
+
+    /**
+     * 按照连接协商的压缩方式解压消息体
+     * @param ctx
+     * @param body
+     * @return 解压后的数据，由调用者释放
+     * @throws SerializationException
+     */
+    private static ByteBuf decompress(ChannelHandlerContext ctx, ByteBuf body) throws SerializationException {
+        CompressionType compressionType = ctx.channel().attr(RpcProtocol.COMPRESSION).get();
+        if(compressionType == null || compressionType == CompressionType.NONE){
+            final String msg = "收到压缩的消息，但是连接没有协商压缩方式";
+            logger.error(msg);
+            throw new SerializationException(msg);
+        }
+        long begin = RpcMetrics.currentThreadCpuNanos();
+        ByteBuf decompressed = ctx.alloc().buffer();
+        try {
+            compressionType.decompress(body, decompressed);
+        } catch (RuntimeException e){
+            decompressed.release();
+            throw e;
+        }
+        RpcMetrics.instance().recordDecompress(RpcMetrics.currentThreadCpuNanos() - begin);
+        return decompressed;
+    }
+
+    private RpcMessage decodeBody(byte serializerTypeCode, byte messageTypeCode, ByteBuf body) throws Exception {
         // 读取序列化器
-        byte serializerTypeCode = in.readByte();
-        if(serializerTypeCode != serializer.serializerTypeCode()){
-            final String msg = "错误的序列化器类型，或序列化器不匹配";
+        RpcSerializer serializer = serializers.get(serializerTypeCode);
+        if(serializer == null){
+            final String msg = "不支持的序列化器类型 : " + serializerTypeCode;
             logger.error(msg);
             throw new SerializationException(msg);
         }
         // 读取消息类型
-        byte messageTypeCode = in.readByte();
         MessageType messageTypeByTypeCode = MessageType.getMessageTypeByTypeCode(messageTypeCode);
         if(messageTypeByTypeCode == null){
             final String msg = "错误的消息类型";
             logger.error(msg);
             throw new SerializationException(msg);
         }
-        // 读取消息长度
-        int length = in.readInt();
-        if(length <= 0){
-            final String msg = "错误的消息长度";
-            logger.error(msg);
-            throw new SerializationException(msg);
-        }
         Class<? extends RpcMessage> bindingClassType = messageTypeByTypeCode.getBindingClassType();
-        // 读取消息具体内容
-        byte[] data = new byte[length];
-        in.readBytes(data);
-        RpcMessage decode = serializer.decode(data, bindingClassType);
-        out.add(decode);
+        // 读取消息具体内容，直接在切片上解码
+        RpcMessage message = serializer.decode(body, bindingClassType);
+        // 响应使用和请求相同的序列化器
+        message.setSerializerTypeCode(serializerTypeCode);
+        return message;
+    }
+
+    /**
+     * 记录对端使用的协议版本，编码器按照该版本回写
+     * @param ctx
+     * @param version
+     */
+    private static void updateVersion(ChannelHandlerContext ctx, int version){
+        Attribute<Integer> attr = ctx.channel().attr(RpcProtocol.PROTOCOL_VERSION);
+        Integer current = attr.get();
+        if(current == null || current != version){
+            attr.set(version);
+        }
     }
 }
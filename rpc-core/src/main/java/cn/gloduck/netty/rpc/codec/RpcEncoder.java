@@ -1,10 +1,19 @@
 package cn.gloduck.netty.rpc.codec;
 
 import cn.gloduck.netty.rpc.constant.RpcConstant;
+import cn.gloduck.netty.rpc.enums.CompressionType;
+import cn.gloduck.netty.rpc.enums.MessageType;
+import cn.gloduck.netty.rpc.metrics.RpcMetrics;
 import cn.gloduck.netty.rpc.serializer.RpcSerializer;
+import cn.gloduck.netty.rpc.serializer.SerializerRegistry;
+import cn.gloduck.netty.rpc.utils.VarIntUtil;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,32 +22,314 @@ import java.util.Arrays;
 
 /**
  * 编码器
- * 协议格式：magic（协议魔数），序列化器，消息类型，数据长度，数据
+ * 协议格式见{@link RpcProtocol}。
+ * 数据由序列化器直接写入out（默认为池化的直接内存），写完后再回填消息头，避免中间byte[]的拷贝。
+ * v2连接协商了压缩方式时，超过阈值的消息体会被压缩，压缩后没有变小则按原样发送。
+ * v2的心跳只写消息头，{@link RpcBeat}直接写出预先编码好的共享帧，不分配内存。
+ * v2消息中ByteBuf、ByteBuffer和byte[]类型的参数和返回值作为附件和消息一起写出，不经过序列化器，见{@link RpcAttachments}；
+ * {@link RpcFile}类型的返回值在响应之后交给{@link RpcFragmentHandler}分帧写出
  * @author Gloduck
  */
 public class RpcEncoder extends MessageToByteEncoder<RpcMessage> {
     private final static Logger logger = LoggerFactory.getLogger(RpcEncoder.class);
-    private final RpcSerializer serializer;
+    /**
+     * 预先编码好的v2心跳帧，所有连接共享，不需要释放
+     */
+    private static final ByteBuf HEARTBEAT_FRAME = Unpooled.unreleasableBuffer(Unpooled.directBuffer(RpcProtocol.V2_HEARTBEAT_SIZE)
+            .writeLong(RpcConstant.MAGIC)
+            .writeByte(RpcProtocol.V2_MARKER)
+            .writeByte(0)
+            .writeByte(MessageType.RPC_BEAT.getTypeCode())
+            .writeByte(RpcProtocol.FLAG_HEARTBEAT)
+            .writeByte(0)
+            .writeByte(0)
+            .asReadOnly());
+    /**
+     * 消息指定了序列化器时使用对应的序列化器，否则使用默认的序列化器
+     */
+    private final SerializerRegistry serializers;
+    /**
+     * 对端还没有发送过消息时使用的协议版本
+     */
+    private final int defaultVersion;
+    /**
+     * 消息体超过该大小才压缩
+     */
+    private final int compressionThreshold;
 
     public RpcEncoder(RpcSerializer serializer) {
-        this.serializer = serializer;
+        this(serializer, RpcProtocol.VERSION_1);
+    }
+
+    public RpcEncoder(RpcSerializer serializer, int defaultVersion) {
+        this(serializer, defaultVersion, RpcConstant.DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    public RpcEncoder(RpcSerializer serializer, int defaultVersion, int compressionThreshold) {
+        this(new SerializerRegistry(serializer), defaultVersion, compressionThreshold);
+    }
+
+    public RpcEncoder(SerializerRegistry serializers, int defaultVersion, int compressionThreshold) {
+        this.serializers = serializers;
+        this.defaultVersion = defaultVersion;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if(msg instanceof RpcBeat && isVersion2(ctx)){
+            ctx.write(HEARTBEAT_FRAME.duplicate(), promise);
+            return;
+        }
+        if(msg instanceof RpcMessage && isVersion2(ctx)){
+            RpcAttachments attachments = RpcAttachments.of((RpcMessage) msg);
+            if(attachments != null){
+                writeWithAttachments(ctx, (RpcMessage) msg, attachments, promise);
+                return;
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    /**
+     * 写出带附件的消息，消息头和序列化的消息写在一起，附件作为组件追加在后面，不复制
+     * @param ctx
+     * @param msg
+     * @param attachments
+     * @param promise
+     */
+    private void writeWithAttachments(ChannelHandlerContext ctx, RpcMessage msg, RpcAttachments attachments, ChannelPromise promise) {
+        ByteBuf out = null;
+        try {
+            out = allocateBuffer(ctx, msg, true);
+            encodeV2(ctx, msg, out, attachments);
+        } catch (Throwable e) {
+            if(out != null){
+                out.release();
+            }
+            attachments.release();
+            throw e instanceof EncoderException ? (EncoderException) e : new EncoderException(e);
+        }
+        ByteBuf[] buffers = attachments.buffers();
+        CompositeByteBuf frame = ctx.alloc().compositeBuffer(buffers.length + 1);
+        frame.addComponent(true, out);
+        for (ByteBuf buffer : buffers) {
+            if(buffer != null){
+                frame.addComponent(true, buffer);
+            }
+        }
+        LocalFile file = attachments.file();
+        if(file == null || file.length() == 0){
+            if(file != null){
+                file.release();
+            }
+            ctx.write(frame, promise);
+            return;
+        }
+        ctx.write(frame);
+        // 文件发送完成后才算写出成功
+        ctx.write(new RpcFragmentHandler.FileStream(file, msg.getId()), promise);
+    }
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, RpcMessage msg, boolean preferDirect) throws Exception {
+        if(msg instanceof RpcPing && isVersion2(ctx)){
+            return ctx.alloc().ioBuffer(RpcProtocol.V2_MAX_HEADER_SIZE);
+        }
+        return super.allocateBuffer(ctx, msg, preferDirect);
     }
 
     @Override
     protected void encode(ChannelHandlerContext ctx, RpcMessage msg, ByteBuf out) throws Exception {
+        if(isVersion2(ctx)){
+            if(msg instanceof RpcPing){
+                encodeControl(msg, out);
+            } else {
+                encodeV2(ctx, msg, out, null);
+            }
+        } else {
+            encodeV1(msg, out);
+        }
+    }
+
+    private boolean isVersion2(ChannelHandlerContext ctx){
+        Integer version = ctx.channel().attr(RpcProtocol.PROTOCOL_VERSION).get();
+        return (version == null ? defaultVersion : version) == RpcProtocol.VERSION_2;
+    }
+
+    /**
+     * 编码v2的控制帧，只有消息头
+     * @param msg
+     * @param out
+     */
+    private static void encodeControl(RpcMessage msg, ByteBuf out){
+        out.writeLong(RpcConstant.MAGIC);
+        out.writeByte(RpcProtocol.V2_MARKER);
+        out.writeByte(0);
+        out.writeByte(msg.getMessageType().getTypeCode());
+        out.writeByte(RpcProtocol.FLAG_HEARTBEAT);
+        VarIntUtil.writeVarLong(out, msg.getId());
+        VarIntUtil.writeVarInt(out, 0);
+    }
+
+    private void encodeV1(RpcMessage msg, ByteBuf out) throws Exception {
+        if(msg instanceof RpcRequest){
+            RpcRequest request = (RpcRequest) msg;
+            if(request.getRequestId() == null){
+                // v1协议只能通过消息体传递请求号
+                request.setRequestId(Long.toString(request.getId()));
+            }
+        }
+        RpcSerializer serializer = serializers.getOrDefault(msg.getSerializerTypeCode());
         // 写文件魔数
-        out.writeBytes(RpcConstant.MAGIC_NUMBER);
+        out.writeLong(RpcConstant.MAGIC);
         // 写序列化器
         byte serializerTypeCode = serializer.serializerTypeCode();
         out.writeByte(serializerTypeCode);
         // 写消息类型
         byte messageTypeCode = msg.getMessageType().getTypeCode();
         out.writeByte(messageTypeCode);
-        // 编码数据
-        byte[] data = serializer.encode(msg);
-        // 写数据长度
-        out.writeInt(data.length);
-        // 写数据
-        out.writeBytes(data);
+        // 先占位数据长度，编码完成后回填
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        int mark = serializer.mark();
+        try {
+            // 编码数据
+            serializer.encode(msg, out);
+            // 回填数据长度
+            out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+        } catch (Throwable e) {
+            serializer.rollback(mark);
+            throw e;
+        }
+    }
+
+    /**
+     * 编码v2的消息
+     * @param ctx
+     * @param msg
+     * @param out
+     * @param attachments 消息的附件，附件的数据不写入out，但是计入消息头中的长度
+     * @throws Exception
+     */
+    private void encodeV2(ChannelHandlerContext ctx, RpcMessage msg, ByteBuf out, RpcAttachments attachments) throws Exception {
+        // 预留最大消息头的空间，数据编码完成后再把实际大小的消息头写在数据前面，并把读索引移到消息头开始处
+        int start = out.writerIndex();
+        int bodyStart = start + RpcProtocol.V2_MAX_HEADER_SIZE;
+        out.ensureWritable(RpcProtocol.V2_MAX_HEADER_SIZE);
+        out.writerIndex(bodyStart);
+        RpcSerializer serializer = serializers.getOrDefault(msg.getSerializerTypeCode());
+        // 帧没有编码完成时回滚序列化器在连接上记录的状态
+        int mark = serializer.mark();
+        try {
+            encodeV2(ctx, msg, out, attachments, serializer, bodyStart);
+        } catch (Throwable e) {
+            serializer.rollback(mark);
+            throw e;
+        }
+    }
+
+    private void encodeV2(ChannelHandlerContext ctx, RpcMessage msg, ByteBuf out, RpcAttachments attachments, RpcSerializer serializer, int bodyStart) throws Exception {
+        byte flags = flags(msg);
+        if(attachments != null){
+            attachments.writeTable(out);
+            attachments.strip(msg);
+            flags |= RpcProtocol.FLAG_ATTACHMENT;
+        }
+        try {
+            if(isCompact(ctx, msg)){
+                CompactCodec.encode(msg, out);
+                flags |= RpcProtocol.FLAG_COMPACT;
+            } else {
+                serializer.encode(msg, out);
+            }
+        } finally {
+            if(attachments != null){
+                attachments.restore(msg);
+            }
+        }
+        // 附件一般是已经压缩过的数据，带附件的消息不压缩
+        if(attachments == null && out.writerIndex() - bodyStart > compressionThreshold && compress(ctx, out, bodyStart)){
+            flags |= RpcProtocol.FLAG_COMPRESSED;
+        }
+        int end = out.writerIndex();
+        int length = end - bodyStart + (attachments == null ? 0 : attachments.length());
+        long id = msg.getId();
+        int headerStart = bodyStart - RpcProtocol.V2_FIXED_HEADER_SIZE - VarIntUtil.varLongSize(id) - VarIntUtil.varIntSize(length);
+        out.writerIndex(headerStart);
+        out.writeLong(RpcConstant.MAGIC);
+        out.writeByte(RpcProtocol.V2_MARKER);
+        out.writeByte(serializer.serializerTypeCode());
+        out.writeByte(msg.getMessageType().getTypeCode());
+        out.writeByte(flags);
+        VarIntUtil.writeVarLong(out, id);
+        VarIntUtil.writeVarInt(out, length);
+        out.writerIndex(end);
+        out.readerIndex(headerStart);
+    }
+
+    /**
+     * 消息能否使用紧凑编码：请求需要服务端在握手时声明支持，响应需要请求使用了紧凑编码并且返回值可以编码
+     * @param ctx
+     * @param msg
+     * @return
+     */
+    private static boolean isCompact(ChannelHandlerContext ctx, RpcMessage msg){
+        if(msg instanceof RpcRequest){
+            return ((RpcRequest) msg).isCompact() && Boolean.TRUE.equals(ctx.channel().attr(RpcProtocol.COMPACT).get());
+        } else if(msg instanceof RpcResponse){
+            RpcResponse response = (RpcResponse) msg;
+            return response.isCompact() && CompactCodec.supports(response.getData());
+        }
+        return false;
+    }
+
+    /**
+     * 按照连接协商的压缩方式压缩out中从bodyStart开始的消息体，压缩结果覆盖原来的数据
+     * @param ctx
+     * @param out
+     * @param bodyStart
+     * @return 是否压缩
+     */
+    private static boolean compress(ChannelHandlerContext ctx, ByteBuf out, int bodyStart){
+        CompressionType compressionType = ctx.channel().attr(RpcProtocol.COMPRESSION).get();
+        if(compressionType == null || compressionType == CompressionType.NONE){
+            return false;
+        }
+        int length = out.writerIndex() - bodyStart;
+        long begin = RpcMetrics.currentThreadCpuNanos();
+        ByteBuf compressed = ctx.alloc().buffer(length);
+        try {
+            compressionType.compress(out.slice(bodyStart, length), compressed);
+            int compressedLength = compressed.readableBytes();
+            boolean smaller = compressedLength < length;
+            if(smaller){
+                out.setBytes(bodyStart, compressed, compressed.readerIndex(), compressedLength);
+                out.writerIndex(bodyStart + compressedLength);
+            }
+            RpcMetrics.instance().recordCompress(length, smaller ? compressedLength : length, RpcMetrics.currentThreadCpuNanos() - begin);
+            return smaller;
+        } finally {
+            compressed.release();
+        }
+    }
+
+    /**
+     * 计算消息头的标志位
+     * @param msg
+     * @return
+     */
+    private static byte flags(RpcMessage msg){
+        byte flags = 0;
+        if(msg instanceof RpcRequest){
+            if(((RpcRequest) msg).isOneway()){
+                flags |= RpcProtocol.FLAG_ONEWAY;
+            }
+        } else if(msg instanceof RpcResponse){
+            if(!((RpcResponse) msg).success()){
+                flags |= RpcProtocol.FLAG_ERROR;
+            }
+        }
+        return flags;
     }
 }
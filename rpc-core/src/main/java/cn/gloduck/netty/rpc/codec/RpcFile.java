@@ -0,0 +1,102 @@
+package cn.gloduck.netty.rpc.codec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 作为服务方法返回值的文件，用于返回大文件，只在v2协议中使用。
+ * <p>
+ * 服务端通过{@link #of(Path)}等方法返回文件或者文件的一部分，文件在方法中打开，打开失败时调用失败。
+ * 响应中只带有文件的长度，之后文件的数据按照{@link cn.gloduck.netty.rpc.constant.RpcConstant#STREAM_CHUNK_SIZE}分帧，
+ * 以{@link io.netty.channel.DefaultFileRegion}写出（Linux上为sendfile，数据不经过用户空间），和其他消息交替发送。
+ * 文件发送完成或者失败后由框架关闭。
+ * <p>
+ * 客户端收到响应时文件的数据还在传输中，通过{@link #inputStream()}、{@link #channel()}读取，或者通过{@link #transferTo(Path)}直接写入文件。
+ * 数据只能读取一次，读取完成或者不再需要时调用{@link #close()}，没有读取的数据超过上限时连接暂停读取，直到数据被读取。
+ * 连接断开时读取抛出异常。
+ * @author Gloduck
+ */
+public abstract class RpcFile implements Closeable {
+
+    /**
+     * 整个文件
+     * @param path
+     * @return
+     * @throws IOException 打开文件失败
+     */
+    public static RpcFile of(Path path) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new LocalFile(file, 0, file.size());
+        } catch (RuntimeException e){
+            file.close();
+            throw e;
+        }
+    }
+
+    public static RpcFile of(File file) throws IOException {
+        return of(file.toPath());
+    }
+
+    /**
+     * 文件的一部分
+     * @param path
+     * @param position 开始位置
+     * @param count 长度
+     * @return
+     * @throws IOException 打开文件失败，或者范围超出文件大小
+     */
+    public static RpcFile of(Path path, long position, long count) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if(position < 0 || count < 0 || position + count > file.size()){
+                throw new IOException(String.format("超出文件大小的范围 : %d + %d > %d", position, count, file.size()));
+            }
+            return new LocalFile(file, position, count);
+        } catch (IOException | RuntimeException e){
+            file.close();
+            throw e;
+        }
+    }
+
+    RpcFile(){}
+
+    /**
+     * 文件的长度
+     * @return
+     */
+    public abstract long length();
+
+    /**
+     * 读取文件的数据，只能读取一次，关闭channel时关闭文件
+     * @return
+     */
+    public abstract ReadableByteChannel channel();
+
+    /**
+     * 读取文件的数据，只能读取一次，关闭流时关闭文件
+     * @return
+     */
+    public InputStream inputStream(){
+        return Channels.newInputStream(channel());
+    }
+
+    /**
+     * 把文件的数据写入目标文件，目标文件已经存在时覆盖，完成后关闭
+     * @param target
+     * @return 写入的字节数
+     * @throws IOException
+     */
+    public abstract long transferTo(Path target) throws IOException;
+
+    static FileChannel openTarget(Path target) throws IOException {
+        return FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
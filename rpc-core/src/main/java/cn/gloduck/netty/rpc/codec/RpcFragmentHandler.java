@@ -0,0 +1,349 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.constant.RpcConstant;
+import cn.gloduck.netty.rpc.enums.MessageType;
+import cn.gloduck.netty.rpc.enums.Serializers;
+import cn.gloduck.netty.rpc.utils.VarIntUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+
+/**
+ * 分片处理器，放在{@link RpcEncoder}之前（靠近head），处理编码后的v2帧。
+ * 消息体超过分片大小的帧会被拆成多个分片，分片沿用原来的消息头，只是加上{@link RpcProtocol#FLAG_FRAGMENT}标志，
+ * 最后一个分片再加上{@link RpcProtocol#FLAG_LAST_FRAGMENT}，由{@link RpcDecoder}按请求ID重新组装。
+ * <p>
+ * 小消息直接写出，大消息排队后每轮每个消息只写一个分片，每轮结束后让出事件循环，
+ * 所以多个大消息之间交替发送，小消息也不会被排在整个大消息后面。连接不可写时暂停，可写后继续。
+ * <p>
+ * 使用{@link Serializers#FAST_JDK}的帧依赖连接上之前的帧中定义的类描述编号，这些帧之间不能改变顺序：
+ * 前面还有没写完的这类帧时，后面的这类帧不论大小都排在它后面，依次写出。
+ * <p>
+ * 作为返回值的文件（{@link FileStream}）也在这里排队，每轮写出一个{@link MessageType#RPC_STREAM}数据帧，
+ * 数据帧的消息体是{@link io.netty.channel.DefaultFileRegion}，由传输层直接从文件发送。
+ * @author Gloduck
+ */
+public class RpcFragmentHandler extends ChannelDuplexHandler {
+    private static final Logger logger = LoggerFactory.getLogger(RpcFragmentHandler.class);
+    /**
+     * 分片的消息体大小
+     */
+    private final int fragmentSize;
+    /**
+     * 等待分片发送的消息和文件
+     */
+    private final ArrayDeque<Pending> pending;
+    /**
+     * 正在分片发送的有状态的帧，为null时有状态的小消息可以直接写出
+     */
+    private PendingMessage statefulHead;
+    /**
+     * 排在{@link #statefulHead}后面的有状态的帧，按照写入的顺序发送
+     */
+    private final ArrayDeque<PendingMessage> statefulWaiting;
+    private boolean drainScheduled;
+
+    public RpcFragmentHandler() {
+        this(RpcConstant.FRAGMENT_SIZE);
+    }
+
+    public RpcFragmentHandler(int fragmentSize) {
+        if(fragmentSize <= 0 || fragmentSize > RpcConstant.MAX_FRAME_LENGTH - RpcProtocol.V2_MAX_HEADER_SIZE){
+            throw new IllegalArgumentException("错误的分片大小 : " + fragmentSize);
+        }
+        this.fragmentSize = fragmentSize;
+        this.pending = new ArrayDeque<>();
+        this.statefulWaiting = new ArrayDeque<>();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if(msg instanceof FileStream){
+            pending.add(new PendingFile((FileStream) msg, promise));
+            scheduleDrain(ctx);
+            return;
+        }
+        if(!(msg instanceof ByteBuf)){
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf frame = (ByteBuf) msg;
+        int start = frame.readerIndex();
+        if(frame.getByte(start + RpcConstant.MAGIC_NUMBER.length) != RpcProtocol.V2_MARKER){
+            // v1的消息直接写出
+            ctx.write(msg, promise);
+            return;
+        }
+        boolean stateful = statefulHead != null && isStateful(frame);
+        if(!stateful && frame.readableBytes() <= RpcProtocol.V2_FIXED_HEADER_SIZE + fragmentSize){
+            // 小消息直接写出
+            ctx.write(msg, promise);
+            return;
+        }
+        int idIndex = start + RpcProtocol.V2_FIXED_HEADER_SIZE;
+        int lengthIndex = idIndex + VarIntUtil.varLength(frame, idIndex, 10);
+        int bodyIndex = lengthIndex + VarIntUtil.varLength(frame, lengthIndex, 5);
+        if(stateful){
+            statefulWaiting.add(new PendingMessage(frame, bodyIndex, VarIntUtil.getVarLong(frame, idIndex), promise));
+            return;
+        }
+        if(frame.writerIndex() - bodyIndex <= fragmentSize){
+            ctx.write(msg, promise);
+            return;
+        }
+        PendingMessage message = new PendingMessage(frame, bodyIndex, VarIntUtil.getVarLong(frame, idIndex), promise);
+        if(isStateful(frame)){
+            statefulHead = message;
+        }
+        pending.add(message);
+        scheduleDrain(ctx);
+    }
+
+    private static boolean isStateful(ByteBuf frame){
+        return frame.getByte(frame.readerIndex() + RpcConstant.MAGIC_NUMBER.length + 1) == Serializers.FAST_JDK.getTypeCode();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if(ctx.channel().isWritable() && !pending.isEmpty()){
+            scheduleDrain(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        failPending(new ClosedChannelException());
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        failPending(new ClosedChannelException());
+    }
+
+    private void scheduleDrain(ChannelHandlerContext ctx){
+        if(drainScheduled){
+            return;
+        }
+        drainScheduled = true;
+        // 放到事件循环的任务队列中执行，期间其他的写操作可以先执行
+        ctx.executor().execute(() -> drain(ctx));
+    }
+
+    /**
+     * 每个消息写出一个分片
+     * @param ctx
+     */
+    private void drain(ChannelHandlerContext ctx){
+        drainScheduled = false;
+        int rounds = pending.size();
+        for (int i = 0; i < rounds && ctx.channel().isWritable(); i++) {
+            Pending message = pending.poll();
+            if(!message.writeNext(ctx)){
+                pending.add(message);
+            } else if(message == statefulHead){
+                nextStateful(ctx);
+            }
+        }
+        ctx.flush();
+        if(!pending.isEmpty() && ctx.channel().isWritable()){
+            scheduleDrain(ctx);
+        }
+    }
+
+    /**
+     * 有状态的帧写完后，依次写出排在后面的小消息，直到遇到下一个需要分片的帧
+     * @param ctx
+     */
+    private void nextStateful(ChannelHandlerContext ctx){
+        statefulHead = null;
+        PendingMessage message;
+        while ((message = statefulWaiting.poll()) != null){
+            if(!message.isFragmented()){
+                message.writeWhole(ctx);
+                continue;
+            }
+            statefulHead = message;
+            pending.add(message);
+            return;
+        }
+    }
+
+    private void failPending(Throwable cause){
+        statefulHead = null;
+        Pending message;
+        while ((message = pending.poll()) != null){
+            message.fail(cause);
+        }
+        while ((message = statefulWaiting.poll()) != null){
+            message.fail(cause);
+        }
+    }
+
+    /**
+     * 作为返回值的文件，由{@link RpcEncoder}在响应之后写出
+     */
+    static final class FileStream {
+        private final LocalFile file;
+        /**
+         * 所属调用的请求ID
+         */
+        private final long id;
+
+        FileStream(LocalFile file, long id) {
+            this.file = file;
+            this.id = id;
+        }
+    }
+
+    private interface Pending {
+        /**
+         * 写出下一个分片
+         * @param ctx
+         * @return 是否是最后一个分片
+         */
+        boolean writeNext(ChannelHandlerContext ctx);
+
+        void fail(Throwable cause);
+    }
+
+    private final class PendingMessage implements Pending {
+        private final ByteBuf frame;
+        private final long id;
+        private final ChannelPromise promise;
+        /**
+         * 下一个分片在frame中的开始位置
+         */
+        private int offset;
+
+        PendingMessage(ByteBuf frame, int bodyIndex, long id, ChannelPromise promise) {
+            this.frame = frame;
+            this.offset = bodyIndex;
+            this.id = id;
+            this.promise = promise;
+        }
+
+        /**
+         * @return 消息体是否需要分片
+         */
+        boolean isFragmented(){
+            return frame.writerIndex() - offset > fragmentSize;
+        }
+
+        /**
+         * 不分片，原样写出整个帧
+         * @param ctx
+         */
+        void writeWhole(ChannelHandlerContext ctx){
+            ctx.write(frame, promise);
+        }
+
+        @Override
+        public boolean writeNext(ChannelHandlerContext ctx){
+            int start = frame.readerIndex();
+            int remaining = frame.writerIndex() - offset;
+            int length = Math.min(fragmentSize, remaining);
+            boolean last = length == remaining;
+            byte flags = (byte) (frame.getByte(start + RpcProtocol.V2_FIXED_HEADER_SIZE - 1) | RpcProtocol.FLAG_FRAGMENT);
+            if(last){
+                flags |= RpcProtocol.FLAG_LAST_FRAGMENT;
+            }
+            ByteBuf header = ctx.alloc().buffer(RpcProtocol.V2_MAX_HEADER_SIZE);
+            // 魔数、版本标记、序列化器、消息类型和原消息相同
+            header.writeBytes(frame, start, RpcProtocol.V2_FIXED_HEADER_SIZE - 1);
+            header.writeByte(flags);
+            VarIntUtil.writeVarLong(header, id);
+            VarIntUtil.writeVarInt(header, length);
+            ByteBuf fragment = ctx.alloc().compositeBuffer(2)
+                    .addComponents(true, header, frame.retainedSlice(offset, length));
+            offset += length;
+            ChannelPromise fragmentPromise = ctx.newPromise();
+            fragmentPromise.addListener(future -> {
+                if(!future.isSuccess()){
+                    promise.tryFailure(future.cause());
+                } else if(last){
+                    promise.trySuccess();
+                }
+            });
+            if(last){
+                frame.release();
+            }
+            ctx.write(fragment, fragmentPromise);
+            return last;
+        }
+
+        @Override
+        public void fail(Throwable cause){
+            frame.release();
+            if(!promise.tryFailure(cause)){
+                logger.debug("分片消息已经完成，忽略异常", cause);
+            }
+        }
+    }
+
+    private static final class PendingFile implements Pending {
+        private final LocalFile file;
+        private final long id;
+        private final ChannelPromise promise;
+        /**
+         * 下一帧在文件中的偏移
+         */
+        private long offset;
+
+        PendingFile(FileStream stream, ChannelPromise promise) {
+            this.file = stream.file;
+            this.id = stream.id;
+            this.promise = promise;
+        }
+
+        @Override
+        public boolean writeNext(ChannelHandlerContext ctx){
+            if(promise.isDone()){
+                // 之前的数据帧写出失败
+                file.release();
+                return true;
+            }
+            int length = (int) Math.min(RpcConstant.STREAM_CHUNK_SIZE, file.length() - offset);
+            boolean last = offset + length == file.length();
+            ByteBuf header = ctx.alloc().buffer(RpcProtocol.V2_MAX_HEADER_SIZE);
+            header.writeLong(RpcConstant.MAGIC);
+            header.writeByte(RpcProtocol.V2_MARKER);
+            header.writeByte(0);
+            header.writeByte(MessageType.RPC_STREAM.getTypeCode());
+            header.writeByte(last ? RpcProtocol.FLAG_LAST_FRAGMENT : 0);
+            VarIntUtil.writeVarLong(header, id);
+            VarIntUtil.writeVarInt(header, length);
+            ctx.write(header);
+            ChannelPromise regionPromise = ctx.newPromise();
+            regionPromise.addListener(future -> {
+                if(!future.isSuccess()){
+                    promise.tryFailure(future.cause());
+                    if(last){
+                        file.release();
+                    }
+                } else if(last){
+                    file.release();
+                    promise.trySuccess();
+                }
+            });
+            ctx.write(file.region(offset, length), regionPromise);
+            offset += length;
+            return last;
+        }
+
+        @Override
+        public void fail(Throwable cause){
+            file.release();
+            if(!promise.tryFailure(cause)){
+                logger.debug("文件已经发送完成，忽略异常", cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.enums.MessageType;
+
+import java.util.Arrays;
+
+/**
+ * 握手消息，v2连接建立后由客户端发起（内容为空），服务端回复自己的方法表。
+ * 方法ID为数组下标加1，0表示没有分配ID。之后客户端只需要发送方法ID，不再发送服务名和参数类型
+ * @author Gloduck
+ */
+public final class RpcHandshake implements RpcMessage {
+    /**
+     * 下标对应方法ID减1，已经下线的服务为null
+     */
+    private String[] serviceNames;
+    /**
+     * 方法参数类型的签名，客户端用来确认双方调用的是同一个方法
+     */
+    private int[] signatures;
+    /**
+     * 服务指定的序列化器编号，小于0表示使用连接默认的序列化器
+     */
+    private byte[] serializerTypeCodes;
+    /**
+     * 压缩方式：客户端发送期望的压缩方式，服务端返回协商结果
+     */
+    private byte compressionType;
+    /**
+     * 服务端支持紧凑编码，见{@link CompactCodec}
+     */
+    private boolean compact;
+    /**
+     * 发送方在{@link cn.gloduck.netty.rpc.serializer.kryo.KryoRegistry}中按类名计算编号注册的类，
+     * 只有双方都注册过的类在{@link cn.gloduck.netty.rpc.serializer.kryo.FastKryoSerializer}中写编号
+     */
+    private String[] kryoClassNames;
+    /**
+     * 使用的序列化器编号，服务端用客户端握手使用的序列化器回复
+     */
+    private transient byte serializerTypeCode = -1;
+
+    public RpcHandshake() {
+    }
+
+    public RpcHandshake(String[] serviceNames, int[] signatures) {
+        this.serviceNames = serviceNames;
+        this.signatures = signatures;
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return MessageType.RPC_HANDSHAKE;
+    }
+
+    public String[] getServiceNames() {
+        return serviceNames;
+    }
+
+    public void setServiceNames(String[] serviceNames) {
+        this.serviceNames = serviceNames;
+    }
+
+    public int[] getSignatures() {
+        return signatures;
+    }
+
+    public void setSignatures(int[] signatures) {
+        this.signatures = signatures;
+    }
+
+    public byte[] getSerializerTypeCodes() {
+        return serializerTypeCodes;
+    }
+
+    public void setSerializerTypeCodes(byte[] serializerTypeCodes) {
+        this.serializerTypeCodes = serializerTypeCodes;
+    }
+
+    public byte getCompressionType() {
+        return compressionType;
+    }
+
+    public void setCompressionType(byte compressionType) {
+        this.compressionType = compressionType;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    @Override
+    public byte getSerializerTypeCode() {
+        return serializerTypeCode;
+    }
+
+    @Override
+    public void setSerializerTypeCode(byte serializerTypeCode) {
+        this.serializerTypeCode = serializerTypeCode;
+    }
+
+    public String[] getKryoClassNames() {
+        return kryoClassNames;
+    }
+
+    public void setKryoClassNames(String[] kryoClassNames) {
+        this.kryoClassNames = kryoClassNames;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcHandshake{" +
+                "serviceNames=" + Arrays.toString(serviceNames) +
+                ", signatures=" + Arrays.toString(signatures) +
+                ", serializerTypeCodes=" + Arrays.toString(serializerTypeCodes) +
+                ", compressionType=" + compressionType +
+                ", compact=" + compact +
+                ", kryoClassNames=" + Arrays.toString(kryoClassNames) +
+                '}';
+    }
+}
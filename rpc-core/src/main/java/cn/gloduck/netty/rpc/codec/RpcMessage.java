@@ -14,4 +14,34 @@ public interface RpcMessage extends Serializable {
      * @return
      */
     MessageType getMessageType();
+
+    /**
+     * 获取消息ID，v2协议中放在消息头里，不参与序列化。只有请求和响应携带ID
+     * @return
+     */
+    default long getId(){
+        return 0L;
+    }
+
+    /**
+     * 设置消息ID，由解码器从消息头中读取后设置
+     * @param id
+     */
+    default void setId(long id){
+    }
+
+    /**
+     * 获取消息使用的序列化器编号，小于0时使用连接默认的序列化器。只有请求和响应可以指定
+     * @return
+     */
+    default byte getSerializerTypeCode(){
+        return -1;
+    }
+
+    /**
+     * 设置消息使用的序列化器编号，由解码器按照消息头设置
+     * @param serializerTypeCode
+     */
+    default void setSerializerTypeCode(byte serializerTypeCode){
+    }
 }
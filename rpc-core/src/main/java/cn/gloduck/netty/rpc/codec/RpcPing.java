@@ -0,0 +1,64 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.enums.MessageType;
+
+/**
+ * 带时间戳的心跳，只在v2连接上使用。对端收到ping后原样带回时间戳回复pong，发送方据此计算往返时间。
+ * v2协议中时间戳放在消息头的请求ID字段里，消息体为空，编解码都不经过序列化器
+ * @author Gloduck
+ */
+public final class RpcPing implements RpcMessage {
+    private static final long serialVersionUID = 2384077193531586318L;
+    /**
+     * 发送ping时的{@link System#nanoTime()}
+     */
+    private long timestamp;
+    private boolean pong;
+
+    private RpcPing() {
+    }
+
+    private RpcPing(long timestamp, boolean pong) {
+        this.timestamp = timestamp;
+        this.pong = pong;
+    }
+
+    public static RpcPing ping(long timestamp){
+        return new RpcPing(timestamp, false);
+    }
+
+    public static RpcPing pong(long timestamp){
+        return new RpcPing(timestamp, true);
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return pong ? MessageType.RPC_PONG : MessageType.RPC_PING;
+    }
+
+    @Override
+    public long getId() {
+        return timestamp;
+    }
+
+    @Override
+    public void setId(long id) {
+        this.timestamp = id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isPong() {
+        return pong;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcPing{" +
+                "timestamp=" + timestamp +
+                ", pong=" + pong +
+                '}';
+    }
+}
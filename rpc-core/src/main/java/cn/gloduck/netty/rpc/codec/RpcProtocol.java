@@ -0,0 +1,88 @@
+package cn.gloduck.netty.rpc.codec;
+
+import cn.gloduck.netty.rpc.constant.RpcConstant;
+import cn.gloduck.netty.rpc.enums.CompressionType;
+import io.netty.util.AttributeKey;
+
+/**
+ * 协议版本和消息头标志位
+ * <pre>
+ * v1：魔数(8) + 序列化器(1) + 消息类型(1) + 数据长度(int 4) + 数据
+ * v2：魔数(8) + 版本标记(1) + 序列化器(1) + 消息类型(1) + 标志位(1) + 请求ID(varlong) + 数据长度(varint) + 数据
+ * </pre>
+ * 两个版本共用魔数，通过魔数后面的一个字节区分：v1中该字节为序列化器编号，v2中固定为{@link #V2_MARKER}。
+ * v2的心跳是带有{@link #FLAG_HEARTBEAT}的控制帧，消息体为空，序列化器固定为0，{@link RpcPing}的时间戳放在请求ID字段里。
+ * 文件数据帧的消息类型为{@link cn.gloduck.netty.rpc.enums.MessageType#RPC_STREAM}，请求ID为所属调用的ID，消息体是文件的原始数据，
+ * 最后一帧带有{@link #FLAG_LAST_FRAGMENT}，见{@link RpcFile}。
+ * @author Gloduck
+ */
+public final class RpcProtocol {
+    private RpcProtocol(){}
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+
+    /**
+     * v2协议的版本标记，不能和任何序列化器编号重复
+     */
+    public static final byte V2_MARKER = (byte) 0xF2;
+
+    /**
+     * 单向调用，服务端不返回响应
+     */
+    public static final byte FLAG_ONEWAY = 0x01;
+    /**
+     * 消息体经过了压缩
+     */
+    public static final byte FLAG_COMPRESSED = 0x02;
+    /**
+     * 调用失败的响应
+     */
+    public static final byte FLAG_ERROR = 0x04;
+    /**
+     * 心跳等控制帧，消息体为空，不经过序列化器
+     */
+    public static final byte FLAG_HEARTBEAT = 0x08;
+    /**
+     * 大消息的分片，见{@link RpcFragmentHandler}
+     */
+    public static final byte FLAG_FRAGMENT = 0x10;
+    /**
+     * 最后一个分片，也用于文件的最后一个数据帧
+     */
+    public static final byte FLAG_LAST_FRAGMENT = 0x20;
+    /**
+     * 消息体使用{@link CompactCodec}编码，不经过序列化器
+     */
+    public static final byte FLAG_COMPACT = 0x40;
+    /**
+     * 消息体后面带有不经过序列化器的附件，见{@link RpcAttachments}
+     */
+    public static final byte FLAG_ATTACHMENT = (byte) 0x80;
+
+    /**
+     * v2消息头的固定部分：魔数 + 版本标记 + 序列化器 + 消息类型 + 标志位
+     */
+    public static final int V2_FIXED_HEADER_SIZE = RpcConstant.MAGIC_NUMBER.length + 4;
+    /**
+     * v2消息头的最大长度：固定部分 + 请求ID(最多10字节) + 数据长度(最多5字节)
+     */
+    public static final int V2_MAX_HEADER_SIZE = V2_FIXED_HEADER_SIZE + 10 + 5;
+    /**
+     * v2心跳帧的长度：固定部分 + 请求ID(0) + 数据长度(0)
+     */
+    public static final int V2_HEARTBEAT_SIZE = V2_FIXED_HEADER_SIZE + 1 + 1;
+
+    /**
+     * 连接上对端使用的协议版本，由解码器在收到消息时设置，编码器按照该版本回写
+     */
+    public static final AttributeKey<Integer> PROTOCOL_VERSION = AttributeKey.valueOf("rpc.protocol.version");
+    /**
+     * 握手协商出的压缩方式，只在v2连接上设置
+     */
+    public static final AttributeKey<CompressionType> COMPRESSION = AttributeKey.valueOf("rpc.compression");
+    /**
+     * 握手时服务端声明支持紧凑编码，客户端此后才发送{@link #FLAG_COMPACT}的请求
+     */
+    public static final AttributeKey<Boolean> COMPACT = AttributeKey.valueOf("rpc.compact");
+}
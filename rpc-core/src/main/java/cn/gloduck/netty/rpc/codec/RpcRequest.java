@@ -1,13 +1,62 @@
 package cn.gloduck.netty.rpc.codec;
 
 import cn.gloduck.netty.rpc.enums.MessageType;
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import io.netty.util.Recycler;
 
+import java.lang.reflect.Type;
 import java.util.Arrays;
 
-
+/**
+ * RPC请求。
+ * 通过{@link #newInstance()}创建的请求来自对象池，确定不再使用后调用{@link #recycle()}放回：
+ * 客户端在同步调用收到响应后回收，服务端在响应写出后回收，其他情况不回收，由GC处理
+ */
 public final class RpcRequest implements RpcMessage {
     /**
-     * 请求号
+     * 和v1协议的类签名保持一致，保证JDK序列化器能和旧版本互通
+     */
+    private static final long serialVersionUID = 4096301713840480995L;
+    private static final Recycler<RpcRequest> RECYCLER = new Recycler<RpcRequest>() {
+        @Override
+        protected RpcRequest newObject(Handle<RpcRequest> handle) {
+            return new RpcRequest(handle);
+        }
+    };
+    /**
+     * 对象池的句柄，直接创建和反序列化得到的请求为null
+     */
+    private final transient Recycler.Handle<RpcRequest> handle;
+    /**
+     * 连接内单调递增的请求号，v2协议中放在消息头里
+     */
+    private transient long id;
+    /**
+     * 单向调用，v2协议中放在消息头的标志位里
+     */
+    private transient boolean oneway;
+    /**
+     * 使用的序列化器编号，小于0时使用连接默认的序列化器
+     */
+    private transient byte serializerTypeCode = -1;
+    /**
+     * 客户端方法声明的参数类型，序列化器可以据此只写参数的值
+     */
+    private transient Class<?>[] argumentTypes;
+    /**
+     * 客户端期望的返回值类型，收到响应后按照该类型解码
+     */
+    private transient Type resultType;
+    /**
+     * 服务端收到的请求中标记了客户端知道返回值的类型，返回值可以只写值本身
+     */
+    private transient boolean typedResult;
+    /**
+     * 参数和返回值都可以使用紧凑编码，见{@link CompactCodec}
+     */
+    private transient boolean compact;
+    /**
+     * v1协议的请求号
      */
     private String requestId;
     /**
@@ -28,13 +77,82 @@ public final class RpcRequest implements RpcMessage {
      * 调用方法的参数类型
      */
     private Class<?>[] parameterTypes;
+    /**
+     * 握手后得到的方法ID，大于0时不再发送serviceName和parameterTypes
+     */
+    private int methodId;
+
+    public RpcRequest() {
+        this(null);
+    }
+
+    private RpcRequest(Recycler.Handle<RpcRequest> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * 从对象池中获取请求
+     * @return
+     */
+    public static RpcRequest newInstance(){
+        return RECYCLER.get();
+    }
 
+    /**
+     * 清空后放回对象池，之后不能再使用。不是从对象池中获取的请求不做处理
+     */
+    public void recycle(){
+        if(handle == null){
+            return;
+        }
+        id = 0;
+        oneway = false;
+        serializerTypeCode = -1;
+        argumentTypes = null;
+        resultType = null;
+        typedResult = false;
+        compact = false;
+        requestId = null;
+        serviceName = null;
+        parameters = null;
+        parameterTypes = null;
+        methodId = 0;
+        handle.recycle(this);
+    }
 
     @Override
     public MessageType getMessageType() {
         return MessageType.RPC_REQUEST;
     }
 
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    @Override
+    public byte getSerializerTypeCode() {
+        return serializerTypeCode;
+    }
+
+    @Override
+    public void setSerializerTypeCode(byte serializerTypeCode) {
+        this.serializerTypeCode = serializerTypeCode;
+    }
+
+    public boolean isOneway() {
+        return oneway;
+    }
+
+    public void setOneway(boolean oneway) {
+        this.oneway = oneway;
+    }
+
     public String getRequestId() {
         return requestId;
     }
@@ -84,11 +202,72 @@ public final class RpcRequest implements RpcMessage {
         this.parameterTypes = parameterTypes;
     }
 
+    /**
+     * 解码参数中按照声明类型编码的值
+     * @param types 方法的参数类型，包括泛型参数
+     * @throws SerializationException
+     */
+    public void resolveParameters(Type[] types) throws SerializationException {
+        if(parameters == null){
+            return;
+        }
+        for (int i = 0; i < parameters.length; i++) {
+            if(parameters[i] instanceof DeferredValue){
+                if(types == null || i >= types.length){
+                    throw new SerializationException("缺少第 " + i + " 个参数的类型");
+                }
+                parameters[i] = ((DeferredValue) parameters[i]).resolve(types[i]);
+            }
+        }
+    }
+
+    public Class<?>[] getArgumentTypes() {
+        return argumentTypes;
+    }
+
+    public void setArgumentTypes(Class<?>[] argumentTypes) {
+        this.argumentTypes = argumentTypes;
+    }
+
+    public Type getResultType() {
+        return resultType;
+    }
+
+    public void setResultType(Type resultType) {
+        this.resultType = resultType;
+    }
+
+    public boolean isTypedResult() {
+        return typedResult;
+    }
+
+    public void setTypedResult(boolean typedResult) {
+        this.typedResult = typedResult;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public int getMethodId() {
+        return methodId;
+    }
+
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
+    }
+
     @Override
     public String toString() {
         return "RpcRequest{" +
-                "requestId='" + requestId + '\'' +
+                "id=" + id +
+                ", requestId='" + requestId + '\'' +
                 ", serviceName='" + serviceName + '\'' +
+                ", methodId=" + methodId +
                 ", parameters=" + Arrays.toString(parameters) +
                 ", parameterTypes=" + Arrays.toString(parameterTypes) +
                 '}';
@@ -1,11 +1,32 @@
 package cn.gloduck.netty.rpc.codec;
 
 import cn.gloduck.netty.rpc.enums.MessageType;
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import io.netty.util.NettyRuntime;
+import io.netty.util.Recycler;
+
+import java.lang.reflect.Type;
 
 /**
- * RPC返回值
+ * RPC返回值。
+ * {@link #success(RpcRequest, Object)}等方法和{@link #newInstance()}创建的响应来自对象池，生命周期和{@link RpcRequest}相同，
+ * 服务端在写出后回收，客户端在同步调用取出返回值后回收
  */
 public final class RpcResponse implements RpcMessage {
+    /**
+     * 和v1协议的类签名保持一致，保证JDK序列化器能和旧版本互通
+     */
+    private static final long serialVersionUID = -5843391143627284625L;
+    /**
+     * 响应总是在另一个线程回收（服务端在业务线程创建、事件循环回收，客户端相反），
+     * Netty默认只保留1/8跨线程回收的对象，这里关闭这个限制，其余参数和默认值相同
+     */
+    private static final Recycler<RpcResponse> RECYCLER = new Recycler<RpcResponse>(4096, 2, 0, NettyRuntime.availableProcessors() * 2) {
+        @Override
+        protected RpcResponse newObject(Handle<RpcResponse> handle) {
+            return new RpcResponse(handle);
+        }
+    };
     /**
      * 执行成功
      */
@@ -22,9 +43,20 @@ public final class RpcResponse implements RpcMessage {
      * 服务器异常
      */
     public static final int SERVER_FAILED = 3;
-    private RpcResponse(){}
+    /**
+     * 请求超时，只在客户端产生，不会出现在网络上
+     */
+    public static final int TIMEOUT = 4;
+    private RpcResponse(){
+        this.handle = null;
+    }
+
+    private RpcResponse(Recycler.Handle<RpcResponse> handle){
+        this.handle = handle;
+    }
 
     public RpcResponse(String requestId, Integer code, String message, Object data) {
+        this.handle = null;
         this.requestId = requestId;
         this.code = code;
         this.message = message;
@@ -32,7 +64,62 @@ public final class RpcResponse implements RpcMessage {
     }
 
     /**
-     * 请求ID
+     * 从对象池中获取响应
+     * @return
+     */
+    public static RpcResponse newInstance(){
+        return RECYCLER.get();
+    }
+
+    private static RpcResponse newInstance(String requestId, Integer code, String message, Object data){
+        RpcResponse response = RECYCLER.get();
+        response.requestId = requestId;
+        response.code = code;
+        response.message = message;
+        response.data = data;
+        return response;
+    }
+
+    /**
+     * 清空后放回对象池，之后不能再使用。不是从对象池中获取的响应不做处理
+     */
+    public void recycle(){
+        if(handle == null){
+            return;
+        }
+        id = 0;
+        serializerTypeCode = -1;
+        resultType = null;
+        compact = false;
+        requestId = null;
+        code = null;
+        message = null;
+        data = null;
+        handle.recycle(this);
+    }
+
+    /**
+     * 对象池的句柄，直接创建和反序列化得到的响应为null
+     */
+    private final transient Recycler.Handle<RpcResponse> handle;
+    /**
+     * 对应请求的ID，v2协议中放在消息头里
+     */
+    private transient long id;
+    /**
+     * 使用的序列化器编号，和请求保持一致
+     */
+    private transient byte serializerTypeCode = -1;
+    /**
+     * 服务端方法声明的返回值类型，客户端知道该类型时序列化器可以只写返回值本身
+     */
+    private transient Class<?> resultType;
+    /**
+     * 请求使用了紧凑编码，返回值可以编码时响应也使用紧凑编码
+     */
+    private transient boolean compact;
+    /**
+     * v1协议的请求ID
      */
     private String requestId;
     /**
@@ -48,6 +135,43 @@ public final class RpcResponse implements RpcMessage {
      */
     private Object data;
 
+    /**
+     * 发送成功，同时带回请求的v1和v2请求号
+     * @param request
+     * @param data
+     * @return
+     */
+    public static RpcResponse success(RpcRequest request, Object data){
+        return withId(success(request.getRequestId(), data), request);
+    }
+
+    /**
+     * 发送失败
+     * @param request
+     * @param message
+     * @return
+     */
+    public static RpcResponse sendFailed(RpcRequest request, String message){
+        return withId(sendFailed(request.getRequestId(), message), request);
+    }
+
+    /**
+     * 服务端错误
+     * @param request
+     * @param message
+     * @return
+     */
+    public static RpcResponse serverFailed(RpcRequest request, String message){
+        return withId(serverFailed(request.getRequestId(), message), request);
+    }
+
+    private static RpcResponse withId(RpcResponse response, RpcRequest request){
+        response.id = request.getId();
+        response.serializerTypeCode = request.getSerializerTypeCode();
+        response.compact = request.isCompact();
+        return response;
+    }
+
     /**
      * 发送成功
      * @param requestId
@@ -55,7 +179,7 @@ public final class RpcResponse implements RpcMessage {
      * @return
      */
     public static RpcResponse success(String requestId, Object data){
-        return new RpcResponse(requestId, SUCCESS, null, data);
+        return newInstance(requestId, SUCCESS, null, data);
     }
 
     /**
@@ -65,7 +189,7 @@ public final class RpcResponse implements RpcMessage {
      * @return
      */
     public static RpcResponse sendFailed(String requestId, String message){
-        return new RpcResponse(requestId, SEND_FAILED, message, null);
+        return newInstance(requestId, SEND_FAILED, message, null);
     }
 
     /**
@@ -75,7 +199,7 @@ public final class RpcResponse implements RpcMessage {
      * @return
      */
     public static RpcResponse serverFailed(String requestId, String message){
-        return new RpcResponse(requestId, SERVER_FAILED, message, null);
+        return newInstance(requestId, SERVER_FAILED, message, null);
     }
 
     /**
@@ -91,6 +215,53 @@ public final class RpcResponse implements RpcMessage {
         return MessageType.RPC_RESPONSE;
     }
 
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    @Override
+    public byte getSerializerTypeCode() {
+        return serializerTypeCode;
+    }
+
+    @Override
+    public void setSerializerTypeCode(byte serializerTypeCode) {
+        this.serializerTypeCode = serializerTypeCode;
+    }
+
+    /**
+     * 解码按照声明类型编码的返回值
+     * @param type 客户端期望的返回值类型，不知道时为null
+     * @throws SerializationException
+     */
+    public void resolveData(Type type) throws SerializationException {
+        if(data instanceof DeferredValue){
+            data = ((DeferredValue) data).resolve(type);
+        }
+    }
+
+    public Class<?> getResultType() {
+        return resultType;
+    }
+
+    public void setResultType(Class<?> resultType) {
+        this.resultType = resultType;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
     public String getRequestId() {
         return requestId;
     }
@@ -126,7 +297,8 @@ public final class RpcResponse implements RpcMessage {
     @Override
     public String toString() {
         return "RpcResponse{" +
-                "requestId='" + requestId + '\'' +
+                "id=" + id +
+                ", requestId='" + requestId + '\'' +
                 ", code=" + code +
                 ", message='" + message + '\'' +
                 ", data=" + data +
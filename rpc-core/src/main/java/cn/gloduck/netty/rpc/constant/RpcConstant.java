@@ -3,8 +3,32 @@ package cn.gloduck.netty.rpc.constant;
 public class RpcConstant {
 
     public static final byte[] MAGIC_NUMBER = {0,5,1,2,5,3,5,1};
+    /**
+     * 魔数的long形式（大端），用于直接在ByteBuf上比较，和MAGIC_NUMBER保持一致
+     */
+    public static final long MAGIC = 0x0005010205030501L;
     public static final String NAMESPACE = "netty_rpc";
     public static final int MAX_FRAME_LENGTH = 1 << 16;
+    /**
+     * 压缩的消息体解压后的最大长度
+     */
+    public static final int MAX_DECOMPRESSED_LENGTH = 1 << 24;
+    /**
+     * 大消息分片时每个分片的消息体大小
+     */
+    public static final int FRAGMENT_SIZE = 1 << 15;
+    /**
+     * 每个连接上正在组装的分片的最大总大小
+     */
+    public static final int MAX_REASSEMBLY_SIZE = 1 << 24;
+    /**
+     * 传输文件时每帧的数据大小，留出消息头的空间后不超过最大帧长度
+     */
+    public static final int STREAM_CHUNK_SIZE = MAX_FRAME_LENGTH - 1024;
+    /**
+     * 默认的压缩阈值，消息体超过该大小才压缩
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
     public static final long BEAT_READER_IDLE_TIME =0;
     public static final long BEAT_WRITER_IDLE_TIME = 0;
     /**
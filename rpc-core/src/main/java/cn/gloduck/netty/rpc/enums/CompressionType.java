@@ -0,0 +1,229 @@
+package cn.gloduck.netty.rpc.enums;
+
+import cn.gloduck.netty.rpc.constant.RpcConstant;
+import cn.gloduck.netty.rpc.utils.VarIntUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 消息体的压缩方式，在握手时协商，压缩后的数据都以原始长度(varint)开头
+ * @author Gloduck
+ */
+public enum CompressionType {
+    /**
+     * 不压缩
+     */
+    NONE{
+        @Override
+        public byte getTypeCode() {
+            return 0;
+        }
+
+        @Override
+        public void compress(ByteBuf in, ByteBuf out) {
+            out.writeBytes(in, in.readerIndex(), in.readableBytes());
+        }
+
+        @Override
+        public void decompress(ByteBuf in, ByteBuf out) {
+            out.writeBytes(in, in.readerIndex(), in.readableBytes());
+        }
+    },
+    /**
+     * netty自带的Snappy实现，速度快，压缩率一般。
+     * netty的Snappy用short保存偏移，所以按{@link Short#MAX_VALUE}分块压缩，格式为：原始长度 + (块长度(varint) + Snappy块)*
+     */
+    SNAPPY{
+        @Override
+        public byte getTypeCode() {
+            return 1;
+        }
+
+        @Override
+        public void compress(ByteBuf in, ByteBuf out) {
+            int length = in.readableBytes();
+            VarIntUtil.writeVarInt(out, length);
+            Snappy snappy = new Snappy();
+            for (int offset = 0; offset < length; offset += Short.MAX_VALUE) {
+                int chunkSize = Math.min(Short.MAX_VALUE, length - offset);
+                // 先占位块长度，块长度不会超过3个字节
+                int chunkLengthIndex = out.writerIndex();
+                out.writeMedium(0);
+                // Snappy按照读索引为0计算偏移，所以用slice而不是duplicate
+                snappy.encode(in.slice(in.readerIndex() + offset, chunkSize), out, chunkSize);
+                snappy.reset();
+                int chunkLength = out.writerIndex() - chunkLengthIndex - 3;
+                // 块长度固定用3个字节的varint表示
+                out.setByte(chunkLengthIndex, chunkLength & 0x7F | 0x80);
+                out.setByte(chunkLengthIndex + 1, chunkLength >>> 7 & 0x7F | 0x80);
+                out.setByte(chunkLengthIndex + 2, chunkLength >>> 14);
+            }
+        }
+
+        @Override
+        public void decompress(ByteBuf in, ByteBuf out) {
+            int length = checkLength(in);
+            int index = in.readerIndex() + VarIntUtil.varIntSize(length);
+            int end = in.writerIndex();
+            // 每个块解压前Snappy会按照块的原始长度扩容，这里只预留按压缩数据估计的空间
+            out.ensureWritable(reserve(length, end - index));
+            int expectedEnd = out.writerIndex() + length;
+            Snappy snappy = new Snappy();
+            while (index < end){
+                int chunkLengthSize = VarIntUtil.varLength(in, index, 3);
+                if(chunkLengthSize < 0){
+                    throw new DecompressionException("Snappy数据不完整");
+                }
+                int chunkLength = VarIntUtil.getVarInt(in, index);
+                index += chunkLengthSize;
+                if(chunkLength > end - index){
+                    throw new DecompressionException("Snappy数据不完整");
+                }
+                // 每个块的前导是块的原始长度，不能超过分块的大小和剩余的长度
+                if(VarIntUtil.varLength(in, index, 5) < 0){
+                    throw new DecompressionException("Snappy数据不完整");
+                }
+                int chunkSize = VarIntUtil.getVarInt(in, index);
+                if(chunkSize < 0 || chunkSize > Short.MAX_VALUE || chunkSize > expectedEnd - out.writerIndex()){
+                    throw new DecompressionException("Snappy块的长度超过限制");
+                }
+                snappy.decode(in.slice(index, chunkLength), out);
+                snappy.reset();
+                index += chunkLength;
+                if(out.writerIndex() > expectedEnd){
+                    throw new DecompressionException("解压后的长度和声明的长度不一致");
+                }
+            }
+            if(out.writerIndex() != expectedEnd){
+                throw new DecompressionException("解压后的长度和声明的长度不一致");
+            }
+        }
+    },
+    /**
+     * JDK自带的zlib，压缩率高，速度较慢
+     */
+    ZLIB{
+        @Override
+        public byte getTypeCode() {
+            return 2;
+        }
+
+        @Override
+        public void compress(ByteBuf in, ByteBuf out) {
+            int length = in.readableBytes();
+            VarIntUtil.writeVarInt(out, length);
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(in.nioBuffer());
+                deflater.finish();
+                while (!deflater.finished()){
+                    out.ensureWritable(Math.max(64, length >>> 1));
+                    ByteBuffer dst = out.nioBuffer(out.writerIndex(), out.writableBytes());
+                    out.writerIndex(out.writerIndex() + deflater.deflate(dst));
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public void decompress(ByteBuf in, ByteBuf out) {
+            int length = checkLength(in);
+            int lengthSize = VarIntUtil.varIntSize(length);
+            int compressedLength = in.readableBytes() - lengthSize;
+            int start = out.writerIndex();
+            int expectedEnd = start + length;
+            out.ensureWritable(reserve(length, compressedLength));
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(in.nioBuffer(in.readerIndex() + lengthSize, compressedLength));
+                while (out.writerIndex() < expectedEnd && !inflater.finished()){
+                    if(!out.isWritable()){
+                        // 按照已经解压的大小翻倍扩容，不超过声明的长度
+                        out.ensureWritable(Math.min(expectedEnd - out.writerIndex(), Math.max(out.writerIndex() - start, 64)));
+                    }
+                    int writable = Math.min(out.writableBytes(), expectedEnd - out.writerIndex());
+                    int inflated = inflater.inflate(out.nioBuffer(out.writerIndex(), writable));
+                    out.writerIndex(out.writerIndex() + inflated);
+                    if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+                        break;
+                    }
+                }
+                if(!inflater.finished() || out.writerIndex() != expectedEnd){
+                    throw new DecompressionException("zlib数据不完整");
+                }
+            } catch (DataFormatException e){
+                throw new DecompressionException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    /**
+     * 握手时使用的编号
+     * @return
+     */
+    public abstract byte getTypeCode();
+
+    /**
+     * 压缩in中可读的数据并写入out，不改变in的索引
+     * @param in
+     * @param out
+     */
+    public abstract void compress(ByteBuf in, ByteBuf out);
+
+    /**
+     * 解压in中可读的数据并写入out，不改变in的索引
+     * @param in
+     * @param out
+     */
+    public abstract void decompress(ByteBuf in, ByteBuf out);
+
+    public static CompressionType getCompressionTypeByTypeCode(byte typeCode){
+        for (CompressionType value : values()) {
+            if(value.getTypeCode() == typeCode){
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解压前预留的空间最多为压缩数据大小的多少倍，原始长度是对端声明的，不能直接按照它分配内存
+     */
+    private static final int RESERVE_RATIO = 4;
+
+    /**
+     * 解压前预留的空间，不超过声明的原始长度，也不超过压缩数据大小的{@link #RESERVE_RATIO}倍，
+     * 实际解压出更多的数据时再逐步扩容
+     * @param length 声明的原始长度
+     * @param compressedLength 压缩数据的大小
+     * @return
+     */
+    private static int reserve(int length, int compressedLength){
+        return (int) Math.min(length, (long) Math.max(compressedLength, 0) * RESERVE_RATIO);
+    }
+
+    /**
+     * 读取并检查压缩数据开头的原始长度
+     * @param in
+     * @return
+     */
+    private static int checkLength(ByteBuf in){
+        if(VarIntUtil.varLength(in, in.readerIndex(), 5) < 0){
+            throw new DecompressionException("压缩数据不完整");
+        }
+        int length = VarIntUtil.getVarInt(in, in.readerIndex());
+        if(length < 0 || length > RpcConstant.MAX_DECOMPRESSED_LENGTH){
+            throw new DecompressionException("解压后的长度超过限制 : " + length);
+        }
+        return length;
+    }
+}
@@ -1,7 +1,11 @@
 package cn.gloduck.netty.rpc.enums;
 
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
+import cn.gloduck.netty.rpc.codec.RpcBatchResponse;
 import cn.gloduck.netty.rpc.codec.RpcBeat;
+import cn.gloduck.netty.rpc.codec.RpcHandshake;
 import cn.gloduck.netty.rpc.codec.RpcMessage;
+import cn.gloduck.netty.rpc.codec.RpcPing;
 import cn.gloduck.netty.rpc.codec.RpcRequest;
 import cn.gloduck.netty.rpc.codec.RpcResponse;
 
@@ -50,6 +54,84 @@ public enum MessageType {
         public Class<? extends RpcMessage> getBindingClassType() {
             return RpcBeat.class;
         }
+    },
+    /**
+     * 握手，交换方法表
+     */
+    RPC_HANDSHAKE{
+        @Override
+        public byte getTypeCode() {
+            return 3;
+        }
+        @Override
+        public Class<? extends RpcMessage> getBindingClassType() {
+            return RpcHandshake.class;
+        }
+    },
+    /**
+     * 批量请求
+     */
+    RPC_BATCH_REQUEST{
+        @Override
+        public byte getTypeCode() {
+            return 4;
+        }
+        @Override
+        public Class<? extends RpcMessage> getBindingClassType() {
+            return RpcBatchRequest.class;
+        }
+    },
+    /**
+     * 批量响应
+     */
+    RPC_BATCH_RESPONSE{
+        @Override
+        public byte getTypeCode() {
+            return 5;
+        }
+        @Override
+        public Class<? extends RpcMessage> getBindingClassType() {
+            return RpcBatchResponse.class;
+        }
+    },
+    /**
+     * 带时间戳的心跳
+     */
+    RPC_PING{
+        @Override
+        public byte getTypeCode() {
+            return 6;
+        }
+        @Override
+        public Class<? extends RpcMessage> getBindingClassType() {
+            return RpcPing.class;
+        }
+    },
+    /**
+     * 心跳的回复，带回ping的时间戳
+     */
+    RPC_PONG{
+        @Override
+        public byte getTypeCode() {
+            return 7;
+        }
+        @Override
+        public Class<? extends RpcMessage> getBindingClassType() {
+            return RpcPing.class;
+        }
+    },
+    /**
+     * 作为返回值的文件的数据帧，消息体不经过序列化器，见{@link cn.gloduck.netty.rpc.codec.RpcFile}
+     */
+    RPC_STREAM{
+        @Override
+        public byte getTypeCode() {
+            return 8;
+        }
+        @Override
+        public Class<? extends RpcMessage> getBindingClassType() {
+            return RpcResponse.class;
+        }
     };
 
     /**
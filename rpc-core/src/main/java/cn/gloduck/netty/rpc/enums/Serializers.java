@@ -1,31 +1,171 @@
 package cn.gloduck.netty.rpc.enums;
 
+import cn.gloduck.netty.rpc.serializer.RpcSerializer;
+import cn.gloduck.netty.rpc.serializer.codegen.CodegenSerializer;
+import cn.gloduck.netty.rpc.serializer.jdk.FastJdkSerializer;
+import cn.gloduck.netty.rpc.serializer.jdk.JdKSerializer;
+import cn.gloduck.netty.rpc.serializer.json.FastJsonSerializer;
+import cn.gloduck.netty.rpc.serializer.json.TypedJsonSerializer;
+import cn.gloduck.netty.rpc.serializer.kryo.FastKryoSerializer;
+import cn.gloduck.netty.rpc.serializer.kryo.KryoSerializer;
+import cn.gloduck.netty.rpc.serializer.protostuff.FastProtostuffSerializer;
+import cn.gloduck.netty.rpc.serializer.protostuff.ProtostuffSerializer;
+
+/**
+ * 内置的序列化方式，编号和{@link RpcSerializer#serializerTypeCode()}一致，解码器按照消息头中的编号选择序列化器
+ * @author Gloduck
+ */
 public enum Serializers {
 
+    /**
+     * 使用连接默认的序列化器，即{@link cn.gloduck.netty.rpc.transport.NettyConfig}中配置的序列化器
+     */
+    DEFAULT{
+        @Override
+        public byte getTypeCode() {
+            return -1;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return null;
+        }
+    },
     /**
      * jdk序列化方式
      */
     JDK{
-
+        @Override
+        public byte getTypeCode() {
+            return 0;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return JdKSerializer.class;
+        }
     },
     /**
      * fastjson序列化方式
      */
     FAST_JSON{
-
+        @Override
+        public byte getTypeCode() {
+            return 1;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return FastJsonSerializer.class;
+        }
     },
     /**
      * protobuf序列化方式
      */
     PROTOBUF{
-
+        @Override
+        public byte getTypeCode() {
+            return 3;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return ProtostuffSerializer.class;
+        }
     },
     /**
      * kryo序列化方式
      */
     KRYO{
-
+        @Override
+        public byte getTypeCode() {
+            return 2;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return KryoSerializer.class;
+        }
+    },
+    /**
+     * kryo序列化方式，类使用固定编号注册，见{@link cn.gloduck.netty.rpc.serializer.kryo.KryoRegistry}
+     */
+    FAST_KRYO{
+        @Override
+        public byte getTypeCode() {
+            return 4;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return FastKryoSerializer.class;
+        }
+    },
+    /**
+     * protobuf序列化方式，请求和响应使用手写的Schema，参数按照声明类型编码
+     */
+    FAST_PROTOBUF{
+        @Override
+        public byte getTypeCode() {
+            return 5;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return FastProtostuffSerializer.class;
+        }
+    },
+    /**
+     * fastjson序列化方式，不写类名，参数和返回值按照方法声明的类型绑定
+     */
+    TYPED_JSON{
+        @Override
+        public byte getTypeCode() {
+            return 6;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return TypedJsonSerializer.class;
+        }
+    },
+    /**
+     * jdk序列化方式，类描述在每个连接上只发送一次
+     */
+    FAST_JDK{
+        @Override
+        public byte getTypeCode() {
+            return 7;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return FastJdkSerializer.class;
+        }
+    },
+    /**
+     * 使用rpc-codegen模块在编译期生成的编解码器，没有生成编解码器的类型使用jdk序列化
+     */
+    CODEGEN{
+        @Override
+        public byte getTypeCode() {
+            return 8;
+        }
+        @Override
+        public Class<? extends RpcSerializer> getSerializerClass() {
+            return CodegenSerializer.class;
+        }
     };
 
+    /**
+     * 消息头中的序列化器编号
+     * @return
+     */
+    public abstract byte getTypeCode();
+
+    /**
+     * 序列化器的实现类
+     * @return
+     */
+    public abstract Class<? extends RpcSerializer> getSerializerClass();
 
+    public static Serializers getSerializersByTypeCode(byte typeCode){
+        for (Serializers value : values()) {
+            if(value.getTypeCode() == typeCode){
+                return value;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,25 @@
+package cn.gloduck.netty.rpc.exception;
+
+/**
+ * rpc调用超时异常，请求在超时时间内没有收到响应
+ */
+public class RpcTimeoutException extends RpcInvokeException {
+    public RpcTimeoutException() {
+    }
+
+    public RpcTimeoutException(String message) {
+        super(message);
+    }
+
+    public RpcTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public RpcTimeoutException(Throwable cause) {
+        super(cause);
+    }
+
+    public RpcTimeoutException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
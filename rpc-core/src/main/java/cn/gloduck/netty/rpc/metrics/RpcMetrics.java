@@ -0,0 +1,211 @@
+package cn.gloduck.netty.rpc.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RPC运行时的统计数据，所有连接共享
+ * @author Gloduck
+ */
+public class RpcMetrics {
+    private static final RpcMetrics instance = new RpcMetrics();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+
+    public static RpcMetrics instance(){
+        return instance;
+    }
+
+    /**
+     * 压缩的消息数
+     */
+    private final LongAdder compressedMessages = new LongAdder();
+    /**
+     * 压缩前的字节数
+     */
+    private final LongAdder compressInputBytes = new LongAdder();
+    /**
+     * 压缩后的字节数
+     */
+    private final LongAdder compressOutputBytes = new LongAdder();
+    /**
+     * 压缩花费的CPU时间，纳秒
+     */
+    private final LongAdder compressCpuNanos = new LongAdder();
+    /**
+     * 解压的消息数
+     */
+    private final LongAdder decompressedMessages = new LongAdder();
+    /**
+     * 解压花费的CPU时间，纳秒
+     */
+    private final LongAdder decompressCpuNanos = new LongAdder();
+    /**
+     * 写出的消息数
+     */
+    private final LongAdder writtenMessages = new LongAdder();
+    /**
+     * flush次数
+     */
+    private final LongAdder flushes = new LongAdder();
+    /**
+     * 收到的心跳回复数
+     */
+    private final LongAdder heartbeats = new LongAdder();
+    /**
+     * 心跳往返时间的总和，纳秒
+     */
+    private final LongAdder heartbeatRttNanos = new LongAdder();
+    /**
+     * 最近一次心跳的往返时间，纳秒
+     */
+    private volatile long lastHeartbeatRttNanos;
+    /**
+     * 超时的请求数
+     */
+    private final LongAdder timeouts = new LongAdder();
+
+    private RpcMetrics(){}
+
+    /**
+     * 当前线程的CPU时间，用于统计压缩和解压的耗时。和{@link System#nanoTime()}不同，不包括线程被挂起、等待调度的时间。
+     * JVM不支持线程CPU时间时返回0，统计的耗时也为0
+     * @return 纳秒
+     */
+    public static long currentThreadCpuNanos(){
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * 记录一次压缩，压缩后没有变小而被放弃的也要记录，因为时间已经花掉了
+     * @param inputBytes
+     * @param outputBytes 实际发送的字节数
+     * @param cpuNanos 压缩花费的CPU时间，见{@link #currentThreadCpuNanos()}
+     */
+    public void recordCompress(int inputBytes, int outputBytes, long cpuNanos){
+        compressedMessages.increment();
+        compressInputBytes.add(inputBytes);
+        compressOutputBytes.add(outputBytes);
+        compressCpuNanos.add(cpuNanos);
+    }
+
+    /**
+     * 记录一次解压
+     * @param cpuNanos 解压花费的CPU时间，见{@link #currentThreadCpuNanos()}
+     */
+    public void recordDecompress(long cpuNanos){
+        decompressedMessages.increment();
+        decompressCpuNanos.add(cpuNanos);
+    }
+
+    public void recordWrite(){
+        writtenMessages.increment();
+    }
+
+    public void recordFlush(){
+        flushes.increment();
+    }
+
+    /**
+     * 记录一次心跳的往返时间
+     * @param nanos
+     */
+    public void recordHeartbeatRtt(long nanos){
+        heartbeats.increment();
+        heartbeatRttNanos.add(nanos);
+        lastHeartbeatRttNanos = nanos;
+    }
+
+    public void recordTimeout(){
+        timeouts.increment();
+    }
+
+    public long getCompressedMessages() {
+        return compressedMessages.sum();
+    }
+
+    public long getCompressInputBytes() {
+        return compressInputBytes.sum();
+    }
+
+    public long getCompressOutputBytes() {
+        return compressOutputBytes.sum();
+    }
+
+    /**
+     * 压缩率，压缩后大小 / 压缩前大小，没有压缩过时为1
+     * @return
+     */
+    public double getCompressionRatio(){
+        long input = compressInputBytes.sum();
+        return input == 0 ? 1.0 : (double) compressOutputBytes.sum() / input;
+    }
+
+    public long getCompressCpuMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(compressCpuNanos.sum());
+    }
+
+    public long getDecompressedMessages() {
+        return decompressedMessages.sum();
+    }
+
+    public long getDecompressCpuMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(decompressCpuNanos.sum());
+    }
+
+    public long getWrittenMessages() {
+        return writtenMessages.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * 平均每条消息的flush次数，即每条消息的write系统调用次数
+     * @return
+     */
+    public double getFlushesPerMessage(){
+        long messages = writtenMessages.sum();
+        return messages == 0 ? 0.0 : (double) flushes.sum() / messages;
+    }
+
+    public long getHeartbeats() {
+        return heartbeats.sum();
+    }
+
+    /**
+     * 心跳的平均往返时间，微秒
+     * @return
+     */
+    public long getAverageHeartbeatRttMicros(){
+        long count = heartbeats.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(heartbeatRttNanos.sum() / count);
+    }
+
+    public long getLastHeartbeatRttMicros(){
+        return TimeUnit.NANOSECONDS.toMicros(lastHeartbeatRttNanos);
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RpcMetrics{" +
+                "compressedMessages=" + getCompressedMessages() +
+                ", compressionRatio=" + String.format("%.3f", getCompressionRatio()) +
+                ", compressCpuMillis=" + getCompressCpuMillis() +
+                ", decompressedMessages=" + getDecompressedMessages() +
+                ", decompressCpuMillis=" + getDecompressCpuMillis() +
+                ", writtenMessages=" + getWrittenMessages() +
+                ", flushesPerMessage=" + String.format("%.3f", getFlushesPerMessage()) +
+                ", heartbeats=" + getHeartbeats() +
+                ", averageHeartbeatRttMicros=" + getAverageHeartbeatRttMicros() +
+                ", timeouts=" + getTimeouts() +
+                '}';
+    }
+}
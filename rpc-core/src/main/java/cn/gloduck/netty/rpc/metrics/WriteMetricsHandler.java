@@ -0,0 +1,34 @@
+package cn.gloduck.netty.rpc.metrics;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * 统计写出的消息数和flush次数，flush次数近似于write系统调用的次数。
+ * 放在{@link cn.gloduck.netty.rpc.codec.RpcEncoder}之前，每条编码后的消息计数一次
+ * @author Gloduck
+ */
+@ChannelHandler.Sharable
+public class WriteMetricsHandler extends ChannelOutboundHandlerAdapter {
+    private static final WriteMetricsHandler instance = new WriteMetricsHandler();
+
+    public static WriteMetricsHandler instance(){
+        return instance;
+    }
+
+    private WriteMetricsHandler(){}
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        RpcMetrics.instance().recordWrite();
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        RpcMetrics.instance().recordFlush();
+        ctx.flush();
+    }
+}
@@ -0,0 +1,69 @@
+package cn.gloduck.netty.rpc.ref.client;
+
+import cn.gloduck.netty.rpc.codec.RpcHandshake;
+import io.netty.util.AttributeKey;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 客户端保存的某个连接的方法表，由服务端的握手消息生成
+ * @author Gloduck
+ */
+public class MethodDictionary {
+    /**
+     * 保存在连接上的方法表，握手完成前为null
+     */
+    public static final AttributeKey<MethodDictionary> KEY = AttributeKey.valueOf("rpc.method.dictionary");
+    private final Map<String, Integer> serviceIdMapping;
+    private final Map<String, Integer> signatureMapping;
+    /**
+     * 下标为方法ID减1
+     */
+    private final byte[] serializerTypeCodes;
+
+    public MethodDictionary(RpcHandshake handshake) {
+        String[] serviceNames = handshake.getServiceNames();
+        int[] signatures = handshake.getSignatures();
+        int size = serviceNames == null ? 0 : serviceNames.length;
+        this.serviceIdMapping = new HashMap<>(size * 2);
+        this.signatureMapping = new HashMap<>(size * 2);
+        byte[] codes = handshake.getSerializerTypeCodes();
+        this.serializerTypeCodes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            serializerTypeCodes[i] = codes == null || i >= codes.length ? -1 : codes[i];
+        }
+        for (int i = 0; i < size; i++) {
+            if(serviceNames[i] != null){
+                serviceIdMapping.put(serviceNames[i], i + 1);
+                signatureMapping.put(serviceNames[i], signatures[i]);
+            }
+        }
+    }
+
+    /**
+     * 查找服务的方法ID
+     * @param serviceName
+     * @param signature 客户端方法的参数签名
+     * @return 方法ID，没有找到或签名不一致时返回0
+     */
+    public int lookup(String serviceName, int signature){
+        Integer id = serviceIdMapping.get(serviceName);
+        if(id == null || signatureMapping.get(serviceName) != signature){
+            return 0;
+        }
+        return id;
+    }
+
+    /**
+     * 服务端为该方法指定的序列化器
+     * @param methodId
+     * @return 序列化器编号，小于0表示使用连接默认的序列化器
+     */
+    public byte getSerializerTypeCode(int methodId){
+        if(methodId <= 0 || methodId > serializerTypeCodes.length){
+            return -1;
+        }
+        return serializerTypeCodes[methodId - 1];
+    }
+}
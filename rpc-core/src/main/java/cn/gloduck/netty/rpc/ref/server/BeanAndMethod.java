@@ -2,11 +2,15 @@ package cn.gloduck.netty.rpc.ref.server;
 
 import cn.gloduck.netty.rpc.exception.RpcInvokeException;
 import cn.gloduck.netty.rpc.utils.CollectionUtil;
+import cn.gloduck.netty.rpc.utils.ReflectUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.util.Arrays;
 
 /**
@@ -17,30 +21,109 @@ public class BeanAndMethod {
     private final static Logger logger = LoggerFactory.getLogger(BeanAndMethod.class);
     private Object bean;
     private Method method;
+    /**
+     * 参数类型签名，握手时发给客户端
+     */
+    private int signature;
+    /**
+     * 服务指定的序列化器编号，握手时发给客户端，小于0表示使用连接默认的序列化器
+     */
+    private byte serializerTypeCode;
+    private Class<?>[] parameterTypes;
+    /**
+     * 带泛型参数的参数类型，解码只写值不写类型的参数时使用
+     */
+    private Type[] genericParameterTypes;
 
     public BeanAndMethod(Object bean, Method method) {
+        this(bean, method, (byte) -1);
+    }
+
+    public BeanAndMethod(Object bean, Method method, byte serializerTypeCode) {
         this.bean = bean;
         this.method = method;
+        this.parameterTypes = method.getParameterTypes();
+        this.genericParameterTypes = method.getGenericParameterTypes();
+        this.signature = ReflectUtil.signature(parameterTypes);
+        this.serializerTypeCode = serializerTypeCode;
     }
 
     public Object invokeMethod(Object[] parameters,Class<?>[] requireParameterTypes){
-        Class<?>[] parameterTypes = method.getParameterTypes();
-        logger.info("尝试执行请求的方法 , 请求的参数为： {}, 请求的类型为： {}, 方法的实际类型为： {}",Arrays.toString(parameters), Arrays.toString(requireParameterTypes), Arrays.toString(parameterTypes));
+        if(logger.isInfoEnabled()){
+            logger.info("尝试执行请求的方法 , 请求的参数为： {}, 请求的类型为： {}, 方法的实际类型为： {}",Arrays.toString(parameters), Arrays.toString(requireParameterTypes), Arrays.toString(parameterTypes));
+        }
         if(!Arrays.equals(requireParameterTypes, parameterTypes)){
+            releaseAttachments(parameters);
             // 对参数类型进行验证，确保就是要执行的方法。
             String msg = String.format("请求的方法类型 : %s 和实际的方法类型不匹配 : %s", Arrays.toString(requireParameterTypes), Arrays.toString(parameterTypes));
             throw new RpcInvokeException(msg);
         }
+        return invokeMethod(parameters);
+    }
+
+    /**
+     * 不校验参数类型直接调用，用于通过方法ID找到的方法，参数类型已经在握手时通过签名校验过了。
+     * 作为附件收到的ByteBuf参数在方法返回后释放，方法需要保留或者直接返回时先调用retain
+     * @param parameters
+     * @return
+     */
+    public Object invokeMethod(Object[] parameters){
         Object result;
         try {
             // 由于注册的方法都是共有的方法，所以应该不会出现权限问题。
             result = method.invoke(bean, parameters);
         } catch (ReflectiveOperationException e) {
             throw new RpcInvokeException(e.getMessage());
+        } finally {
+            releaseAttachments(parameters);
         }
         return result;
     }
 
+    /**
+     * 释放作为附件收到的ByteBuf参数，释放后置为null，重复调用没有影响
+     * @param parameters
+     */
+    public static void releaseAttachments(Object[] parameters){
+        if(parameters == null){
+            return;
+        }
+        for (int i = 0; i < parameters.length; i++) {
+            if(parameters[i] instanceof ByteBuf){
+                ReferenceCountUtil.safeRelease(parameters[i]);
+                parameters[i] = null;
+            }
+        }
+    }
+
+    /**
+     * 方法的参数类型，返回的是共享的数组，不能修改
+     * @return
+     */
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    /**
+     * 方法带泛型参数的参数类型，返回的是共享的数组，不能修改
+     * @return
+     */
+    public Type[] getGenericParameterTypes() {
+        return genericParameterTypes;
+    }
+
+    public Class<?> getReturnType() {
+        return method.getReturnType();
+    }
+
+    public int getSignature() {
+        return signature;
+    }
+
+    public byte getSerializerTypeCode() {
+        return serializerTypeCode;
+    }
+
     @Override
     public String toString() {
         return "BeanAndMethod{" +
@@ -0,0 +1,121 @@
+package cn.gloduck.netty.rpc.ref.server;
+
+import cn.gloduck.netty.rpc.codec.RpcHandshake;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 服务端的方法表，为每个服务分配一个方法ID，通过握手发布给客户端。
+ * 收到带方法ID的请求时直接按下标查找，不需要再按服务名查找和比较参数类型
+ * @author Gloduck
+ */
+public class MethodTable {
+    /**
+     * 下标为方法ID减1
+     */
+    private volatile BeanAndMethod[] methods;
+    private volatile String[] serviceNames;
+    private final Map<String, Integer> serviceIdMapping;
+    /**
+     * 分配方法ID时的参数签名，服务下线后仍然保留
+     */
+    private final Map<String, Integer> signatureMapping;
+
+    public MethodTable() {
+        this.methods = new BeanAndMethod[0];
+        this.serviceNames = new String[0];
+        this.serviceIdMapping = new HashMap<>(32);
+        this.signatureMapping = new HashMap<>(32);
+    }
+
+    /**
+     * 注册服务，同名服务重复注册并且参数签名不变时复用原来的方法ID。
+     * 签名变化时分配新的方法ID，原来的方法ID不再可用，已经握手的客户端用旧的方法ID调用时会收到找不到服务的错误，
+     * 而不是用旧的参数调用新的方法
+     * @param serviceName
+     * @param beanAndMethod
+     * @return 方法ID
+     */
+    public synchronized int register(String serviceName, BeanAndMethod beanAndMethod){
+        Integer id = serviceIdMapping.get(serviceName);
+        BeanAndMethod[] newMethods;
+        String[] newServiceNames;
+        if(id != null && signatureMapping.get(serviceName) == beanAndMethod.getSignature()){
+            newMethods = methods.clone();
+            newServiceNames = serviceNames.clone();
+        } else {
+            int newId = methods.length + 1;
+            newMethods = Arrays.copyOf(methods, newId);
+            newServiceNames = Arrays.copyOf(serviceNames, newId);
+            if(id != null){
+                // 签名变化，原来的方法ID作废
+                newMethods[id - 1] = null;
+                newServiceNames[id - 1] = null;
+            }
+            id = newId;
+            serviceIdMapping.put(serviceName, id);
+            signatureMapping.put(serviceName, beanAndMethod.getSignature());
+        }
+        newMethods[id - 1] = beanAndMethod;
+        newServiceNames[id - 1] = serviceName;
+        this.serviceNames = newServiceNames;
+        this.methods = newMethods;
+        return id;
+    }
+
+    /**
+     * 下线服务，方法ID保留，避免已经握手的客户端调用到其他方法
+     * @param serviceName
+     */
+    public synchronized void unRegister(String serviceName){
+        Integer id = serviceIdMapping.get(serviceName);
+        if(id == null){
+            return;
+        }
+        BeanAndMethod[] newMethods = methods.clone();
+        String[] newServiceNames = serviceNames.clone();
+        newMethods[id - 1] = null;
+        newServiceNames[id - 1] = null;
+        this.serviceNames = newServiceNames;
+        this.methods = newMethods;
+    }
+
+    /**
+     * 根据方法ID查找
+     * @param methodId
+     * @return 没有找到则返回null
+     */
+    public BeanAndMethod get(int methodId){
+        BeanAndMethod[] current = methods;
+        if(methodId <= 0 || methodId > current.length){
+            return null;
+        }
+        return current[methodId - 1];
+    }
+
+    /**
+     * 生成发送给客户端的握手消息
+     * @return
+     */
+    public RpcHandshake toHandshake(){
+        BeanAndMethod[] currentMethods;
+        String[] currentServiceNames;
+        synchronized (this){
+            currentMethods = methods;
+            currentServiceNames = serviceNames;
+        }
+        int[] signatures = new int[currentMethods.length];
+        byte[] serializerTypeCodes = new byte[currentMethods.length];
+        for (int i = 0; i < currentMethods.length; i++) {
+            if(currentMethods[i] != null){
+                signatures[i] = currentMethods[i].getSignature();
+                serializerTypeCodes[i] = currentMethods[i].getSerializerTypeCode();
+            }
+        }
+        RpcHandshake handshake = new RpcHandshake(currentServiceNames, signatures);
+        handshake.setSerializerTypeCodes(serializerTypeCodes);
+        return handshake;
+    }
+}
@@ -0,0 +1,33 @@
+package cn.gloduck.netty.rpc.serializer;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.OutputStream;
+
+/**
+ * 可以重新绑定目标的ByteBuf输出流，序列化器在线程中复用，避免每条消息创建一个ByteBufOutputStream
+ * @author Gloduck
+ */
+public final class ByteBufSink extends OutputStream {
+    private ByteBuf target;
+
+    /**
+     * 绑定写入的目标，传入null解除绑定
+     * @param target
+     * @return
+     */
+    public ByteBufSink bind(ByteBuf target) {
+        this.target = target;
+        return this;
+    }
+
+    @Override
+    public void write(int b) {
+        target.writeByte(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        target.writeBytes(b, off, len);
+    }
+}
@@ -0,0 +1,47 @@
+package cn.gloduck.netty.rpc.serializer;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.InputStream;
+
+/**
+ * 可以重新绑定来源的ByteBuf输入流，序列化器在线程中复用，避免每条消息创建一个ByteBufInputStream。
+ * 读取会移动来源的读索引，不希望修改原来的ByteBuf时应该绑定duplicate
+ * @author Gloduck
+ */
+public final class ByteBufSource extends InputStream {
+    private ByteBuf source;
+
+    /**
+     * 绑定读取的来源，传入null解除绑定
+     * @param source
+     * @return
+     */
+    public ByteBufSource bind(ByteBuf source) {
+        this.source = source;
+        return this;
+    }
+
+    @Override
+    public int read() {
+        return source.isReadable() ? source.readByte() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if(len == 0){
+            return 0;
+        }
+        int readable = Math.min(len, source.readableBytes());
+        if(readable == 0){
+            return -1;
+        }
+        source.readBytes(b, off, readable);
+        return readable;
+    }
+
+    @Override
+    public int available() {
+        return source.readableBytes();
+    }
+}
@@ -2,6 +2,8 @@ package cn.gloduck.netty.rpc.serializer;
 
 import cn.gloduck.netty.rpc.enums.Serializers;
 import cn.gloduck.netty.rpc.exception.SerializationException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 
 import java.io.Serializable;
 
@@ -16,6 +18,43 @@ public interface RpcSerializer {
      */
     <T extends Serializable> T decode(byte[] bytes, Class<T> classz) throws SerializationException;
 
+    /**
+     * 直接将对象编码到ByteBuf中，避免中间的byte[]和额外的内存拷贝。
+     * 默认实现退化为{@link #encode(Serializable)}后再拷贝，序列化器应尽量重写此方法。
+     * @param obj 待编码的对象
+     * @param out 写入的目标缓冲区，从writerIndex开始写
+     */
+    default <T extends Serializable> void encode(T obj, ByteBuf out) throws SerializationException {
+        out.writeBytes(encode(obj));
+    }
+
+    /**
+     * 直接从ByteBuf中解码，避免先拷贝到byte[]。
+     * in的可读区域即为完整的消息体，实现不需要也不应该修改in的读写索引，读取完成后由解码器跳过该帧。
+     * 默认实现退化为拷贝后调用{@link #decode(byte[], Class)}
+     * @param in 消息体
+     * @param classz 消息的类型
+     */
+    default <T extends Serializable> T decode(ByteBuf in, Class<T> classz) throws SerializationException {
+        return decode(ByteBufUtil.getBytes(in), classz);
+    }
+
+    /**
+     * 记录编码方向的状态，配合{@link #rollback(int)}使用。
+     * 在连接上保存状态的序列化器（例如只在第一次发送时写出完整类描述的序列化器）需要重写，
+     * 编码器在消息体写完之后的步骤失败时回滚，避免状态中记录了对端没有收到的内容
+     * @return 当前状态的标记
+     */
+    default int mark() {
+        return 0;
+    }
+
+    /**
+     * 把编码方向的状态回滚到{@link #mark()}返回的标记处，默认没有状态，不需要回滚
+     * @param mark
+     */
+    default void rollback(int mark) {
+    }
 
      byte serializerTypeCode();
 }
@@ -0,0 +1,100 @@
+package cn.gloduck.netty.rpc.serializer;
+
+import cn.gloduck.netty.rpc.enums.Serializers;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * 连接上可用的序列化器，按照消息头中的编号查找，内置的序列化器在第一次使用时创建。
+ * 解码时只接受配置的序列化器、{@link cn.gloduck.netty.rpc.transport.NettyConfig#getAcceptedSerializers()}中的序列化器，
+ * 以及当前连接发送消息时用过的序列化器（对端用同样的序列化器回复），其他编号的消息直接拒绝，
+ * 避免对端任意选择jdk序列化等不安全的序列化方式。
+ * 编码器和解码器共用，只在连接的事件循环中使用
+ * @author Gloduck
+ */
+public class SerializerRegistry {
+    /**
+     * 消息没有指定序列化器时使用
+     */
+    private final RpcSerializer defaultSerializer;
+    /**
+     * 下标为序列化器编号
+     */
+    private final RpcSerializer[] serializers;
+    /**
+     * 解码时接受的序列化器，下标为序列化器编号
+     */
+    private final boolean[] accepted;
+
+    public SerializerRegistry(RpcSerializer defaultSerializer) {
+        this(defaultSerializer, Collections.emptySet());
+    }
+
+    /**
+     * @param defaultSerializer 连接默认的序列化器
+     * @param accepted 除了默认的序列化器之外，解码时还接受的序列化器
+     */
+    public SerializerRegistry(RpcSerializer defaultSerializer, Collection<Serializers> accepted) {
+        this.defaultSerializer = defaultSerializer;
+        this.serializers = new RpcSerializer[Byte.MAX_VALUE + 1];
+        this.accepted = new boolean[Byte.MAX_VALUE + 1];
+        byte typeCode = defaultSerializer.serializerTypeCode();
+        if(typeCode >= 0){
+            serializers[typeCode] = defaultSerializer;
+            this.accepted[typeCode] = true;
+        }
+        for (Serializers type : accepted) {
+            if(type.getTypeCode() >= 0){
+                this.accepted[type.getTypeCode()] = true;
+            }
+        }
+    }
+
+    public RpcSerializer getDefault() {
+        return defaultSerializer;
+    }
+
+    /**
+     * 根据编号获取解码使用的序列化器
+     * @param typeCode
+     * @return 不支持或者不接受的编号返回null
+     */
+    public RpcSerializer get(byte typeCode){
+        if(typeCode < 0 || !accepted[typeCode]){
+            return null;
+        }
+        return create(typeCode);
+    }
+
+    private RpcSerializer create(byte typeCode){
+        RpcSerializer serializer = serializers[typeCode];
+        if(serializer == null){
+            Serializers type = Serializers.getSerializersByTypeCode(typeCode);
+            if(type == null || type.getSerializerClass() == null){
+                return null;
+            }
+            serializer = new SerializerFactory<>(type.getSerializerClass()).newInstance();
+            serializers[typeCode] = serializer;
+        }
+        return serializer;
+    }
+
+    /**
+     * 获取编码时使用的序列化器，没有指定或者不支持时使用默认的序列化器。
+     * 对端会用同样的序列化器回复，所以之后解码时也接受这个序列化器
+     * @param typeCode
+     * @return
+     */
+    public RpcSerializer getOrDefault(byte typeCode){
+        if(typeCode < 0){
+            return defaultSerializer;
+        }
+        RpcSerializer serializer = create(typeCode);
+        if(serializer == null){
+            return defaultSerializer;
+        }
+        accepted[typeCode] = true;
+        return serializer;
+    }
+}
@@ -0,0 +1,404 @@
+package cn.gloduck.netty.rpc.serializer.codegen;
+
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import cn.gloduck.netty.rpc.utils.VarIntUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * 生成的编解码器和{@link CodegenSerializer}使用的读写方法。
+ * 类型在编译期已知的字段由生成的代码直接读写，这里只处理字符串、枚举、嵌套的对象和声明类型不确定的值。
+ * 声明类型不确定的值先写一个类型标记，没有对应标记和编解码器的类型使用jdk序列化
+ * @author Gloduck
+ */
+public final class CodecIO {
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte CHAR = 9;
+    private static final byte STRING = 10;
+    private static final byte BYTES = 11;
+    private static final byte LIST = 12;
+    private static final byte SET = 13;
+    private static final byte LINKED_SET = 14;
+    private static final byte MAP = 15;
+    private static final byte LINKED_MAP = 16;
+    private static final byte ENUM = 17;
+    private static final byte CLASS = 18;
+    private static final byte GENERATED = 19;
+    private static final byte SERIALIZABLE = 20;
+    /**
+     * 嵌套对象的运行时类型就是字段的声明类型，直接使用字段类型的编解码器
+     */
+    private static final byte EXACT = 21;
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>(16);
+
+    static {
+        for (Class<?> primitive : new Class<?>[]{boolean.class, byte.class, char.class, short.class,
+                int.class, long.class, float.class, double.class, void.class}) {
+            PRIMITIVES.put(primitive.getName(), primitive);
+        }
+    }
+
+    private CodecIO() {
+    }
+
+    /**
+     * 写入字符串，长度加1后写成varint，0表示null
+     * @param out
+     * @param value
+     */
+    public static void writeString(ByteBuf out, String value) {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        int length = ByteBufUtil.utf8Bytes(value);
+        VarIntUtil.writeVarInt(out, length + 1);
+        ByteBufUtil.reserveAndWriteUtf8(out, value, length);
+    }
+
+    public static String readString(ByteBuf in) {
+        int length = VarIntUtil.readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    public static void writeBytes(ByteBuf out, byte[] value) {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        VarIntUtil.writeVarInt(out, value.length + 1);
+        out.writeBytes(value);
+    }
+
+    public static byte[] readBytes(ByteBuf in) {
+        int length = VarIntUtil.readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readBytes(value);
+        return value;
+    }
+
+    /**
+     * 按名称写入枚举，枚举增加常量或者调整顺序不影响兼容性
+     * @param out
+     * @param value
+     */
+    public static void writeEnum(ByteBuf out, Enum<?> value) {
+        writeString(out, value == null ? null : value.name());
+    }
+
+    public static <E extends Enum<E>> E readEnum(ByteBuf in, Class<E> type) throws SerializationException {
+        String name = readString(in);
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException("枚举 " + type.getName() + " 中没有常量 : " + name);
+        }
+    }
+
+    /**
+     * 写入声明类型有生成的编解码器的字段，运行时类型不一致时（子类）按照{@link #writeValue(ByteBuf, Object)}写入
+     * @param out
+     * @param value
+     * @param codec 声明类型的编解码器
+     * @throws SerializationException
+     */
+    public static <T> void writeObject(ByteBuf out, T value, GeneratedCodec<T> codec) throws SerializationException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value.getClass() == codec.type()) {
+            out.writeByte(EXACT);
+            codec.write(out, value);
+        } else {
+            writeValue(out, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T readObject(ByteBuf in, GeneratedCodec<T> codec) throws SerializationException {
+        if (in.getByte(in.readerIndex()) == EXACT) {
+            in.skipBytes(1);
+            return codec.read(in);
+        }
+        return (T) readValue(in);
+    }
+
+    /**
+     * 写入声明类型不确定的值
+     * @param out
+     * @param value
+     * @throws SerializationException 值的类型不支持
+     */
+    @SuppressWarnings("unchecked")
+    public static void writeValue(ByteBuf out, Object value) throws SerializationException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> type = value.getClass();
+        if (type == String.class) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (type == Integer.class) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (type == Long.class) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (type == Boolean.class) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (type == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (type == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (type == Short.class) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (type == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (type == Character.class) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (type == byte[].class) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (type == ArrayList.class) {
+            out.writeByte(LIST);
+            writeElements(out, (ArrayList<?>) value);
+        } else if (type == HashSet.class) {
+            out.writeByte(SET);
+            writeElements(out, (HashSet<?>) value);
+        } else if (type == LinkedHashSet.class) {
+            out.writeByte(LINKED_SET);
+            writeElements(out, (LinkedHashSet<?>) value);
+        } else if (type == HashMap.class) {
+            out.writeByte(MAP);
+            writeEntries(out, (HashMap<?, ?>) value);
+        } else if (type == LinkedHashMap.class) {
+            out.writeByte(LINKED_MAP);
+            writeEntries(out, (LinkedHashMap<?, ?>) value);
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            writeString(out, ((Enum<?>) value).getDeclaringClass().getName());
+            writeString(out, ((Enum<?>) value).name());
+        } else if (type == Class.class) {
+            out.writeByte(CLASS);
+            writeString(out, ((Class<?>) value).getName());
+        } else {
+            GeneratedCodec<Object> codec = (GeneratedCodec<Object>) GeneratedCodecs.instance().get(type);
+            if (codec != null) {
+                out.writeByte(GENERATED);
+                out.writeInt(GeneratedCodecs.id(type));
+                codec.write(out, value);
+            } else if (value instanceof Serializable) {
+                out.writeByte(SERIALIZABLE);
+                writeSerializable(out, value);
+            } else {
+                throw new SerializationException("当前对象无法被序列化，类型 " + type.getName() + " 没有生成编解码器也没有实现Serializable接口");
+            }
+        }
+    }
+
+    public static Object readValue(ByteBuf in) throws SerializationException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return in.readChar();
+            case BYTES:
+                return readBytes(in);
+            case LIST: {
+                int size = VarIntUtil.readVarInt(in);
+                ArrayList<Object> list = new ArrayList<>(size);
+                readElements(in, list, size);
+                return list;
+            }
+            case SET: {
+                int size = VarIntUtil.readVarInt(in);
+                HashSet<Object> set = new HashSet<>(capacity(size));
+                readElements(in, set, size);
+                return set;
+            }
+            case LINKED_SET: {
+                int size = VarIntUtil.readVarInt(in);
+                LinkedHashSet<Object> set = new LinkedHashSet<>(capacity(size));
+                readElements(in, set, size);
+                return set;
+            }
+            case MAP: {
+                int size = VarIntUtil.readVarInt(in);
+                HashMap<Object, Object> map = new HashMap<>(capacity(size));
+                readEntries(in, map, size);
+                return map;
+            }
+            case LINKED_MAP: {
+                int size = VarIntUtil.readVarInt(in);
+                LinkedHashMap<Object, Object> map = new LinkedHashMap<>(capacity(size));
+                readEntries(in, map, size);
+                return map;
+            }
+            case ENUM:
+                return enumConstant(forName(readString(in)), readString(in));
+            case CLASS:
+                return forName(readString(in));
+            case GENERATED: {
+                int id = in.readInt();
+                GeneratedCodec<?> codec = GeneratedCodecs.instance().get(id);
+                if (codec == null) {
+                    throw new SerializationException("没有找到编号为 " + id + " 的生成的编解码器");
+                }
+                return codec.read(in);
+            }
+            case SERIALIZABLE:
+                return readSerializable(in);
+            default:
+                throw new SerializationException("错误的类型标记 : " + tag);
+        }
+    }
+
+    private static void writeElements(ByteBuf out, Collection<?> values) throws SerializationException {
+        VarIntUtil.writeVarInt(out, values.size());
+        for (Object value : values) {
+            writeValue(out, value);
+        }
+    }
+
+    private static void readElements(ByteBuf in, Collection<Object> values, int size) throws SerializationException {
+        for (int i = 0; i < size; i++) {
+            values.add(readValue(in));
+        }
+    }
+
+    private static void writeEntries(ByteBuf out, Map<?, ?> map) throws SerializationException {
+        VarIntUtil.writeVarInt(out, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeValue(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static void readEntries(ByteBuf in, Map<Object, Object> map, int size) throws SerializationException {
+        for (int i = 0; i < size; i++) {
+            map.put(readValue(in), readValue(in));
+        }
+    }
+
+    private static int capacity(int size) {
+        return size < 3 ? size + 1 : (int) (size / 0.75F + 1.0F);
+    }
+
+    private static Object enumConstant(Class<?> type, String name) throws SerializationException {
+        if (!type.isEnum()) {
+            throw new SerializationException(type.getName() + " 不是枚举");
+        }
+        for (Object constant : type.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(name)) {
+                return constant;
+            }
+        }
+        throw new SerializationException("枚举 " + type.getName() + " 中没有常量 : " + name);
+    }
+
+    /**
+     * 使用jdk序列化写入，先写4个字节的长度
+     * @param out
+     * @param value
+     * @throws SerializationException
+     */
+    private static void writeSerializable(ByteBuf out, Object value) throws SerializationException {
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(new ByteBufOutputStream(out))) {
+            outputStream.writeObject(value);
+        } catch (IOException e) {
+            throw new SerializationException(e.getMessage(), e);
+        }
+        out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+    }
+
+    private static Object readSerializable(ByteBuf in) throws SerializationException {
+        int length = in.readInt();
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteBufInputStream(in.readSlice(length)))) {
+            return inputStream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new SerializationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按照类名加载类，支持基本类型
+     * @param name
+     * @return
+     * @throws SerializationException
+     */
+    public static Class<?> forName(String name) throws SerializationException {
+        if (name == null) {
+            return null;
+        }
+        Class<?> primitive = PRIMITIVES.get(name);
+        if (primitive != null) {
+            return primitive;
+        }
+        try {
+            return Class.forName(name, false, Thread.currentThread().getContextClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new SerializationException("找不到类 : " + name, e);
+        }
+    }
+}
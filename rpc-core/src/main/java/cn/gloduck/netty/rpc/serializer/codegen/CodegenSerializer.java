@@ -0,0 +1,188 @@
+package cn.gloduck.netty.rpc.serializer.codegen;
+
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
+import cn.gloduck.netty.rpc.codec.RpcBatchResponse;
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.codec.RpcResponse;
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import cn.gloduck.netty.rpc.serializer.RpcSerializer;
+import cn.gloduck.netty.rpc.serializer.jdk.JdKSerializer;
+import cn.gloduck.netty.rpc.utils.VarIntUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.io.Serializable;
+
+/**
+ * 使用编译期生成的编解码器的序列化器。请求、响应和批量消息的字段按照固定的顺序直接写入，
+ * 参数和返回值中有生成的编解码器的类型（见{@link GeneratedCodec}）不经过反射，其他类型见{@link CodecIO#writeValue(ByteBuf, Object)}。
+ * 握手等其他消息使用jdk序列化
+ * @author Gloduck
+ */
+public class CodegenSerializer implements RpcSerializer {
+    private final JdKSerializer fallback = new JdKSerializer();
+
+    @Override
+    public <T extends Serializable> byte[] encode(T obj) throws SerializationException {
+        ByteBuf out = Unpooled.buffer();
+        try {
+            encode(obj, out);
+            return ByteBufUtil.getBytes(out);
+        } finally {
+            out.release();
+        }
+    }
+
+    @Override
+    public <T extends Serializable> void encode(T obj, ByteBuf out) throws SerializationException {
+        if (obj instanceof RpcRequest) {
+            writeRequest(out, (RpcRequest) obj);
+        } else if (obj instanceof RpcResponse) {
+            writeResponse(out, (RpcResponse) obj);
+        } else if (obj instanceof RpcBatchRequest) {
+            RpcBatchRequest batch = (RpcBatchRequest) obj;
+            RpcRequest[] requests = batch.getRequests();
+            long[] ids = batch.getIds();
+            VarIntUtil.writeVarInt(out, requests.length);
+            for (int i = 0; i < requests.length; i++) {
+                VarIntUtil.writeVarLong(out, ids[i]);
+                writeRequest(out, requests[i]);
+            }
+        } else if (obj instanceof RpcBatchResponse) {
+            RpcBatchResponse batch = (RpcBatchResponse) obj;
+            RpcResponse[] responses = batch.getResponses();
+            long[] ids = batch.getIds();
+            VarIntUtil.writeVarInt(out, responses.length);
+            for (int i = 0; i < responses.length; i++) {
+                VarIntUtil.writeVarLong(out, ids[i]);
+                writeResponse(out, responses[i]);
+            }
+        } else {
+            fallback.encode(obj, out);
+        }
+    }
+
+    @Override
+    public <T extends Serializable> T decode(byte[] bytes, Class<T> classz) throws SerializationException {
+        return decode(Unpooled.wrappedBuffer(bytes), classz);
+    }
+
+    @Override
+    public <T extends Serializable> T decode(ByteBuf in, Class<T> classz) throws SerializationException {
+        // 使用duplicate，不修改原始的读索引
+        ByteBuf body = in.duplicate();
+        Object message;
+        try {
+            if (classz == RpcRequest.class) {
+                message = readRequest(body);
+            } else if (classz == RpcResponse.class) {
+                message = readResponse(body);
+            } else if (classz == RpcBatchRequest.class) {
+                int size = VarIntUtil.readVarInt(body);
+                RpcRequest[] requests = new RpcRequest[size];
+                long[] ids = new long[size];
+                for (int i = 0; i < size; i++) {
+                    ids[i] = VarIntUtil.readVarLong(body);
+                    requests[i] = readRequest(body);
+                }
+                RpcBatchRequest batch = new RpcBatchRequest();
+                batch.setRequests(requests);
+                batch.setIds(ids);
+                message = batch;
+            } else if (classz == RpcBatchResponse.class) {
+                int size = VarIntUtil.readVarInt(body);
+                RpcResponse[] responses = new RpcResponse[size];
+                long[] ids = new long[size];
+                for (int i = 0; i < size; i++) {
+                    ids[i] = VarIntUtil.readVarLong(body);
+                    responses[i] = readResponse(body);
+                }
+                RpcBatchResponse batch = new RpcBatchResponse();
+                batch.setResponses(responses);
+                batch.setIds(ids);
+                message = batch;
+            } else {
+                return fallback.decode(in, classz);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new SerializationException("消息体不完整", e);
+        }
+        return classz.cast(message);
+    }
+
+    private static void writeRequest(ByteBuf out, RpcRequest request) throws SerializationException {
+        CodecIO.writeString(out, request.getRequestId());
+        CodecIO.writeString(out, request.getServiceName());
+        VarIntUtil.writeVarInt(out, request.getMethodId());
+        Class<?>[] parameterTypes = request.getParameterTypes();
+        if (parameterTypes == null) {
+            out.writeByte(0);
+        } else {
+            VarIntUtil.writeVarInt(out, parameterTypes.length + 1);
+            for (Class<?> parameterType : parameterTypes) {
+                CodecIO.writeString(out, parameterType.getName());
+            }
+        }
+        Object[] parameters = request.getParameters();
+        if (parameters == null) {
+            out.writeByte(0);
+        } else {
+            VarIntUtil.writeVarInt(out, parameters.length + 1);
+            for (Object parameter : parameters) {
+                CodecIO.writeValue(out, parameter);
+            }
+        }
+    }
+
+    private static RpcRequest readRequest(ByteBuf in) throws SerializationException {
+        RpcRequest request = RpcRequest.newInstance();
+        request.setRequestId(CodecIO.readString(in));
+        request.setServiceName(CodecIO.readString(in));
+        request.setMethodId(VarIntUtil.readVarInt(in));
+        int typeCount = VarIntUtil.readVarInt(in) - 1;
+        if (typeCount >= 0) {
+            Class<?>[] parameterTypes = new Class<?>[typeCount];
+            for (int i = 0; i < typeCount; i++) {
+                parameterTypes[i] = CodecIO.forName(CodecIO.readString(in));
+            }
+            request.setParameterTypes(parameterTypes);
+        }
+        int parameterCount = VarIntUtil.readVarInt(in) - 1;
+        if (parameterCount >= 0) {
+            Object[] parameters = new Object[parameterCount];
+            for (int i = 0; i < parameterCount; i++) {
+                parameters[i] = CodecIO.readValue(in);
+            }
+            request.setParameters(parameters);
+        }
+        return request;
+    }
+
+    private static void writeResponse(ByteBuf out, RpcResponse response) throws SerializationException {
+        CodecIO.writeString(out, response.getRequestId());
+        Integer code = response.getCode();
+        // 状态码加1，0表示null
+        VarIntUtil.writeVarInt(out, code == null ? 0 : code + 1);
+        CodecIO.writeString(out, response.getMessage());
+        CodecIO.writeValue(out, response.getData());
+    }
+
+    private static RpcResponse readResponse(ByteBuf in) throws SerializationException {
+        String requestId = CodecIO.readString(in);
+        int code = VarIntUtil.readVarInt(in) - 1;
+        String message = CodecIO.readString(in);
+        Object data = CodecIO.readValue(in);
+        RpcResponse response = RpcResponse.newInstance();
+        response.setRequestId(requestId);
+        response.setCode(code < 0 ? null : code);
+        response.setMessage(message);
+        response.setData(data);
+        return response;
+    }
+
+    @Override
+    public byte serializerTypeCode() {
+        return 8;
+    }
+}
@@ -0,0 +1,34 @@
+package cn.gloduck.netty.rpc.serializer.codegen;
+
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 编译期生成的编解码器，由rpc-codegen模块的注解处理器为{@code @RpcService}和{@code @RpcReference}方法的参数、返回值类型生成。
+ * 生成的类和类型在同一个包中，类名为类型的二进制名加上{@link GeneratedCodecs#SUFFIX}，
+ * 按照字段的声明顺序直接读写字段，不经过反射
+ * @author Gloduck
+ */
+public interface GeneratedCodec<T> {
+    /**
+     * 编解码的类型，只处理运行时类型和该类型完全一致的对象
+     * @return
+     */
+    Class<T> type();
+
+    /**
+     * 写入对象的字段
+     * @param out
+     * @param value 不为null
+     * @throws SerializationException
+     */
+    void write(ByteBuf out, T value) throws SerializationException;
+
+    /**
+     * 读取对象的字段
+     * @param in
+     * @return
+     * @throws SerializationException
+     */
+    T read(ByteBuf in) throws SerializationException;
+}
@@ -0,0 +1,164 @@
+package cn.gloduck.netty.rpc.serializer.codegen;
+
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 生成的编解码器的注册表。启动时通过{@link ServiceLoader}加载注解处理器登记的编解码器，
+ * 编码时遇到没有登记的类再按照命名规则查找一次。
+ * 编解码器的编号是类名的哈希，两端不需要同步注册顺序，编号冲突时直接报错
+ * @author Gloduck
+ */
+public class GeneratedCodecs {
+    private static final Logger logger = LoggerFactory.getLogger(GeneratedCodecs.class);
+    /**
+     * 生成的编解码器的类名后缀
+     */
+    public static final String SUFFIX = "$$RpcCodec";
+    /**
+     * 没有生成编解码器的类，避免重复查找
+     */
+    private static final GeneratedCodec<?> NONE = new GeneratedCodec<Object>() {
+        @Override
+        public Class<Object> type() {
+            return Object.class;
+        }
+
+        @Override
+        public void write(ByteBuf out, Object value) throws SerializationException {
+            throw new SerializationException("没有生成的编解码器");
+        }
+
+        @Override
+        public Object read(ByteBuf in) throws SerializationException {
+            throw new SerializationException("没有生成的编解码器");
+        }
+    };
+    private static final GeneratedCodecs instance = new GeneratedCodecs();
+
+    public static GeneratedCodecs instance(){
+        return instance;
+    }
+
+    private final ConcurrentMap<Class<?>, GeneratedCodec<?>> codecs;
+    private final ConcurrentMap<Integer, GeneratedCodec<?>> ids;
+
+    private GeneratedCodecs() {
+        this.codecs = new ConcurrentHashMap<>(64);
+        this.ids = new ConcurrentHashMap<>(64);
+        try {
+            for (GeneratedCodec<?> codec : ServiceLoader.load(GeneratedCodec.class, GeneratedCodecs.class.getClassLoader())) {
+                register(codec);
+            }
+        } catch (ServiceConfigurationError e) {
+            logger.warn("加载生成的编解码器失败 : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 注册编解码器
+     * @param codec
+     * @throws IllegalStateException 编号和已经注册的类冲突
+     */
+    public synchronized void register(GeneratedCodec<?> codec){
+        Class<?> type = codec.type();
+        int id = id(type);
+        GeneratedCodec<?> exist = ids.get(id);
+        if(exist != null && exist.type() != type){
+            throw new IllegalStateException(String.format("类 %s 和 %s 的编解码器编号冲突 : %d", type.getName(), exist.type().getName(), id));
+        }
+        ids.put(id, codec);
+        codecs.put(type, codec);
+        logger.debug("注册生成的编解码器 : {} , 编号为 : {}", type.getName(), id);
+    }
+
+    /**
+     * 加载方法的参数和返回值类型的编解码器。解码时只能按照编号查找已经加载的编解码器，
+     * 没有通过{@link ServiceLoader}登记的编解码器在注册服务和引用时加载
+     * @param method
+     */
+    public void registerMethod(Method method){
+        for (Type type : method.getGenericParameterTypes()) {
+            registerType(type);
+        }
+        registerType(method.getGenericReturnType());
+    }
+
+    private void registerType(Type type){
+        if(type instanceof Class){
+            Class<?> clazz = (Class<?>) type;
+            if(clazz.isArray()){
+                registerType(clazz.getComponentType());
+            } else {
+                get(clazz);
+            }
+        } else if(type instanceof ParameterizedType){
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            registerType(parameterizedType.getRawType());
+            for (Type argument : parameterizedType.getActualTypeArguments()) {
+                registerType(argument);
+            }
+        } else if(type instanceof GenericArrayType){
+            registerType(((GenericArrayType) type).getGenericComponentType());
+        }
+    }
+
+    /**
+     * 获取类的编解码器
+     * @param type
+     * @return 没有生成编解码器时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> GeneratedCodec<T> get(Class<T> type){
+        GeneratedCodec<?> codec = codecs.get(type);
+        if(codec == null){
+            codec = load(type);
+        }
+        return codec == NONE ? null : (GeneratedCodec<T>) codec;
+    }
+
+    /**
+     * 按照编号获取编解码器
+     * @param id
+     * @return 没有注册时返回null
+     */
+    public GeneratedCodec<?> get(int id){
+        return ids.get(id);
+    }
+
+    private GeneratedCodec<?> load(Class<?> type){
+        if(type.isPrimitive() || type.isArray() || type.getName().startsWith("java.")){
+            codecs.putIfAbsent(type, NONE);
+            return NONE;
+        }
+        try {
+            Class<?> codecClass = Class.forName(type.getName() + SUFFIX, true, type.getClassLoader());
+            GeneratedCodec<?> codec = (GeneratedCodec<?>) codecClass.getConstructor().newInstance();
+            if(codec.type() == type){
+                register(codec);
+                return codec;
+            }
+        } catch (ClassNotFoundException e) {
+            // 没有生成编解码器
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            logger.warn("创建类 {} 的编解码器失败 : {}", type.getName(), e.getMessage());
+        }
+        codecs.putIfAbsent(type, NONE);
+        return NONE;
+    }
+
+    static int id(Class<?> type){
+        return type.getName().hashCode();
+    }
+}
@@ -0,0 +1,234 @@
+package cn.gloduck.netty.rpc.serializer.jdk;
+
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import cn.gloduck.netty.rpc.serializer.ByteBufSink;
+import cn.gloduck.netty.rpc.serializer.ByteBufSource;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在连接上缓存类描述的jdk序列化器。
+ * jdk序列化每个流都要写一遍流头和用到的所有类描述（类名、serialVersionUID和字段列表），
+ * 这里每个帧仍然是一个独立的对象流，对象引用不会跨帧共享，但是去掉了流头，
+ * 类描述第一次出现时写完整内容并分配编号，之后同一个连接上只写编号。
+ * 每个方向的编号由发送方分配，和完整的类描述一起写出，接收方按照写出的编号记录。
+ * 只写编号的帧必须在定义该编号的帧之后解码，所以{@link cn.gloduck.netty.rpc.codec.RpcFragmentHandler}不会打乱使用该序列化器的帧的顺序。
+ * 该类保存连接的状态，不是线程安全的，每个连接使用一个实例（{@link cn.gloduck.netty.rpc.serializer.SerializerRegistry}就是按连接创建的），
+ * 只在连接的事件循环中使用。格式和{@link JdKSerializer}不兼容，所以使用单独的序列化器编号
+ * @author Gloduck
+ */
+public class FastJdkSerializer extends JdKSerializer {
+    /**
+     * 类描述之前写入的标记，后面跟着分配的编号，非负数表示已经发送过的类描述编号
+     */
+    private static final short NEW_DESCRIPTOR = -1;
+    /**
+     * 编号用完后不再缓存，每次写完整的类描述
+     */
+    private static final short UNCACHED_DESCRIPTOR = -2;
+    private static final int MAX_DESCRIPTORS = Short.MAX_VALUE;
+
+    /**
+     * 发送方向已经发送过的类和编号
+     */
+    private final Map<Class<?>, Integer> sentIds;
+    private final List<Class<?>> sent;
+    /**
+     * 接收方向按照编号记录的类描述，以及解析出的类，还没有解析的类为null
+     */
+    private final List<ObjectStreamClass> received;
+    private final Map<ObjectStreamClass, Class<?>> resolved;
+    private final ByteBufSink sink;
+    private final ByteBufSource source;
+
+    public FastJdkSerializer() {
+        this.sentIds = new IdentityHashMap<>();
+        this.sent = new ArrayList<>();
+        this.received = new ArrayList<>();
+        this.resolved = new IdentityHashMap<>();
+        this.sink = new ByteBufSink();
+        this.source = new ByteBufSource();
+    }
+
+    @Override
+    public <T extends Serializable> byte[] encode(T obj) throws SerializationException {
+        ByteBuf out = Unpooled.buffer();
+        encode(obj, out);
+        byte[] bytes = new byte[out.readableBytes()];
+        out.readBytes(bytes);
+        return bytes;
+    }
+
+    @Override
+    public <T extends Serializable> void encode(T obj, ByteBuf out) throws SerializationException {
+        int mark = mark();
+        boolean success = false;
+        try {
+            DescriptorOutputStream outputStream = new DescriptorOutputStream(sink.bind(out));
+            outputStream.writeObject(obj);
+            outputStream.flush();
+            success = true;
+        } catch (NotSerializableException e) {
+            throw new SerializationException("当前对象无法被序列化，可能成员变量没有实现Serializable接口");
+        } catch (IOException e) {
+            throw new SerializationException(e.getMessage(), e.getCause());
+        } finally {
+            sink.bind(null);
+            if (!success) {
+                // 帧没有发出去，对端不知道这次分配的编号
+                rollback(mark);
+            }
+        }
+    }
+
+    @Override
+    public int mark() {
+        return sent.size();
+    }
+
+    /**
+     * 撤销标记之后分配的类描述编号，帧没有发出去时对端不知道这些编号
+     * @param mark
+     */
+    @Override
+    public void rollback(int mark) {
+        for (int i = sent.size() - 1; i >= mark; i--) {
+            sentIds.remove(sent.remove(i));
+        }
+    }
+
+    @Override
+    public <T extends Serializable> T decode(byte[] bytes, Class<T> classz) throws SerializationException {
+        return decode(Unpooled.wrappedBuffer(bytes), classz);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> T decode(ByteBuf in, Class<T> classz) throws SerializationException {
+        try {
+            // 使用duplicate，不修改原始的读索引
+            DescriptorInputStream inputStream = new DescriptorInputStream(source.bind(in.duplicate()));
+            Object readObject = inputStream.readObject();
+            if (!classz.isInstance(readObject)) {
+                throw new SerializationException("类型不匹配");
+            }
+            return (T) readObject;
+        } catch (NotSerializableException e) {
+            throw new SerializationException("当前对象无法被反序列化，可能成员变量没有实现Serializable接口");
+        } catch (IOException | ClassNotFoundException e) {
+            throw new SerializationException(e.getMessage(), e.getCause());
+        } finally {
+            source.bind(null);
+        }
+    }
+
+    @Override
+    public byte serializerTypeCode() {
+        return 7;
+    }
+
+    /**
+     * 不写流头，类描述只在连接上第一次出现时完整写出
+     */
+    private final class DescriptorOutputStream extends ObjectOutputStream {
+
+        private DescriptorOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeStreamHeader() {
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            Class<?> clazz = desc.forClass();
+            Integer id = sentIds.get(clazz);
+            if (id != null) {
+                writeShort(id);
+                return;
+            }
+            if (sent.size() < MAX_DESCRIPTORS) {
+                int newId = sent.size();
+                sentIds.put(clazz, newId);
+                sent.add(clazz);
+                writeShort(NEW_DESCRIPTOR);
+                writeShort(newId);
+            } else {
+                writeShort(UNCACHED_DESCRIPTOR);
+            }
+            super.writeClassDescriptor(desc);
+        }
+    }
+
+    /**
+     * 按照发送方的编号读取类描述，已经解析过的类直接使用
+     */
+    private final class DescriptorInputStream extends ObjectInputStream {
+
+        private DescriptorInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected void readStreamHeader() {
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            short id = readShort();
+            if (id >= 0) {
+                ObjectStreamClass desc = id < received.size() ? received.get(id) : null;
+                if (desc == null) {
+                    throw new StreamCorruptedException("未知的类描述编号 : " + id);
+                }
+                return desc;
+            }
+            if (id == UNCACHED_DESCRIPTOR) {
+                return super.readClassDescriptor();
+            }
+            if (id != NEW_DESCRIPTOR) {
+                throw new StreamCorruptedException("错误的类描述标记 : " + id);
+            }
+            short newId = readShort();
+            if (newId < 0) {
+                throw new StreamCorruptedException("错误的类描述编号 : " + newId);
+            }
+            ObjectStreamClass desc = super.readClassDescriptor();
+            while (received.size() <= newId) {
+                received.add(null);
+            }
+            received.set(newId, desc);
+            resolved.put(desc, null);
+            return desc;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            Class<?> clazz = resolved.get(desc);
+            if (clazz != null) {
+                return clazz;
+            }
+            clazz = super.resolveClass(desc);
+            if (resolved.containsKey(desc)) {
+                // 只缓存有编号的类描述，serialVersionUID在每次读取时仍然会校验
+                resolved.put(desc, clazz);
+            }
+            return clazz;
+        }
+    }
+}
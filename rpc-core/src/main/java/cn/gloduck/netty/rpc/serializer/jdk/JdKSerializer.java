@@ -3,6 +3,9 @@ package cn.gloduck.netty.rpc.serializer.jdk;
 import cn.gloduck.netty.rpc.exception.SerializationException;
 import cn.gloduck.netty.rpc.serializer.RpcSerializer;
 import cn.gloduck.netty.rpc.enums.Serializers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 
 import java.io.*;
 import java.lang.reflect.Array;
@@ -24,6 +27,20 @@ public class JdKSerializer implements RpcSerializer {
 
     }
 
+    @Override
+    public <T extends Serializable> void encode(T obj, ByteBuf out) throws SerializationException {
+        // ObjectOutputStream直接写入ByteBuf，不关闭流，ByteBuf由编码器负责释放
+        try {
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(new ByteBufOutputStream(out));
+            objectOutputStream.writeObject(obj);
+            objectOutputStream.flush();
+        }catch (NotSerializableException e) {
+            throw new SerializationException("当前对象无法被序列化，可能成员变量没有实现Serializable接口");
+        }catch(IOException e) {
+            throw new SerializationException(e.getMessage(), e.getCause());
+        }
+    }
+
     @Override
     public <T extends Serializable> T decode(byte[] bytes, Class<T> classz) throws SerializationException {
         T res = null;
@@ -44,6 +61,25 @@ public class JdKSerializer implements RpcSerializer {
         return res;
     }
 
+    @Override
+    public <T extends Serializable> T decode(ByteBuf in, Class<T> classz) throws SerializationException {
+        T res = null;
+        // 使用duplicate，不修改原始的读索引
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteBufInputStream(in.duplicate()))) {
+            Object readObject = objectInputStream.readObject();
+            if (!classz.isInstance(readObject)) {
+                throw new SerializationException("类型不匹配");
+            } else {
+                res = (T) readObject;
+            }
+        }catch (NotSerializableException e) {
+            throw new SerializationException("当前对象无法被反序列化，可能成员变量没有实现Serializable接口");
+        } catch (IOException | ClassNotFoundException e) {
+            throw new SerializationException(e.getMessage(), e.getCause());
+        }
+        return res;
+    }
+
     @Override
     public byte serializerTypeCode() {
         return 0;
@@ -3,25 +3,83 @@ package cn.gloduck.netty.rpc.serializer.json;
 import cn.gloduck.netty.rpc.exception.SerializationException;
 import cn.gloduck.netty.rpc.serializer.RpcSerializer;
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
 import com.alibaba.fastjson.parser.Feature;
 import com.alibaba.fastjson.serializer.SerializeConfig;
+import com.alibaba.fastjson.serializer.SerializeFilter;
 import com.alibaba.fastjson.serializer.SerializerFeature;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 public class FastJsonSerializer implements RpcSerializer {
+    private static final SerializeFilter[] NO_FILTERS = new SerializeFilter[0];
+
+    private final SerializeFilter[] filters;
+    private final SerializerFeature[] serializerFeatures;
+    private final Feature[] parserFeatures;
+
     public FastJsonSerializer() {
+        this(NO_FILTERS, new SerializerFeature[]{SerializerFeature.SkipTransientField, SerializerFeature.WriteClassName},
+                new Feature[]{Feature.SupportAutoType});
+    }
 
+    protected FastJsonSerializer(SerializeFilter[] filters, SerializerFeature[] serializerFeatures, Feature[] parserFeatures) {
+        this.filters = filters;
+        this.serializerFeatures = serializerFeatures;
+        this.parserFeatures = parserFeatures;
     }
 
     @Override
     public <T extends Serializable> byte[] encode(T obj) throws SerializationException {
-        return JSON.toJSONBytes(obj, SerializerFeature.SkipTransientField, SerializerFeature.WriteClassName);
+        return JSON.toJSONBytes(obj, SerializeConfig.globalInstance, filters, JSON.DEFAULT_GENERATE_FEATURE, serializerFeatures);
+    }
+
+    @Override
+    public <T extends Serializable> void encode(T obj, ByteBuf out) throws SerializationException {
+        try {
+            JSON.writeJSONString(new ByteBufOutputStream(out), StandardCharsets.UTF_8, obj, SerializeConfig.globalInstance, filters, null, JSON.DEFAULT_GENERATE_FEATURE, serializerFeatures);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
     }
 
     @Override
     public <T extends Serializable> T decode(byte[] bytes, Class<T> classz) throws SerializationException {
-        return JSON.parseObject(new String(bytes), classz, Feature.SupportAutoType);
+        try {
+            // 直接按UTF-8解析字节数组，不产生中间的String
+            return bind(JSON.parseObject(bytes, 0, bytes.length, StandardCharsets.UTF_8, classz, parserFeatures));
+        } catch (JSONException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    @Override
+    public <T extends Serializable> T decode(ByteBuf in, Class<T> classz) throws SerializationException {
+        try {
+            if (in.hasArray()) {
+                // 堆内存直接在底层数组上按UTF-8解析，不产生中间的String
+                return bind(JSON.parseObject(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes(), StandardCharsets.UTF_8, classz, parserFeatures));
+            }
+            // 直接内存通过流读取，fastjson内部使用线程缓存的缓冲区
+            return bind(JSON.parseObject(new ByteBufInputStream(in.duplicate()), StandardCharsets.UTF_8, classz, parserFeatures));
+        } catch (IOException | JSONException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    /**
+     * 解码完成后对消息的处理，默认原样返回
+     * @param message
+     * @param <T>
+     * @return
+     */
+    protected <T> T bind(T message) {
+        return message;
     }
 
     @Override
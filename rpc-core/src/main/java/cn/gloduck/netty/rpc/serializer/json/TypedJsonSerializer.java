@@ -0,0 +1,108 @@
+package cn.gloduck.netty.rpc.serializer.json;
+
+import cn.gloduck.netty.rpc.codec.DeferredValue;
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
+import cn.gloduck.netty.rpc.codec.RpcBatchResponse;
+import cn.gloduck.netty.rpc.codec.RpcMessage;
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.codec.RpcResponse;
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.parser.Feature;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.serializer.PropertyPreFilter;
+import com.alibaba.fastjson.serializer.SerializeFilter;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.alibaba.fastjson.util.TypeUtils;
+
+import java.lang.reflect.Type;
+
+/**
+ * 不写类名的fastjson序列化器。参数和返回值只写值本身，解码时先用{@link DeferredValue}占位，
+ * 由知道方法签名的一方按照声明的类型（包括泛型参数）绑定，服务端使用{@link cn.gloduck.netty.rpc.ref.server.BeanAndMethod}缓存的类型，
+ * 客户端使用请求中的返回值类型。解码时不需要开启autoType。
+ * 值的运行时类型是声明类型的子类时，子类特有的字段会丢失。
+ * 格式和{@link FastJsonSerializer}不兼容，所以使用单独的序列化器编号
+ * @author Gloduck
+ */
+public class TypedJsonSerializer extends FastJsonSerializer {
+    /**
+     * messageType由消息头决定，不需要写入消息体
+     */
+    private static final PropertyPreFilter SKIP_MESSAGE_TYPE = (serializer, object, name) -> !(object instanceof RpcMessage && "messageType".equals(name));
+
+    public TypedJsonSerializer() {
+        super(new SerializeFilter[]{SKIP_MESSAGE_TYPE}, new SerializerFeature[]{SerializerFeature.SkipTransientField}, new Feature[0]);
+    }
+
+    @Override
+    protected <T> T bind(T message) {
+        if (message instanceof RpcRequest) {
+            bindParameters((RpcRequest) message);
+        } else if (message instanceof RpcResponse) {
+            bindData((RpcResponse) message);
+        } else if (message instanceof RpcBatchRequest) {
+            RpcRequest[] requests = ((RpcBatchRequest) message).getRequests();
+            if (requests != null) {
+                for (RpcRequest request : requests) {
+                    bindParameters(request);
+                }
+            }
+        } else if (message instanceof RpcBatchResponse) {
+            RpcResponse[] responses = ((RpcBatchResponse) message).getResponses();
+            if (responses != null) {
+                for (RpcResponse response : responses) {
+                    bindData(response);
+                }
+            }
+        }
+        return message;
+    }
+
+    private static void bindParameters(RpcRequest request) {
+        Object[] parameters = request.getParameters();
+        if (parameters == null) {
+            return;
+        }
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] != null) {
+                parameters[i] = new JsonValue(parameters[i]);
+            }
+        }
+    }
+
+    private static void bindData(RpcResponse response) {
+        if (response.getData() != null) {
+            response.setData(new JsonValue(response.getData()));
+        }
+    }
+
+    @Override
+    public byte serializerTypeCode() {
+        return 6;
+    }
+
+    /**
+     * 没有类型信息的json值，数字、字符串或者JSONObject、JSONArray
+     */
+    private static final class JsonValue implements DeferredValue {
+        private final Object value;
+
+        private JsonValue(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object resolve(Type type) throws SerializationException {
+            if (type == null || type == Object.class) {
+                // 不知道类型时返回json本身
+                return value;
+            }
+            try {
+                return TypeUtils.cast(value, type, ParserConfig.getGlobalInstance());
+            } catch (JSONException | ClassCastException | NumberFormatException e) {
+                throw new SerializationException("按照类型 " + type.getTypeName() + " 绑定失败", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package cn.gloduck.netty.rpc.serializer.kryo;
+
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+import io.netty.buffer.ByteBuf;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 使用{@link KryoRegistry}注册类的kryo序列化器。
+ * 消息类和RPC方法的参数、返回值类型都使用固定的编号注册，帧中只写编号不写类名。
+ * 编号和{@link KryoSerializer}不兼容，所以使用单独的序列化器编号。
+ * 每个连接使用一个实例，握手时记录对端注册过的类，只有双方都注册过的类写编号，其他类写类名，
+ * 握手完成前（以及v1协议的连接）所有按类名计算编号的类都写类名
+ * @author Gloduck
+ */
+public class FastKryoSerializer extends KryoSerializer {
+    /**
+     * 对端注册过的类名，握手完成前为空
+     */
+    private volatile Set<String> peerClassNames = Collections.emptySet();
+    /**
+     * 类是否已经被对端注册的缓存，只在连接的事件循环中访问，对端的类名更新时重新创建
+     */
+    private volatile Map<Class<?>, Boolean> peerClasses = new IdentityHashMap<>();
+
+    @Override
+    protected Kryo newKryo() {
+        Kryo kryo = new Kryo(new RegistryClassResolver(), new MapReferenceResolver());
+        kryo.setReferences(false);
+        Kryo.DefaultInstantiatorStrategy strategy = (Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy();
+        strategy.setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+        return kryo;
+    }
+
+    @Override
+    KryoContext context() {
+        KryoContext context = super.context();
+        KryoRegistry registry = KryoRegistry.instance();
+        if(context.registryVersion != registry.version()){
+            // 有新注册的类，补充注册到当前线程的Kryo中
+            context.registryVersion = registry.applyTo(context.kryo);
+        }
+        return context;
+    }
+
+    /**
+     * 记录对端在握手中发送的类名，见{@link KryoRegistry#classNames()}
+     * @param classNames
+     */
+    public void setPeerClassNames(String[] classNames){
+        this.peerClassNames = classNames == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(classNames));
+        this.peerClasses = new IdentityHashMap<>();
+    }
+
+    boolean isRegisteredByPeer(Class<?> clazz){
+        Map<Class<?>, Boolean> peerClasses = this.peerClasses;
+        Boolean registered = peerClasses.get(clazz);
+        if(registered == null){
+            registered = peerClassNames.contains(clazz.getName());
+            peerClasses.put(clazz, registered);
+        }
+        return registered;
+    }
+
+    @Override
+    public <T extends Serializable> byte[] encode(T obj) throws SerializationException {
+        RegistryClassResolver resolver = resolver();
+        resolver.bind(this);
+        try {
+            return super.encode(obj);
+        } finally {
+            resolver.bind(null);
+        }
+    }
+
+    @Override
+    public <T extends Serializable> void encode(T obj, ByteBuf out) throws SerializationException {
+        RegistryClassResolver resolver = resolver();
+        resolver.bind(this);
+        try {
+            super.encode(obj, out);
+        } finally {
+            resolver.bind(null);
+        }
+    }
+
+    private RegistryClassResolver resolver(){
+        return (RegistryClassResolver) context().kryo.getClassResolver();
+    }
+
+    @Override
+    public byte serializerTypeCode() {
+        return 4;
+    }
+}
@@ -0,0 +1,93 @@
+package cn.gloduck.netty.rpc.serializer.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import cn.gloduck.netty.rpc.serializer.ByteBufSink;
+import cn.gloduck.netty.rpc.serializer.ByteBufSource;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 每个线程独占的Kryo和可复用的Input/Output。
+ * Output的缓冲区大小固定，写满后通过{@link ByteBufSink}写入目标ByteBuf；
+ * Input按照ByteBuf的类型直接包装数组或ByteBuffer，多个组件的ByteBuf通过{@link ByteBufSource}读取
+ * @author Gloduck
+ */
+final class KryoContext {
+    private static final int BUFFER_SIZE = 4096;
+    private static final byte[] EMPTY = new byte[0];
+    /**
+     * 重置{@link ByteBufferInput}使用的空缓冲区，只读取位置和容量，可以在线程之间共享。
+     * 不能使用{@link ByteBufferInput#setBuffer(byte[])}，它每次都会分配一个新的直接内存
+     */
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    final Kryo kryo;
+    /**
+     * 已经应用的{@link KryoRegistry}版本
+     */
+    int registryVersion;
+    private final Output output;
+    private final Input input;
+    /**
+     * input从流中读取时使用的缓冲区，直接包装数组时会被替换掉
+     */
+    private final byte[] inputBuffer;
+    private final ByteBufferInput byteBufferInput;
+    private final ByteBufSink sink;
+    private final ByteBufSource source;
+
+    KryoContext(Kryo kryo) {
+        this.kryo = kryo;
+        this.registryVersion = -1;
+        this.output = new Output(BUFFER_SIZE);
+        this.inputBuffer = new byte[BUFFER_SIZE];
+        this.input = new Input(inputBuffer);
+        this.byteBufferInput = new ByteBufferInput();
+        this.sink = new ByteBufSink();
+        this.source = new ByteBufSource();
+    }
+
+    /**
+     * 绑定写入的目标，使用完后需要调用{@link #releaseOutput()}
+     * @param out
+     * @return
+     */
+    Output output(ByteBuf out){
+        output.setOutputStream(sink.bind(out));
+        return output;
+    }
+
+    void releaseOutput(){
+        output.setOutputStream(null);
+        sink.bind(null);
+    }
+
+    /**
+     * 绑定读取的来源，使用完后需要调用{@link #releaseInput()}
+     * @param in
+     * @return
+     */
+    Input input(ByteBuf in){
+        if(in.hasArray()){
+            input.setBuffer(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes());
+            return input;
+        } else if(in.nioBufferCount() == 1){
+            // 直接内存，读取ByteBuffer视图
+            byteBufferInput.setBuffer(in.nioBuffer());
+            return byteBufferInput;
+        }
+        input.setBuffer(inputBuffer);
+        input.setInputStream(source.bind(in.duplicate()));
+        return input;
+    }
+
+    void releaseInput(){
+        input.setBuffer(EMPTY);
+        byteBufferInput.setBuffer(EMPTY_BUFFER);
+        source.bind(null);
+    }
+}
@@ -1,6 +1,9 @@
 package cn.gloduck.netty.rpc.serializer.kryo;
 
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
+import cn.gloduck.netty.rpc.codec.RpcBatchResponse;
 import cn.gloduck.netty.rpc.codec.RpcBeat;
+import cn.gloduck.netty.rpc.codec.RpcHandshake;
 import cn.gloduck.netty.rpc.codec.RpcRequest;
 import cn.gloduck.netty.rpc.codec.RpcResponse;
 import com.esotericsoftware.kryo.Kryo;
@@ -18,6 +21,12 @@ public class KryoPoolFactory {
         kryo.register(RpcResponse.class);
         kryo.register(RpcBeat.class);
         kryo.register(RpcBeat.class);
+        kryo.register(RpcHandshake.class);
+        kryo.register(RpcBatchRequest.class);
+        kryo.register(RpcBatchResponse.class);
+        kryo.register(RpcRequest[].class);
+        kryo.register(RpcResponse[].class);
+        kryo.register(long[].class);
         Kryo.DefaultInstantiatorStrategy strategy = (Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy();
         strategy.setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
         return kryo;
@@ -28,6 +37,15 @@ public class KryoPoolFactory {
     private KryoPoolFactory() {
     }
 
+    /**
+     * 创建一个和池中配置相同的Kryo，供线程独占使用
+     * @return
+     */
+    public static Kryo newKryo() {
+        getKryoPoolInstance();
+        return poolFactory.factory.create();
+    }
+
     public static KryoPool getKryoPoolInstance() {
         if (poolFactory == null) {
             synchronized (KryoPoolFactory.class) {
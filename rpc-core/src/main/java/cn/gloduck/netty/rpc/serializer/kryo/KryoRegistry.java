@@ -0,0 +1,204 @@
+package cn.gloduck.netty.rpc.serializer.kryo;
+
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
+import cn.gloduck.netty.rpc.codec.RpcBatchResponse;
+import cn.gloduck.netty.rpc.codec.RpcBeat;
+import cn.gloduck.netty.rpc.codec.RpcHandshake;
+import cn.gloduck.netty.rpc.codec.RpcPing;
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.codec.RpcResponse;
+import com.esotericsoftware.kryo.Kryo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link FastKryoSerializer}使用的类注册表。注册过的类在帧中只写一个编号，不再写类名。
+ * 框架的消息类使用固定编号，RPC方法的参数和返回值类型的编号由类名计算，和注册顺序无关，
+ * 所以客户端和服务端分别扫描同一个接口得到的编号是一致的。编号冲突时直接失败，不会按照注册顺序分配其他编号。
+ * 两端注册的类不一定相同，连接握手时交换各自注册的类名，只有双方都注册过的类写编号，见{@link FastKryoSerializer}
+ * @author Gloduck
+ */
+public class KryoRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(KryoRegistry.class);
+    private static final KryoRegistry instance = new KryoRegistry();
+    /**
+     * 固定编号的开始值，Kryo默认注册的基本类型占用了前面的编号
+     */
+    private static final int FIXED_ID_BASE = 16;
+    /**
+     * 按类名计算的编号的最小值和范围，编号写成varint基本上只占3个字节
+     */
+    private static final int STABLE_ID_MIN = 1024;
+    private static final int STABLE_ID_MASK = 0x1FFFFF;
+    /**
+     * 框架自身的包，这些包中的类有固定编号或者不经过序列化器，不需要注册
+     */
+    private static final String[] FRAMEWORK_PACKAGES = {
+            "cn.gloduck.netty.rpc.codec.", "cn.gloduck.netty.rpc.serializer.", "cn.gloduck.netty.rpc.transport.",
+            "cn.gloduck.netty.rpc.proxy.", "cn.gloduck.netty.rpc.enums.", "cn.gloduck.netty.rpc.constant.",
+            "cn.gloduck.netty.rpc.exception."
+    };
+
+    public static KryoRegistry instance(){
+        return instance;
+    }
+
+    /**
+     * 编号到类的映射，只在持有锁时修改
+     */
+    private final Map<Integer, Class<?>> classes;
+    private final Map<Class<?>, Integer> ids;
+    /**
+     * 每次注册新的类后加1，线程通过比较版本判断是否需要补充注册
+     */
+    private volatile int version;
+
+    private KryoRegistry() {
+        this.classes = new LinkedHashMap<>();
+        this.ids = new HashMap<>();
+        Class<?>[] fixed = {
+                RpcRequest.class, RpcResponse.class, RpcBeat.class, RpcHandshake.class,
+                RpcBatchRequest.class, RpcBatchResponse.class, RpcPing.class,
+                RpcRequest[].class, RpcResponse[].class, Object[].class, Class.class, Class[].class,
+                byte[].class, int[].class, long[].class, String[].class,
+                ArrayList.class, HashMap.class, LinkedHashMap.class
+        };
+        for (int i = 0; i < fixed.length; i++) {
+            classes.put(FIXED_ID_BASE + i, fixed[i]);
+            ids.put(fixed[i], FIXED_ID_BASE + i);
+        }
+    }
+
+    /**
+     * 注册方法的参数和返回值类型，包括泛型参数中的类型
+     * @param method
+     */
+    public synchronized void registerMethod(Method method){
+        Set<Class<?>> types = new LinkedHashSet<>();
+        for (Type type : method.getGenericParameterTypes()) {
+            collectType(type, types);
+        }
+        collectType(method.getGenericReturnType(), types);
+        for (Class<?> type : types) {
+            register(type);
+        }
+    }
+
+    private static void collectType(Type type, Set<Class<?>> types){
+        if(type instanceof Class){
+            Class<?> clazz = (Class<?>) type;
+            if(clazz.isArray()){
+                collectType(clazz.getComponentType(), types);
+            }
+            types.add(clazz);
+        } else if(type instanceof ParameterizedType){
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            collectType(parameterizedType.getRawType(), types);
+            for (Type argument : parameterizedType.getActualTypeArguments()) {
+                collectType(argument, types);
+            }
+        } else if(type instanceof GenericArrayType){
+            collectType(((GenericArrayType) type).getGenericComponentType(), types);
+        }
+    }
+
+    /**
+     * 按照类名计算编号并注册。基本类型、接口、抽象类和框架自身的类不需要注册
+     * @param clazz
+     * @throws IllegalStateException 编号和已经注册的类冲突
+     */
+    public synchronized void register(Class<?> clazz){
+        if(!registrable(clazz) || ids.containsKey(clazz)){
+            return;
+        }
+        int id = stableId(clazz.getName());
+        Class<?> exist = classes.get(id);
+        if(exist != null){
+            throw new IllegalStateException(String.format("类 %s 和 %s 的Kryo注册编号冲突 : %d", clazz.getName(), exist.getName(), id));
+        }
+        classes.put(id, clazz);
+        ids.put(clazz, id);
+        version++;
+        logger.debug("注册Kryo类 : {} , 编号为 : {}", clazz.getName(), id);
+    }
+
+    private static boolean registrable(Class<?> clazz){
+        if(clazz.isPrimitive() || clazz == Object.class || clazz == String.class){
+            return false;
+        }
+        if(clazz.isArray()){
+            return true;
+        }
+        if(clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())){
+            // 实际写出的是具体的类
+            return false;
+        }
+        String name = clazz.getName();
+        for (String frameworkPackage : FRAMEWORK_PACKAGES) {
+            if(name.startsWith(frameworkPackage)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int stableId(String className){
+        // 类名的哈希再做一次扰动，避免相似的类名集中在一起
+        int hash = className.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        int id = hash & STABLE_ID_MASK;
+        return id < STABLE_ID_MIN ? id + STABLE_ID_MIN : id;
+    }
+
+    /**
+     * 按类名计算编号注册的类名，握手时发送给对端
+     * @return
+     */
+    public synchronized String[] classNames(){
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<Integer, Class<?>> entry : classes.entrySet()) {
+            if(isStable(entry.getKey())){
+                names.add(entry.getValue().getName());
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * 编号是否由类名计算得到，这些类只有对端也注册过时才能写编号
+     * @param id
+     * @return
+     */
+    static boolean isStable(int id){
+        return id >= STABLE_ID_MIN;
+    }
+
+    int version(){
+        return version;
+    }
+
+    /**
+     * 把注册表中的类注册到kryo中
+     * @param kryo
+     * @return 应用的版本
+     */
+    synchronized int applyTo(Kryo kryo){
+        for (Map.Entry<Integer, Class<?>> entry : classes.entrySet()) {
+            kryo.register(entry.getValue(), entry.getKey());
+        }
+        return version;
+    }
+}
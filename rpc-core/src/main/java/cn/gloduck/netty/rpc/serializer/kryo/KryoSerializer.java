@@ -5,18 +5,47 @@ import cn.gloduck.netty.rpc.serializer.RpcSerializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
-import com.esotericsoftware.kryo.pool.KryoPool;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 
+/**
+ * kryo序列化器。
+ * 每个线程（事件循环或者业务线程）持有自己的Kryo和可复用的Input/Output，不再从全局的KryoPool中借用，
+ * 编解码ByteBuf时不会为每条消息分配缓冲区
+ * @author Gloduck
+ */
 public class KryoSerializer implements RpcSerializer {
-    private final KryoPool pool = KryoPoolFactory.getKryoPoolInstance();
+    private final FastThreadLocal<KryoContext> contexts = new FastThreadLocal<KryoContext>() {
+        @Override
+        protected KryoContext initialValue() {
+            return new KryoContext(newKryo());
+        }
+    };
+
+    /**
+     * 创建线程使用的Kryo
+     * @return
+     */
+    protected Kryo newKryo(){
+        return KryoPoolFactory.newKryo();
+    }
+
+    /**
+     * 获取当前线程的上下文，子类可以在这里补充注册
+     * @return
+     */
+    KryoContext context(){
+        return contexts.get();
+    }
+
     @Override
     public <T extends Serializable> byte[] encode(T obj) throws SerializationException {
-        Kryo kryo = pool.borrow();
+        Kryo kryo = context().kryo;
         byte[] bytes;
         try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream(); Output output = new Output(outputStream)){
             kryo.writeObject(output, obj);
@@ -24,26 +53,48 @@ public class KryoSerializer implements RpcSerializer {
             bytes = outputStream.toByteArray();
         } catch (IOException e){
             throw new SerializationException(e);
-        } finally {
-            pool.release(kryo);
         }
         return bytes;
     }
 
+    @Override
+    public <T extends Serializable> void encode(T obj, ByteBuf out) throws SerializationException {
+        KryoContext context = context();
+        try {
+            Output output = context.output(out);
+            context.kryo.writeObject(output, obj);
+            output.flush();
+        } catch (Exception e){
+            throw new SerializationException(e);
+        } finally {
+            context.releaseOutput();
+        }
+    }
+
     @Override
     public <T extends Serializable> T decode(byte[] bytes, Class<T> classz) throws SerializationException {
-        Kryo kryo = pool.borrow();
+        Kryo kryo = context().kryo;
         T obj;
         try (ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes); Input input = new Input(inputStream)){
             obj = kryo.readObject(input, classz);
         } catch (IOException e){
             throw new SerializationException(e);
-        } finally {
-            pool.release(kryo);
         }
         return obj;
     }
 
+    @Override
+    public <T extends Serializable> T decode(ByteBuf in, Class<T> classz) throws SerializationException {
+        KryoContext context = context();
+        try {
+            return context.kryo.readObject(context.input(in), classz);
+        } catch (Exception e){
+            throw new SerializationException(e);
+        } finally {
+            context.releaseInput();
+        }
+    }
+
     @Override
     public byte serializerTypeCode() {
         return 2;
@@ -0,0 +1,35 @@
+package cn.gloduck.netty.rpc.serializer.kryo;
+
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+
+/**
+ * {@link FastKryoSerializer}使用的类解析器。
+ * 按类名计算编号的类只有当前连接的对端也注册过时才写编号，否则和没有注册的类一样写类名，
+ * 读取时两种写法都可以识别。Kryo是线程独占的，编码前绑定当前连接的序列化器，编码后解除绑定
+ * @author Gloduck
+ */
+final class RegistryClassResolver extends DefaultClassResolver {
+    /**
+     * 正在编码的连接的序列化器，没有绑定时所有按类名计算编号的类都写类名
+     */
+    private FastKryoSerializer peer;
+
+    void bind(FastKryoSerializer peer){
+        this.peer = peer;
+    }
+
+    @Override
+    public Registration writeClass(Output output, Class type) {
+        if(type == null){
+            return super.writeClass(output, null);
+        }
+        Registration registration = kryo.getRegistration(type);
+        if(KryoRegistry.isStable(registration.getId()) && (peer == null || !peer.isRegisteredByPeer(type))){
+            writeName(output, type, registration);
+            return registration;
+        }
+        return super.writeClass(output, type);
+    }
+}
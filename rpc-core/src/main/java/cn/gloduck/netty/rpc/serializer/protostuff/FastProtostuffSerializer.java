@@ -0,0 +1,36 @@
+package cn.gloduck.netty.rpc.serializer.protostuff;
+
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
+import cn.gloduck.netty.rpc.codec.RpcBatchResponse;
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.codec.RpcResponse;
+import com.dyuproject.protostuff.Schema;
+
+/**
+ * 请求和响应使用手写Schema的protobuf序列化器，见{@link RpcMessageSchemas}。
+ * 参数和返回值按照方法声明的类型编码，不再为每个参数写类型名。
+ * 格式和{@link ProtostuffSerializer}不兼容，所以使用单独的序列化器编号
+ * @author Gloduck
+ */
+public class FastProtostuffSerializer extends ProtostuffSerializer {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <T> Schema<T> getSchema(Class<T> cls) {
+        if (cls == RpcRequest.class) {
+            return (Schema<T>) RpcMessageSchemas.REQUEST;
+        } else if (cls == RpcResponse.class) {
+            return (Schema<T>) RpcMessageSchemas.RESPONSE;
+        } else if (cls == RpcBatchRequest.class) {
+            return (Schema<T>) RpcMessageSchemas.BATCH_REQUEST;
+        } else if (cls == RpcBatchResponse.class) {
+            return (Schema<T>) RpcMessageSchemas.BATCH_RESPONSE;
+        }
+        return super.getSchema(cls);
+    }
+
+    @Override
+    public byte serializerTypeCode() {
+        return 5;
+    }
+}
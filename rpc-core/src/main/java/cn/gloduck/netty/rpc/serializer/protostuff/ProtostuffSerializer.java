@@ -1,11 +1,15 @@
 package cn.gloduck.netty.rpc.serializer.protostuff;
 
 import cn.gloduck.netty.rpc.exception.SerializationException;
+import cn.gloduck.netty.rpc.serializer.ByteBufSink;
+import cn.gloduck.netty.rpc.serializer.ByteBufSource;
 import cn.gloduck.netty.rpc.serializer.RpcSerializer;
 import com.dyuproject.protostuff.LinkedBuffer;
 import com.dyuproject.protostuff.ProtostuffIOUtil;
 import com.dyuproject.protostuff.Schema;
 import com.dyuproject.protostuff.runtime.RuntimeSchema;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
 import org.objenesis.Objenesis;
 import org.objenesis.ObjenesisStd;
 
@@ -15,10 +19,16 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * protobuf序列化器
- *
+ * 每个线程复用自己的LinkedBuffer和读写ByteBuf的流，编解码时不再为每条消息分配缓冲区
  * @author Gloduck
  */
 public class ProtostuffSerializer implements RpcSerializer {
+    private static final FastThreadLocal<ProtostuffContext> contexts = new FastThreadLocal<ProtostuffContext>() {
+        @Override
+        protected ProtostuffContext initialValue() {
+            return new ProtostuffContext();
+        }
+    };
     private final Map<Class<?>, Schema<?>> cachedSchema;
     private final Objenesis objenesis;
 
@@ -27,14 +37,14 @@ public class ProtostuffSerializer implements RpcSerializer {
         objenesis = new ObjenesisStd(true);
     }
     @SuppressWarnings("unchecked")
-    private <T> Schema<T> getSchema(Class<T> cls) {
+    protected <T> Schema<T> getSchema(Class<T> cls) {
         // for thread-safe
         return (Schema<T>) cachedSchema.computeIfAbsent(cls, RuntimeSchema::createFrom);
     }
     @Override
     public <T extends Serializable> byte[] encode(T obj) throws SerializationException {
         Class<T> cls = (Class<T>) obj.getClass();
-        LinkedBuffer buffer = LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        LinkedBuffer buffer = contexts.get().buffer;
         try {
             Schema<T> schema = getSchema(cls);
             return ProtostuffIOUtil.toByteArray(obj, schema, buffer);
@@ -45,6 +55,21 @@ public class ProtostuffSerializer implements RpcSerializer {
         }
     }
 
+    @Override
+    public <T extends Serializable> void encode(T obj, ByteBuf out) throws SerializationException {
+        Class<T> cls = (Class<T>) obj.getClass();
+        ProtostuffContext context = contexts.get();
+        try {
+            Schema<T> schema = getSchema(cls);
+            ProtostuffIOUtil.writeTo(context.sink.bind(out), obj, schema, context.buffer);
+        } catch (Exception e) {
+            throw new SerializationException(e);
+        } finally {
+            context.buffer.clear();
+            context.sink.bind(null);
+        }
+    }
+
     @Override
     public <T extends Serializable> T decode(byte[] bytes, Class<T> classz) throws SerializationException {
         try {
@@ -57,8 +82,40 @@ public class ProtostuffSerializer implements RpcSerializer {
         }
     }
 
+    @Override
+    public <T extends Serializable> T decode(ByteBuf in, Class<T> classz) throws SerializationException {
+        ProtostuffContext context = null;
+        try {
+            T message = (T) objenesis.newInstance(classz);
+            Schema<T> schema = getSchema(classz);
+            if (in.hasArray()) {
+                ProtostuffIOUtil.mergeFrom(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes(), message, schema);
+            } else {
+                context = contexts.get();
+                ProtostuffIOUtil.mergeFrom(context.source.bind(in.duplicate()), message, schema, context.buffer);
+            }
+            return message;
+        } catch (Exception e) {
+            throw new SerializationException(e.getMessage(), e);
+        } finally {
+            if (context != null) {
+                context.buffer.clear();
+                context.source.bind(null);
+            }
+        }
+    }
+
     @Override
     public byte serializerTypeCode() {
         return 3;
     }
+
+    /**
+     * 线程复用的缓冲区和流
+     */
+    private static final class ProtostuffContext {
+        private final LinkedBuffer buffer = LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        private final ByteBufSink sink = new ByteBufSink();
+        private final ByteBufSource source = new ByteBufSource();
+    }
 }
@@ -0,0 +1,441 @@
+package cn.gloduck.netty.rpc.serializer.protostuff;
+
+import cn.gloduck.netty.rpc.codec.DeferredValue;
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
+import cn.gloduck.netty.rpc.codec.RpcBatchResponse;
+import cn.gloduck.netty.rpc.codec.RpcRequest;
+import cn.gloduck.netty.rpc.codec.RpcResponse;
+import cn.gloduck.netty.rpc.exception.SerializationException;
+import com.dyuproject.protostuff.Input;
+import com.dyuproject.protostuff.LinkedBuffer;
+import com.dyuproject.protostuff.Output;
+import com.dyuproject.protostuff.ProtostuffIOUtil;
+import com.dyuproject.protostuff.Schema;
+import com.dyuproject.protostuff.runtime.RuntimeSchema;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link FastProtostuffSerializer}使用的手写Schema。
+ * 参数和返回值的运行时类型和方法声明的类型完全一致时，按照声明类型的Schema编码，不写类型名，
+ * 解码时先用{@link DeferredValue}占位，由知道方法签名的一方完成解码；其他情况按照动态类型编码
+ * @author Gloduck
+ */
+final class RpcMessageSchemas {
+    private RpcMessageSchemas() {
+    }
+
+    static final Schema<RpcRequest> REQUEST = new RequestSchema();
+    static final Schema<RpcResponse> RESPONSE = new ResponseSchema();
+    static final Schema<RpcBatchRequest> BATCH_REQUEST = new BatchRequestSchema();
+    static final Schema<RpcBatchResponse> BATCH_RESPONSE = new BatchResponseSchema();
+
+    /**
+     * 按照动态类型编码的值，使用运行时Schema写出类型
+     */
+    private static final Schema<ObjectHolder> HOLDER = RuntimeSchema.getSchema(ObjectHolder.class);
+    /**
+     * 按照声明类型编码单个值时使用的缓冲区，和外层消息使用的缓冲区分开
+     */
+    private static final FastThreadLocal<LinkedBuffer> valueBuffers = new FastThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        }
+    };
+
+    static final class ObjectHolder {
+        Object value;
+    }
+
+    /**
+     * 能否按照声明类型编码：运行时类型和声明类型一致，并且是可以生成运行时Schema的普通类
+     * @param value
+     * @param declaredType
+     * @return
+     */
+    private static boolean typed(Object value, Class<?> declaredType) {
+        if (declaredType == null || value.getClass() != declaredType) {
+            return false;
+        }
+        if (declaredType.isArray() || declaredType.isEnum() || declaredType.isPrimitive()
+                || Modifier.isAbstract(declaredType.getModifiers())) {
+            return false;
+        }
+        String name = declaredType.getName();
+        // 基本类型的包装类、字符串、集合等由动态编码处理，类型只占一个字段号
+        return !name.startsWith("java.") && !name.startsWith("javax.");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(Output output, Object value, Class<?> declaredType, int typedField, int dynamicField, boolean repeated) throws IOException {
+        if (typed(value, declaredType)) {
+            Schema<Object> schema = (Schema<Object>) RuntimeSchema.getSchema(declaredType);
+            LinkedBuffer buffer = valueBuffers.get();
+            try {
+                output.writeByteArray(typedField, ProtostuffIOUtil.toByteArray(value, schema, buffer), repeated);
+            } finally {
+                buffer.clear();
+            }
+        } else {
+            ObjectHolder holder = new ObjectHolder();
+            holder.value = value;
+            output.writeObject(dynamicField, holder, HOLDER, repeated);
+        }
+    }
+
+    private static Object readDynamic(Input input) throws IOException {
+        return input.mergeObject(new ObjectHolder(), HOLDER).value;
+    }
+
+    /**
+     * 按照声明类型编码的值
+     */
+    private static final class TypedValue implements DeferredValue {
+        private final byte[] bytes;
+
+        private TypedValue(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object resolve(Type type) throws SerializationException {
+            // 编码时只有非泛型的声明类型才会按照类型编码，带泛型参数时取原始类型
+            Type rawType = type instanceof ParameterizedType ? ((ParameterizedType) type).getRawType() : type;
+            if(!(rawType instanceof Class)){
+                throw new SerializationException("缺少值的类型 : " + type);
+            }
+            try {
+                Schema<Object> schema = (Schema<Object>) RuntimeSchema.getSchema((Class<?>) rawType);
+                Object value = schema.newMessage();
+                ProtostuffIOUtil.mergeFrom(bytes, value, schema);
+                return value;
+            } catch (RuntimeException e) {
+                throw new SerializationException("按照类型 " + type.getTypeName() + " 解码失败", e);
+            }
+        }
+    }
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>(16);
+
+    static {
+        for (Class<?> primitive : new Class<?>[]{boolean.class, byte.class, char.class, short.class,
+                int.class, long.class, float.class, double.class, void.class}) {
+            PRIMITIVES.put(primitive.getName(), primitive);
+        }
+    }
+
+    private static Class<?> forName(String name) throws IOException {
+        Class<?> primitive = PRIMITIVES.get(name);
+        if (primitive != null) {
+            return primitive;
+        }
+        try {
+            return Class.forName(name, false, Thread.currentThread().getContextClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("找不到参数类型 : " + name, e);
+        }
+    }
+
+    private abstract static class MessageSchema<T> implements Schema<T> {
+        private final Class<T> typeClass;
+
+        private MessageSchema(Class<T> typeClass) {
+            this.typeClass = typeClass;
+        }
+
+        @Override
+        public String getFieldName(int number) {
+            return Integer.toString(number);
+        }
+
+        @Override
+        public int getFieldNumber(String name) {
+            return Integer.parseInt(name);
+        }
+
+        @Override
+        public boolean isInitialized(T message) {
+            return true;
+        }
+
+        @Override
+        public String messageName() {
+            return typeClass.getSimpleName();
+        }
+
+        @Override
+        public String messageFullName() {
+            return typeClass.getName();
+        }
+
+        @Override
+        public Class<? super T> typeClass() {
+            return typeClass;
+        }
+    }
+
+    private static final class RequestSchema extends MessageSchema<RpcRequest> {
+        private static final int REQUEST_ID = 1;
+        private static final int SERVICE_NAME = 2;
+        private static final int METHOD_ID = 3;
+        private static final int PARAMETER_TYPE = 4;
+        private static final int PARAMETER_COUNT = 5;
+        private static final int TYPED_PARAMETER = 6;
+        private static final int DYNAMIC_PARAMETER = 7;
+        private static final int NULL_PARAMETER = 8;
+        private static final int TYPED_RESULT = 9;
+
+        private RequestSchema() {
+            super(RpcRequest.class);
+        }
+
+        @Override
+        public RpcRequest newMessage() {
+            return RpcRequest.newInstance();
+        }
+
+        @Override
+        public void writeTo(Output output, RpcRequest message) throws IOException {
+            if (message.getRequestId() != null) {
+                output.writeString(REQUEST_ID, message.getRequestId(), false);
+            }
+            if (message.getServiceName() != null) {
+                output.writeString(SERVICE_NAME, message.getServiceName(), false);
+            }
+            if (message.getMethodId() != 0) {
+                output.writeUInt32(METHOD_ID, message.getMethodId(), false);
+            }
+            Class<?>[] parameterTypes = message.getParameterTypes();
+            if (parameterTypes != null) {
+                for (Class<?> parameterType : parameterTypes) {
+                    output.writeString(PARAMETER_TYPE, parameterType.getName(), true);
+                }
+            }
+            Object[] parameters = message.getParameters();
+            if (parameters != null) {
+                output.writeUInt32(PARAMETER_COUNT, parameters.length, false);
+                Class<?>[] declaredTypes = message.getArgumentTypes() != null ? message.getArgumentTypes() : parameterTypes;
+                for (int i = 0; i < parameters.length; i++) {
+                    Object parameter = parameters[i];
+                    if (parameter == null) {
+                        output.writeBool(NULL_PARAMETER, true, true);
+                    } else {
+                        Class<?> declaredType = declaredTypes != null && i < declaredTypes.length ? declaredTypes[i] : null;
+                        writeValue(output, parameter, declaredType, TYPED_PARAMETER, DYNAMIC_PARAMETER, true);
+                    }
+                }
+            }
+            if (message.getResultType() != null) {
+                output.writeBool(TYPED_RESULT, true, false);
+            }
+        }
+
+        @Override
+        public void mergeFrom(Input input, RpcRequest message) throws IOException {
+            List<Class<?>> parameterTypes = null;
+            Object[] parameters = null;
+            int index = 0;
+            for (int number = input.readFieldNumber(this); number != 0; number = input.readFieldNumber(this)) {
+                switch (number) {
+                    case REQUEST_ID:
+                        message.setRequestId(input.readString());
+                        break;
+                    case SERVICE_NAME:
+                        message.setServiceName(input.readString());
+                        break;
+                    case METHOD_ID:
+                        message.setMethodId(input.readUInt32());
+                        break;
+                    case PARAMETER_TYPE:
+                        if (parameterTypes == null) {
+                            parameterTypes = new ArrayList<>();
+                        }
+                        parameterTypes.add(forName(input.readString()));
+                        break;
+                    case PARAMETER_COUNT:
+                        parameters = new Object[input.readUInt32()];
+                        break;
+                    case TYPED_PARAMETER:
+                        parameters[index++] = new TypedValue(input.readByteArray());
+                        break;
+                    case DYNAMIC_PARAMETER:
+                        parameters[index++] = readDynamic(input);
+                        break;
+                    case NULL_PARAMETER:
+                        input.readBool();
+                        parameters[index++] = null;
+                        break;
+                    case TYPED_RESULT:
+                        message.setTypedResult(input.readBool());
+                        break;
+                    default:
+                        input.handleUnknownField(number, this);
+                }
+            }
+            if (parameterTypes != null) {
+                message.setParameterTypes(parameterTypes.toArray(new Class<?>[0]));
+            }
+            message.setParameters(parameters);
+        }
+    }
+
+    private static final class ResponseSchema extends MessageSchema<RpcResponse> {
+        private static final int REQUEST_ID = 1;
+        private static final int CODE = 2;
+        private static final int MESSAGE = 3;
+        private static final int TYPED_DATA = 4;
+        private static final int DYNAMIC_DATA = 5;
+
+        private ResponseSchema() {
+            super(RpcResponse.class);
+        }
+
+        @Override
+        public RpcResponse newMessage() {
+            return RpcResponse.newInstance();
+        }
+
+        @Override
+        public void writeTo(Output output, RpcResponse message) throws IOException {
+            if (message.getRequestId() != null) {
+                output.writeString(REQUEST_ID, message.getRequestId(), false);
+            }
+            if (message.getCode() != null) {
+                output.writeUInt32(CODE, message.getCode(), false);
+            }
+            if (message.getMessage() != null) {
+                output.writeString(MESSAGE, message.getMessage(), false);
+            }
+            if (message.getData() != null) {
+                writeValue(output, message.getData(), message.getResultType(), TYPED_DATA, DYNAMIC_DATA, false);
+            }
+        }
+
+        @Override
+        public void mergeFrom(Input input, RpcResponse message) throws IOException {
+            for (int number = input.readFieldNumber(this); number != 0; number = input.readFieldNumber(this)) {
+                switch (number) {
+                    case REQUEST_ID:
+                        message.setRequestId(input.readString());
+                        break;
+                    case CODE:
+                        message.setCode(input.readUInt32());
+                        break;
+                    case MESSAGE:
+                        message.setMessage(input.readString());
+                        break;
+                    case TYPED_DATA:
+                        message.setData(new TypedValue(input.readByteArray()));
+                        break;
+                    case DYNAMIC_DATA:
+                        message.setData(readDynamic(input));
+                        break;
+                    default:
+                        input.handleUnknownField(number, this);
+                }
+            }
+        }
+    }
+
+    private static final class BatchRequestSchema extends MessageSchema<RpcBatchRequest> {
+        private static final int REQUEST = 1;
+        private static final int ID = 2;
+
+        private BatchRequestSchema() {
+            super(RpcBatchRequest.class);
+        }
+
+        @Override
+        public RpcBatchRequest newMessage() {
+            return new RpcBatchRequest();
+        }
+
+        @Override
+        public void writeTo(Output output, RpcBatchRequest message) throws IOException {
+            for (int i = 0; i < message.size(); i++) {
+                output.writeObject(REQUEST, message.getRequests()[i], RpcMessageSchemas.REQUEST, true);
+                output.writeInt64(ID, message.getIds()[i], true);
+            }
+        }
+
+        @Override
+        public void mergeFrom(Input input, RpcBatchRequest message) throws IOException {
+            List<RpcRequest> requests = new ArrayList<>();
+            List<Long> ids = new ArrayList<>();
+            for (int number = input.readFieldNumber(this); number != 0; number = input.readFieldNumber(this)) {
+                switch (number) {
+                    case REQUEST:
+                        requests.add(input.mergeObject(new RpcRequest(), RpcMessageSchemas.REQUEST));
+                        break;
+                    case ID:
+                        ids.add(input.readInt64());
+                        break;
+                    default:
+                        input.handleUnknownField(number, this);
+                }
+            }
+            message.setRequests(requests.toArray(new RpcRequest[0]));
+            message.setIds(toArray(ids));
+        }
+    }
+
+    private static final class BatchResponseSchema extends MessageSchema<RpcBatchResponse> {
+        private static final int RESPONSE = 1;
+        private static final int ID = 2;
+
+        private BatchResponseSchema() {
+            super(RpcBatchResponse.class);
+        }
+
+        @Override
+        public RpcBatchResponse newMessage() {
+            return new RpcBatchResponse();
+        }
+
+        @Override
+        public void writeTo(Output output, RpcBatchResponse message) throws IOException {
+            for (int i = 0; i < message.size(); i++) {
+                output.writeObject(RESPONSE, message.getResponses()[i], RpcMessageSchemas.RESPONSE, true);
+                output.writeInt64(ID, message.getIds()[i], true);
+            }
+        }
+
+        @Override
+        public void mergeFrom(Input input, RpcBatchResponse message) throws IOException {
+            List<RpcResponse> responses = new ArrayList<>();
+            List<Long> ids = new ArrayList<>();
+            for (int number = input.readFieldNumber(this); number != 0; number = input.readFieldNumber(this)) {
+                switch (number) {
+                    case RESPONSE:
+                        responses.add(input.mergeObject(RpcMessageSchemas.RESPONSE.newMessage(), RpcMessageSchemas.RESPONSE));
+                        break;
+                    case ID:
+                        ids.add(input.readInt64());
+                        break;
+                    default:
+                        input.handleUnknownField(number, this);
+                }
+            }
+            message.setResponses(responses.toArray(new RpcResponse[0]));
+            message.setIds(toArray(ids));
+        }
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] array = new long[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
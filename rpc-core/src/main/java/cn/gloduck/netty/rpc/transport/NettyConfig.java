@@ -1,6 +1,10 @@
 package cn.gloduck.netty.rpc.transport;
 
 
+import cn.gloduck.netty.rpc.codec.RpcProtocol;
+import cn.gloduck.netty.rpc.constant.RpcConstant;
+import cn.gloduck.netty.rpc.enums.CompressionType;
+import cn.gloduck.netty.rpc.enums.Serializers;
 import cn.gloduck.netty.rpc.serializer.RpcSerializer;
 import cn.gloduck.netty.rpc.serializer.SerializerFactory;
 import cn.gloduck.netty.rpc.serializer.jdk.JdKSerializer;
@@ -10,7 +14,12 @@ import cn.gloduck.netty.rpc.utils.RuntimeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -48,6 +57,16 @@ public class NettyConfig {
      * 默认连接服务器超时事件，客户端参数
      */
     private static final int DEFAULT_CONNECT_TIMEOUT = 500;
+
+    /**
+     * 合并写时每次flush最多写入的消息数，客户端和服务端参数
+     */
+    private static final int DEFAULT_WRITE_BATCH_SIZE = 64;
+
+    /**
+     * 连接池中所有连接正在处理的请求数都达到多少时增加连接，客户端参数
+     */
+    private static final int DEFAULT_CONNECTION_GROW_THRESHOLD = 256;
     private NettyConfig() {
     }
 
@@ -60,6 +79,20 @@ public class NettyConfig {
     private int heartBeatTimes;
     private int heartBeatInterval;
     private int connectTimeout;
+    private int protocolVersion;
+    private CompressionType compressionType;
+    private int compressionThreshold;
+    private boolean writeCoalescing;
+    private int writeBatchSize;
+    private int writeBatchDelay;
+    private Executor callbackExecutor;
+    private int minConnections;
+    private int maxConnections;
+    private int connectionGrowThreshold;
+    /**
+     * 除了配置的序列化器之外，解码时还接受的序列化器
+     */
+    private final Set<Serializers> acceptedSerializers = ConcurrentHashMap.newKeySet();
 
 
     public static ClientConfigBuilder clientBuilder() {
@@ -87,6 +120,18 @@ public class NettyConfig {
         }
 
         private final void doSetDefaultValue(){
+            if(nettyConfig.compressionType == null){
+                nettyConfig.compressionType = CompressionType.NONE;
+            }
+            if(nettyConfig.compressionThreshold <= 0){
+                nettyConfig.compressionThreshold = RpcConstant.DEFAULT_COMPRESSION_THRESHOLD;
+            }
+            if(nettyConfig.writeBatchSize <= 0){
+                nettyConfig.writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+            }
+            if(nettyConfig.writeBatchDelay < 0){
+                nettyConfig.writeBatchDelay = 0;
+            }
             if(nettyConfig.serializerFactory == null){
                 nettyConfig.serializerFactory = new SerializerFactory<>(defaultSerializer());
             }
@@ -205,17 +250,108 @@ public class NettyConfig {
             return this;
         }
 
+        /**
+         * 使用的协议版本，默认为{@link RpcProtocol#VERSION_2}。连接旧版本的服务端时可以指定为{@link RpcProtocol#VERSION_1}
+         * @param version
+         * @return
+         */
+        public ClientConfigBuilder protocolVersion(int version){
+            nettyConfig.protocolVersion = version;
+            return this;
+        }
+
+        /**
+         * 期望使用的压缩方式，需要服务端也开启同样的压缩方式，只在v2协议下生效
+         * @param compressionType
+         * @return
+         */
+        public ClientConfigBuilder compression(CompressionType compressionType){
+            nettyConfig.compressionType = compressionType;
+            return this;
+        }
+
+        /**
+         * 消息体超过多少字节才压缩
+         * @param threshold
+         * @return
+         */
+        public ClientConfigBuilder compressionThreshold(int threshold){
+            nettyConfig.compressionThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 开启合并写，请求先放入队列，由事件循环批量写入后再flush
+         * @param batchSize 每次flush最多写入的消息数
+         * @param delay 第一条消息最多等待多久再写，单位微秒，为0时不等待
+         * @return
+         */
+        public ClientConfigBuilder writeCoalescing(int batchSize, int delay){
+            nettyConfig.writeCoalescing = true;
+            nettyConfig.writeBatchSize = batchSize;
+            nettyConfig.writeBatchDelay = delay;
+            return this;
+        }
+
+        /**
+         * 除了配置的序列化器之外，解码时还接受的序列化器，其他序列化器的消息会被拒绝。
+         * 请求使用过的序列化器总是接受，服务端用它回复
+         * @param serializers
+         * @return
+         */
+        public ClientConfigBuilder acceptSerializers(Serializers... serializers){
+            nettyConfig.acceptedSerializers.addAll(Arrays.asList(serializers));
+            return this;
+        }
+
+        /**
+         * 执行异步调用回调的线程池。不指定时回调在收到响应的事件循环中执行，回调中不能有阻塞操作
+         * @param executor
+         * @return
+         */
+        public ClientConfigBuilder callbackExecutor(Executor executor){
+            nettyConfig.callbackExecutor = executor;
+            return this;
+        }
+
+        /**
+         * 每个地址的连接池，默认每个地址只有一个连接。每次调用选择正在处理的请求最少的连接，
+         * 所有连接的请求数都达到growThreshold时增加连接，负载降低后关闭多余的连接
+         * @param minConnections 最少的连接数
+         * @param maxConnections 最多的连接数，最好不超过netty工作线程数，使每个连接使用不同的事件循环
+         * @param growThreshold 增加连接的阈值
+         * @return
+         */
+        public ClientConfigBuilder connectionPool(int minConnections, int maxConnections, int growThreshold){
+            nettyConfig.minConnections = minConnections;
+            nettyConfig.maxConnections = maxConnections;
+            nettyConfig.connectionGrowThreshold = growThreshold;
+            return this;
+        }
+
         @Override
         protected void checkAndSetDefaultValue() {
             if(nettyConfig.requestTimeout <= 0){
                 nettyConfig.requestTimeout = DEFAULT_REQUEST_TIMEOUT;
             }
+            if(nettyConfig.minConnections <= 0){
+                nettyConfig.minConnections = 1;
+            }
+            if(nettyConfig.maxConnections < nettyConfig.minConnections){
+                nettyConfig.maxConnections = nettyConfig.minConnections;
+            }
+            if(nettyConfig.connectionGrowThreshold <= 0){
+                nettyConfig.connectionGrowThreshold = DEFAULT_CONNECTION_GROW_THRESHOLD;
+            }
             if(nettyConfig.heartBeatInterval <= 0){
                 nettyConfig.heartBeatInterval = DEFAULT_HEART_BEAT_SEND_INTERVAL;
             }
             if(nettyConfig.connectTimeout <= 0){
                 nettyConfig.connectTimeout = DEFAULT_CONNECT_TIMEOUT;
             }
+            if(nettyConfig.protocolVersion != RpcProtocol.VERSION_1){
+                nettyConfig.protocolVersion = RpcProtocol.VERSION_2;
+            }
 
         }
 
@@ -289,6 +425,17 @@ public class NettyConfig {
             nettyConfig.serializerFactory = new SerializerFactory<>(serializer);
             return this;
         }
+        /**
+         * 除了配置的序列化器和服务通过{@code @RpcService(serializer = ...)}指定的序列化器之外，解码时还接受的序列化器，
+         * 其他序列化器的消息会被拒绝
+         * @param serializers
+         * @return
+         */
+        public ServerConfigBuilder acceptSerializers(Serializers... serializers){
+            nettyConfig.acceptedSerializers.addAll(Arrays.asList(serializers));
+            return this;
+        }
+
         /**
          * 自定义线程池
          * @param threadPool
@@ -309,6 +456,39 @@ public class NettyConfig {
             return this;
         }
 
+        /**
+         * 允许使用的压缩方式，客户端请求的压缩方式和这里一致时才会启用
+         * @param compressionType
+         * @return
+         */
+        public ServerConfigBuilder compression(CompressionType compressionType){
+            nettyConfig.compressionType = compressionType;
+            return this;
+        }
+
+        /**
+         * 消息体超过多少字节才压缩
+         * @param threshold
+         * @return
+         */
+        public ServerConfigBuilder compressionThreshold(int threshold){
+            nettyConfig.compressionThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 开启合并写，响应先放入队列，由事件循环批量写入后再flush
+         * @param batchSize 每次flush最多写入的消息数
+         * @param delay 第一条消息最多等待多久再写，单位微秒，为0时不等待
+         * @return
+         */
+        public ServerConfigBuilder writeCoalescing(int batchSize, int delay){
+            nettyConfig.writeCoalescing = true;
+            nettyConfig.writeBatchSize = batchSize;
+            nettyConfig.writeBatchDelay = delay;
+            return this;
+        }
+
         @Override
         protected void checkAndSetDefaultValue() {
             if(nettyConfig.heartBeatTimes <= 0){
@@ -317,6 +497,8 @@ public class NettyConfig {
             if(nettyConfig.heartBeatInterval <= 0){
                 nettyConfig.heartBeatInterval = DEFAULT_HEART_BEAT_INTERVAL;
             }
+            // 服务端按照客户端使用的协议版本回写，这里只是默认值
+            nettyConfig.protocolVersion = RpcProtocol.VERSION_1;
         }
 
     }
@@ -360,4 +542,58 @@ public class NettyConfig {
     public int getConnectTimeout() {
         return connectTimeout;
     }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public boolean isWriteCoalescing() {
+        return writeCoalescing;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public int getWriteBatchDelay() {
+        return writeBatchDelay;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public int getMinConnections() {
+        return minConnections;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getConnectionGrowThreshold() {
+        return connectionGrowThreshold;
+    }
+
+    public Set<Serializers> getAcceptedSerializers() {
+        return Collections.unmodifiableSet(acceptedSerializers);
+    }
+
+    /**
+     * 解码时接受指定的序列化器，服务端注册指定了序列化器的服务时调用，之后建立的连接生效
+     * @param serializer
+     */
+    public void acceptSerializer(Serializers serializer){
+        if(serializer != Serializers.DEFAULT){
+            acceptedSerializers.add(serializer);
+        }
+    }
 }
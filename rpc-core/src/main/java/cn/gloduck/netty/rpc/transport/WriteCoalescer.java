@@ -0,0 +1,115 @@
+package cn.gloduck.netty.rpc.transport;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.AttributeKey;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 合并写。业务线程把消息放入连接上的MPSC队列，由事件循环统一取出写入，每批只flush一次，
+ * 避免每条消息都产生一个事件循环任务和一次write系统调用。
+ * 通过{@link NettyConfig}开启后保存在连接上，发送消息时使用{@link #writeAndFlush(Channel, Object)}
+ * @author Gloduck
+ */
+public final class WriteCoalescer implements Runnable {
+    public static final AttributeKey<WriteCoalescer> KEY = AttributeKey.valueOf("rpc.write.coalescer");
+    private final Channel channel;
+    private final Queue<PendingWrite> queue;
+    /**
+     * 是否已经提交了写任务
+     */
+    private final AtomicBoolean scheduled;
+    /**
+     * 每次flush最多写入的消息数
+     */
+    private final int batchSize;
+    /**
+     * 第一条消息入队后最多等待多久再写，等待期间的消息合并到一批中，为0时立即提交写任务
+     */
+    private final long delayNanos;
+
+    private WriteCoalescer(Channel channel, int batchSize, long delayNanos) {
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.delayNanos = delayNanos;
+        this.queue = PlatformDependent.newMpscQueue();
+        this.scheduled = new AtomicBoolean();
+    }
+
+    /**
+     * 如果配置开启了合并写，则在连接上安装
+     * @param channel
+     * @param config
+     */
+    public static void install(Channel channel, NettyConfig config){
+        if(config.isWriteCoalescing()){
+            channel.attr(KEY).set(new WriteCoalescer(channel, config.getWriteBatchSize(), TimeUnit.MICROSECONDS.toNanos(config.getWriteBatchDelay())));
+        }
+    }
+
+    /**
+     * 写入并刷新消息，连接开启了合并写时放入队列，否则直接调用{@link Channel#writeAndFlush(Object)}
+     * @param channel
+     * @param msg
+     * @return
+     */
+    public static ChannelFuture writeAndFlush(Channel channel, Object msg){
+        WriteCoalescer coalescer = channel.attr(KEY).get();
+        return coalescer == null ? channel.writeAndFlush(msg) : coalescer.write(msg);
+    }
+
+    public ChannelFuture write(Object msg){
+        ChannelPromise promise = channel.newPromise();
+        queue.offer(new PendingWrite(msg, promise));
+        if(scheduled.compareAndSet(false, true)){
+            schedule();
+        }
+        return promise;
+    }
+
+    private void schedule(){
+        if(delayNanos > 0){
+            channel.eventLoop().schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            channel.eventLoop().execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        int written = 0;
+        PendingWrite pendingWrite;
+        while (written < batchSize && (pendingWrite = queue.poll()) != null){
+            channel.write(pendingWrite.msg, pendingWrite.promise);
+            written++;
+        }
+        if(written > 0){
+            channel.flush();
+        }
+        if(!queue.isEmpty()){
+            // 还有消息，让出事件循环后继续写下一批
+            channel.eventLoop().execute(this);
+            return;
+        }
+        scheduled.set(false);
+        // 设置标志之前可能有新的消息入队，但入队的线程看到标志为true没有提交任务
+        if(!queue.isEmpty() && scheduled.compareAndSet(false, true)){
+            channel.eventLoop().execute(this);
+        }
+    }
+
+    private static final class PendingWrite {
+        private final Object msg;
+        private final ChannelPromise promise;
+
+        PendingWrite(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+}
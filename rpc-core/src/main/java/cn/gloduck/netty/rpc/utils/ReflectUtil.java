@@ -0,0 +1,18 @@
+package cn.gloduck.netty.rpc.utils;
+
+public class ReflectUtil {
+    private ReflectUtil(){}
+
+    /**
+     * 计算方法参数类型的签名，只依赖类名，所以客户端和服务端计算的结果一致
+     * @param parameterTypes
+     * @return
+     */
+    public static int signature(Class<?>[] parameterTypes){
+        int hash = 1;
+        for (Class<?> type : parameterTypes) {
+            hash = 31 * hash + type.getName().hashCode();
+        }
+        return hash;
+    }
+}
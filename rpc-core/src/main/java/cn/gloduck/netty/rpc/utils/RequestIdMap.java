@@ -0,0 +1,173 @@
+package cn.gloduck.netty.rpc.utils;
+
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import io.netty.util.internal.MathUtil;
+import io.netty.util.internal.ObjectUtil;
+
+import java.util.function.Consumer;
+
+/**
+ * 以连接内单调递增的请求号为键的表，不是线程安全的，用于在事件循环中保存正在处理的请求。
+ * <p>
+ * 值直接放在请求号对容量取模的槽位上，同时保存请求号用于区分同一个槽位上不同轮次的请求，存取都不需要探测。
+ * 正在处理的请求号通常集中在一个窗口内，窗口超过容量时扩容；表很空但槽位仍然冲突时，说明占用槽位的是长时间没有响应的旧请求，
+ * 把它移到溢出表中。
+ * <p>
+ * 不使用{@link LongObjectHashMap}保存所有请求，是因为连续的请求号在线性探测的表中会连成一片，
+ * 删除时需要移动后面整片的元素，大量请求同时处理时退化为线性时间
+ * @author Gloduck
+ */
+public final class RequestIdMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private long[] keys;
+    private V[] values;
+    private int mask;
+    /**
+     * 槽位和溢出表中的值的总数
+     */
+    private int size;
+    /**
+     * 和新请求冲突的旧请求，第一次冲突时创建
+     */
+    private LongObjectMap<V> overflow;
+
+    public RequestIdMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RequestIdMap(int initialCapacity) {
+        allocate(MathUtil.safeFindNextPositivePowerOfTwo(Math.max(initialCapacity, 2)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity){
+        keys = new long[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int index(long key){
+        return (int) key & mask;
+    }
+
+    public V get(long key){
+        int index = index(key);
+        V value = values[index];
+        if(value != null && keys[index] == key){
+            return value;
+        }
+        return overflow == null ? null : overflow.get(key);
+    }
+
+    /**
+     * 放入请求
+     * @param key
+     * @param value 不能为null
+     * @return 请求号原来对应的值
+     */
+    public V put(long key, V value){
+        ObjectUtil.checkNotNull(value, "value");
+        if(overflow != null && overflow.containsKey(key)){
+            return overflow.put(key, value);
+        }
+        while (true){
+            int index = index(key);
+            V old = values[index];
+            if(old == null){
+                keys[index] = key;
+                values[index] = value;
+                size++;
+                return null;
+            }
+            if(keys[index] == key){
+                values[index] = value;
+                return old;
+            }
+            if(size < values.length >>> 1 || values.length == MAX_CAPACITY){
+                // 槽位被旧请求占用，旧请求移到溢出表
+                overflow().put(keys[index], old);
+                keys[index] = key;
+                values[index] = value;
+                size++;
+                return null;
+            }
+            grow();
+        }
+    }
+
+    public V remove(long key){
+        int index = index(key);
+        V value = values[index];
+        if(value != null && keys[index] == key){
+            values[index] = null;
+            size--;
+            return value;
+        }
+        if(overflow != null){
+            value = overflow.remove(key);
+            if(value != null){
+                size--;
+            }
+            return value;
+        }
+        return null;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * 移除所有的值，依次交给consumer处理
+     * @param consumer
+     */
+    public void removeAll(Consumer<? super V> consumer){
+        for (int i = 0; i < values.length && size > 0; i++) {
+            V value = values[i];
+            if(value != null){
+                values[i] = null;
+                size--;
+                consumer.accept(value);
+            }
+        }
+        if(overflow != null){
+            for (V value : overflow.values()) {
+                consumer.accept(value);
+            }
+            overflow = null;
+        }
+        size = 0;
+    }
+
+    private LongObjectMap<V> overflow(){
+        if(overflow == null){
+            overflow = new LongObjectHashMap<>();
+        }
+        return overflow;
+    }
+
+    private void grow(){
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(oldValues.length << 1);
+        for (int i = 0; i < oldValues.length; i++) {
+            V value = oldValues[i];
+            if(value == null){
+                continue;
+            }
+            int index = index(oldKeys[i]);
+            if(values[index] == null){
+                keys[index] = oldKeys[i];
+                values[index] = value;
+            } else {
+                overflow().put(oldKeys[i], value);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package cn.gloduck.netty.rpc.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * 变长整数（protobuf varint）的读写工具
+ * @author Gloduck
+ */
+public class VarIntUtil {
+    private VarIntUtil(){}
+
+    /**
+     * 写入无符号的变长int
+     * @param buf
+     * @param value
+     */
+    public static void writeVarInt(ByteBuf buf, int value){
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    /**
+     * 写入无符号的变长long
+     * @param buf
+     * @param value
+     */
+    public static void writeVarLong(ByteBuf buf, long value){
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    /**
+     * 变长int编码后的字节数
+     * @param value
+     * @return
+     */
+    public static int varIntSize(int value){
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    /**
+     * 变长long编码后的字节数
+     * @param value
+     * @return
+     */
+    public static int varLongSize(long value){
+        return (63 - Long.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    /**
+     * 获取index处变长整数占用的字节数，不修改读索引
+     * @param buf
+     * @param index
+     * @param maxSize 允许的最大字节数，int为5，long为10
+     * @return 字节数，如果数据还没有接收完整则返回-1
+     */
+    public static int varLength(ByteBuf buf, int index, int maxSize){
+        int limit = Math.min(buf.writerIndex(), index + maxSize);
+        for (int i = index; i < limit; i++) {
+            if ((buf.getByte(i) & 0x80) == 0) {
+                return i - index + 1;
+            }
+        }
+        if (buf.writerIndex() - index >= maxSize) {
+            throw new CorruptedFrameException("变长整数超过" + maxSize + "字节");
+        }
+        return -1;
+    }
+
+    /**
+     * 读取index处的变长int，调用前需要通过{@link #varLength(ByteBuf, int, int)}确认数据完整
+     * @param buf
+     * @param index
+     * @return
+     */
+    public static int getVarInt(ByteBuf buf, int index){
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.getByte(index++);
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * 读取index处的变长long，调用前需要通过{@link #varLength(ByteBuf, int, int)}确认数据完整
+     * @param buf
+     * @param index
+     * @return
+     */
+    public static long getVarLong(ByteBuf buf, int index){
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.getByte(index++);
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * 从读索引处读取变长int并移动读索引，用于消息体中已经完整接收的数据
+     * @param buf
+     * @return
+     */
+    public static int readVarInt(ByteBuf buf){
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.readByte();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("变长整数超过5字节");
+    }
+
+    /**
+     * 从读索引处读取变长long并移动读索引，用于消息体中已经完整接收的数据
+     * @param buf
+     * @return
+     */
+    public static long readVarLong(ByteBuf buf){
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = buf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("变长整数超过10字节");
+    }
+}
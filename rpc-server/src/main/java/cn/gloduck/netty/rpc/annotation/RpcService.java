@@ -1,5 +1,7 @@
 package cn.gloduck.netty.rpc.annotation;
 
+import cn.gloduck.netty.rpc.enums.Serializers;
+
 import java.lang.annotation.*;
 
 /**
@@ -21,4 +23,10 @@ public @interface RpcService {
      * @return
      */
     int weight() default 0;
+
+    /**
+     * 建议客户端使用的序列化方式，在握手时发给客户端。服务端始终使用请求的序列化方式返回响应
+     * @return
+     */
+    Serializers serializer() default Serializers.DEFAULT;
 }
@@ -1,6 +1,10 @@
 package cn.gloduck.netty.rpc.transport.server;
 
+import cn.gloduck.netty.rpc.annotation.RpcService;
 import cn.gloduck.netty.rpc.ref.server.BeanAndMethod;
+import cn.gloduck.netty.rpc.ref.server.MethodTable;
+import cn.gloduck.netty.rpc.serializer.codegen.GeneratedCodecs;
+import cn.gloduck.netty.rpc.serializer.kryo.KryoRegistry;
 import cn.gloduck.netty.rpc.transport.AbstractNettyServer;
 import cn.gloduck.netty.rpc.transport.NettyConfig;
 import cn.gloduck.netty.rpc.transport.functional.BeanMethodRegistration;
@@ -14,8 +18,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * netty服务器
@@ -24,6 +28,10 @@ import java.util.Map;
 public  class NettyServer extends AbstractNettyServer implements BeanMethodRegistration {
     private static final Logger logger = LoggerFactory.getLogger(NettyServer.class);
     private Map<String, BeanAndMethod> serviceBeanMapping;
+    /**
+     * 握手时发布给客户端的方法表
+     */
+    private MethodTable methodTable;
 /*    private EventLoopGroup boss;
     private EventLoopGroup worker;*/
 //    private Thread thread;
@@ -31,7 +39,8 @@ public  class NettyServer extends AbstractNettyServer implements BeanMethodRegis
 
     public NettyServer(NettyConfig nettyConfig) {
         super(nettyConfig);
-        this.serviceBeanMapping = new HashMap<>(32);
+        this.serviceBeanMapping = new ConcurrentHashMap<>(32);
+        this.methodTable = new MethodTable();
     }
 
 
@@ -51,12 +60,23 @@ public  class NettyServer extends AbstractNettyServer implements BeanMethodRegis
             logger.warn("Bean 或 Method为null , 注册RPC服务 {} 映射失败", serviceName);
             return;
         }
-        this.serviceBeanMapping.put(serviceName, new BeanAndMethod(bean, method));
+        RpcService annotation = method.getAnnotation(RpcService.class);
+        byte serializerTypeCode = annotation == null ? -1 : annotation.serializer().getTypeCode();
+        if(annotation != null){
+            // 客户端按照方法表使用服务指定的序列化器
+            nettyConfig.acceptSerializer(annotation.serializer());
+        }
+        BeanAndMethod beanAndMethod = new BeanAndMethod(bean, method, serializerTypeCode);
+        this.serviceBeanMapping.put(serviceName, beanAndMethod);
+        this.methodTable.register(serviceName, beanAndMethod);
+        KryoRegistry.instance().registerMethod(method);
+        GeneratedCodecs.instance().registerMethod(method);
     }
 
     @Override
     public void unRegistryServiceBean(String serviceName) {
         this.serviceBeanMapping.remove(serviceName);
+        this.methodTable.unRegister(serviceName);
     }
     @Override
     protected boolean initNettyServer() throws Exception{
@@ -76,7 +96,7 @@ public  class NettyServer extends AbstractNettyServer implements BeanMethodRegis
                     .channel(NioServerSocketChannel.class)
                     .option(ChannelOption.SO_BACKLOG, 128)
                     .childOption(ChannelOption.SO_KEEPALIVE, true)
-                    .childHandler(new RpcServerInitializer(nettyConfig, serviceBeanMapping));
+                    .childHandler(new RpcServerInitializer(nettyConfig, serviceBeanMapping, methodTable));
             // 绑定到网卡
             ChannelFuture future = bootstrap.bind(nettyConfig.getHost(), nettyConfig.getPort());
             ChannelFuture channelFuture = future.addListener(bindingFuture -> {
@@ -1,30 +1,49 @@
 package cn.gloduck.netty.rpc.transport.server;
 
+import cn.gloduck.netty.rpc.codec.RpcBatchRequest;
+import cn.gloduck.netty.rpc.codec.RpcBatchResponse;
+import cn.gloduck.netty.rpc.codec.RpcFile;
+import cn.gloduck.netty.rpc.codec.RpcMessage;
+import cn.gloduck.netty.rpc.codec.RpcProtocol;
 import cn.gloduck.netty.rpc.codec.RpcRequest;
 import cn.gloduck.netty.rpc.codec.RpcResponse;
 import cn.gloduck.netty.rpc.exception.RpcInvokeException;
+import cn.gloduck.netty.rpc.exception.SerializationException;
 import cn.gloduck.netty.rpc.ref.server.BeanAndMethod;
+import cn.gloduck.netty.rpc.ref.server.MethodTable;
+import cn.gloduck.netty.rpc.transport.WriteCoalescer;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.Recycler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
+ * 处理请求和批量请求，批量请求只向线程池提交一次任务，在同一个线程中依次执行后返回一个批量响应。
+ * 返回{@link RpcFile}的请求在响应之后由编码器发送文件，只支持v2协议的单个请求
  * @author Gloduck
  */
-public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
+public class RpcServerHandler extends SimpleChannelInboundHandler<RpcMessage> {
     private final static Logger logger = LoggerFactory.getLogger(RpcServerHandler.class);
     private final Map<String, BeanAndMethod> serviceBeanMapping;
+    private final MethodTable methodTable;
     /**
      * 执行任务的线程池
      */
     private final ThreadPoolExecutor executor;
 
-    public RpcServerHandler(Map<String, BeanAndMethod> serviceBeanMapping, ThreadPoolExecutor executor) {
+    public RpcServerHandler(Map<String, BeanAndMethod> serviceBeanMapping, MethodTable methodTable, ThreadPoolExecutor executor) {
         this.serviceBeanMapping = serviceBeanMapping;
+        this.methodTable = methodTable;
         this.executor = executor;
     }
 
@@ -34,32 +53,176 @@ public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, RpcRequest msg) {
-        logger.info("收到RPC请求，请求ID为 : {} , 请求服务名为 : {}", msg.getRequestId(), msg.getServiceName());
-        executor.submit(() -> {
-            logger.info("开始执行RPC请求 : {}", msg.getRequestId());
-            RpcResponse response;
+    public boolean acceptInboundMessage(Object msg) {
+        return msg instanceof RpcRequest || msg instanceof RpcBatchRequest;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, RpcMessage msg) {
+        if(msg instanceof RpcBatchRequest){
+            handleBatch(ctx, (RpcBatchRequest) msg);
+        } else {
+            handleSingle(ctx, (RpcRequest) msg);
+        }
+    }
+
+    private void handleSingle(ChannelHandlerContext ctx, RpcRequest msg) {
+        if(logger.isInfoEnabled()){
+            logger.info("收到RPC请求，请求ID为 : {} , 请求服务名为 : {}", requestId(msg), msg.getServiceName());
+        }
+        executor.execute(InvokeTask.newInstance(this, ctx, msg));
+    }
+
+    /**
+     * 在线程池中执行单个请求并写出响应，同时作为写出的监听器。
+     * 任务来自对象池，响应写出后连同请求和响应一起回收，每次调用不需要分配任务、lambda和监听器
+     */
+    private static final class InvokeTask implements Runnable, ChannelFutureListener {
+        private static final Recycler<InvokeTask> RECYCLER = new Recycler<InvokeTask>() {
+            @Override
+            protected InvokeTask newObject(Handle<InvokeTask> handle) {
+                return new InvokeTask(handle);
+            }
+        };
+        private final Recycler.Handle<InvokeTask> handle;
+        private RpcServerHandler handler;
+        private ChannelHandlerContext ctx;
+        private RpcRequest request;
+        private RpcResponse response;
+
+        private InvokeTask(Recycler.Handle<InvokeTask> handle) {
+            this.handle = handle;
+        }
+
+        static InvokeTask newInstance(RpcServerHandler handler, ChannelHandlerContext ctx, RpcRequest request){
+            InvokeTask task = RECYCLER.get();
+            task.handler = handler;
+            task.ctx = ctx;
+            task.request = request;
+            return task;
+        }
+
+        @Override
+        public void run() {
+            if(logger.isInfoEnabled()){
+                logger.info("开始执行RPC请求 : {}", requestId(request));
+            }
             try {
                 // 执行rpc任务成功
-                response = handleRequest(msg);
+                response = handler.handleRequest(request);
             } catch (Throwable e) {
                 logger.error("执行RPC请求出现错误", e);
-                response = RpcResponse.serverFailed(msg.getRequestId(), e.getMessage());
+                response = RpcResponse.serverFailed(request, e.getMessage());
+            } finally {
+                // 没有找到方法等没有调用方法的情况
+                BeanAndMethod.releaseAttachments(request.getParameters());
+            }
+            if(request.isOneway()){
+                // 单向调用不需要返回响应
+                closeFile(response);
+                recycle();
+                return;
+            }
+            if(response.getData() instanceof RpcFile && !isVersion2(ctx)){
+                closeFile(response);
+                response = RpcResponse.serverFailed(request, "v1协议不支持返回文件");
             }
             // 执行任务成功，返回消息
-            // 注：此处可能有线程安全问题，待探究
-            ctx.writeAndFlush(response)
-                    .addListener(future -> {
-                        if(future.isDone()){
-                            Throwable cause = future.cause();
-                            if(cause != null){
-                                logger.error("返回RPC数据出现错误");
-                                // 返回数据出现错误，尝试发送一条发送失败的消息
-                                ctx.writeAndFlush(RpcResponse.sendFailed(msg.getRequestId(),cause.getMessage()));
-                            }
+            WriteCoalescer.writeAndFlush(ctx.channel(), response).addListener(this);
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            Throwable cause = future.cause();
+            if(cause != null){
+                logger.error("返回RPC数据出现错误");
+                // 返回数据出现错误，尝试发送一条发送失败的消息
+                WriteCoalescer.writeAndFlush(ctx.channel(), RpcResponse.sendFailed(request, cause.getMessage()));
+            }
+            recycle();
+        }
+
+        private void recycle(){
+            request.recycle();
+            response.recycle();
+            handler = null;
+            ctx = null;
+            request = null;
+            response = null;
+            handle.recycle(this);
+        }
+    }
+
+    private void handleBatch(ChannelHandlerContext ctx, RpcBatchRequest batch) {
+        logger.info("收到批量RPC请求，请求ID为 : {} , 请求数量为 : {}", batch.getId(), batch.size());
+        try {
+            executor.execute(() -> invokeBatch(ctx, batch));
+        } catch (RejectedExecutionException e) {
+            logger.error("线程池拒绝执行批量RPC请求，请求ID为 : {}", batch.getId());
+            // 直接回复失败，不让客户端等到超时
+            List<RpcResponse> responses = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                RpcRequest request = batch.getRequest(i);
+                BeanAndMethod.releaseAttachments(request.getParameters());
+                if(!request.isOneway()){
+                    responses.add(RpcResponse.serverFailed(request, "RPC服务端繁忙，拒绝执行请求"));
+                }
+            }
+            writeBatch(ctx, batch, responses);
+        }
+    }
+
+    /**
+     * 在线程池中依次执行批量请求中的每个请求，返回一个批量响应
+     * @param ctx
+     * @param batch
+     */
+    private void invokeBatch(ChannelHandlerContext ctx, RpcBatchRequest batch) {
+        int size = batch.size();
+        List<RpcResponse> responses = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            RpcRequest request = batch.getRequest(i);
+            RpcResponse response;
+            try {
+                response = handleRequest(request);
+            } catch (Throwable e) {
+                logger.error("执行RPC请求出现错误", e);
+                response = RpcResponse.serverFailed(request, e.getMessage());
+            } finally {
+                // 没有找到方法等没有调用方法的情况
+                BeanAndMethod.releaseAttachments(request.getParameters());
+            }
+            if(response.getData() instanceof RpcFile){
+                closeFile(response);
+                response = RpcResponse.serverFailed(request, "批量请求不支持返回文件");
+            }
+            if(!request.isOneway()){
+                responses.add(response);
+            }
+        }
+        writeBatch(ctx, batch, responses);
+    }
+
+    private static void writeBatch(ChannelHandlerContext ctx, RpcBatchRequest batch, List<RpcResponse> responses) {
+        if(responses.isEmpty()){
+            return;
+        }
+        RpcBatchResponse batchResponse = new RpcBatchResponse(batch, responses.toArray(new RpcResponse[0]));
+        WriteCoalescer.writeAndFlush(ctx.channel(), batchResponse)
+                .addListener(future -> {
+                    Throwable cause = future.cause();
+                    if(cause != null){
+                        logger.error("返回批量RPC数据出现错误");
+                        // 逐个发送发送失败的消息，让客户端的请求尽快结束
+                        for (RpcResponse response : responses) {
+                            RpcResponse failed = RpcResponse.sendFailed(response.getRequestId(), cause.getMessage());
+                            failed.setId(response.getId());
+                            // 客户端按照请求使用的序列化器解码响应
+                            failed.setSerializerTypeCode(response.getSerializerTypeCode());
+                            WriteCoalescer.writeAndFlush(ctx.channel(), failed);
                         }
-                    });
-        });
+                    }
+                });
     }
 
     /**
@@ -68,24 +231,96 @@ public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
      * @return
      */
     public RpcResponse handleRequest(RpcRequest request) {
+        int methodId = request.getMethodId();
+        if(methodId > 0){
+            return handleRequest(request, methodId);
+        }
         String serviceName = request.getServiceName();
         BeanAndMethod beanAndMethod = serviceBeanMapping.get(serviceName);
         if (beanAndMethod == null) {
             // 如果没有找到对应的service
             String msg = String.format("当前RPC服务端没有对应的服务 %s", serviceName);
-            return RpcResponse.serverFailed(request.getRequestId(), msg);
+            return RpcResponse.serverFailed(request, msg);
         }
         RpcResponse response;
         try {
+            request.resolveParameters(beanAndMethod.getGenericParameterTypes());
             Object result = beanAndMethod.invokeMethod(request.getParameters(), request.getParameterTypes());
-            response = RpcResponse.success(request.getRequestId(), result);
-        } catch (RpcInvokeException e){
+            response = success(request, beanAndMethod, result);
+        } catch (RpcInvokeException | SerializationException e){
             logger.warn("执行RPC请求出现错误, {}",e.getMessage());
-            response = RpcResponse.serverFailed(request.getRequestId(), e.getMessage());
+            response = RpcResponse.serverFailed(request, e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * 通过方法ID调用方法，参数类型已经在握手时校验过了
+     * @param request
+     * @param methodId
+     * @return
+     */
+    private RpcResponse handleRequest(RpcRequest request, int methodId) {
+        BeanAndMethod beanAndMethod = methodTable.get(methodId);
+        if (beanAndMethod == null) {
+            String msg = String.format("当前RPC服务端没有方法ID为 %d 的服务", methodId);
+            return RpcResponse.serverFailed(request, msg);
+        }
+        RpcResponse response;
+        try {
+            request.resolveParameters(beanAndMethod.getGenericParameterTypes());
+            Object result = beanAndMethod.invokeMethod(request.getParameters());
+            response = success(request, beanAndMethod, result);
+        } catch (RpcInvokeException | SerializationException e){
+            logger.warn("执行RPC请求出现错误, {}",e.getMessage());
+            response = RpcResponse.serverFailed(request, e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * 成功的响应，客户端知道返回值类型时带上方法声明的返回值类型
+     * @param request
+     * @param beanAndMethod
+     * @param result
+     * @return
+     */
+    private static RpcResponse success(RpcRequest request, BeanAndMethod beanAndMethod, Object result){
+        RpcResponse response = RpcResponse.success(request, result);
+        if(request.isTypedResult()){
+            response.setResultType(beanAndMethod.getReturnType());
         }
         return response;
     }
 
+    /**
+     * 关闭没有发送的文件
+     * @param response
+     */
+    private static void closeFile(RpcResponse response){
+        if(response.getData() instanceof RpcFile){
+            try {
+                ((RpcFile) response.getData()).close();
+            } catch (IOException e){
+                logger.warn("关闭文件失败, {}", e.getMessage());
+            }
+        }
+    }
+
+    private static boolean isVersion2(ChannelHandlerContext ctx){
+        Integer version = ctx.channel().attr(RpcProtocol.PROTOCOL_VERSION).get();
+        return version != null && version == RpcProtocol.VERSION_2;
+    }
+
+    /**
+     * 日志中显示的请求号，v1协议使用消息体中的请求号
+     * @param request
+     * @return
+     */
+    private static Object requestId(RpcRequest request){
+        return request.getRequestId() != null ? request.getRequestId() : request.getId();
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx)  {
 
@@ -0,0 +1,59 @@
+package cn.gloduck.netty.rpc.transport.server;
+
+import cn.gloduck.netty.rpc.codec.RpcHandshake;
+import cn.gloduck.netty.rpc.codec.RpcProtocol;
+import cn.gloduck.netty.rpc.enums.CompressionType;
+import cn.gloduck.netty.rpc.enums.Serializers;
+import cn.gloduck.netty.rpc.ref.server.MethodTable;
+import cn.gloduck.netty.rpc.serializer.RpcSerializer;
+import cn.gloduck.netty.rpc.serializer.SerializerRegistry;
+import cn.gloduck.netty.rpc.serializer.kryo.FastKryoSerializer;
+import cn.gloduck.netty.rpc.serializer.kryo.KryoRegistry;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 服务端握手处理器，收到客户端的握手后返回当前的方法表和协商的压缩方式，
+ * 记录客户端注册的Kryo类并返回服务端注册的Kryo类，见{@link FastKryoSerializer}
+ * @author Gloduck
+ */
+public class RpcServerHandshakeHandler extends SimpleChannelInboundHandler<RpcHandshake> {
+    private static final Logger logger = LoggerFactory.getLogger(RpcServerHandshakeHandler.class);
+    private final MethodTable methodTable;
+    /**
+     * 服务端允许的压缩方式
+     */
+    private final CompressionType compressionType;
+    /**
+     * 连接上的序列化器
+     */
+    private final SerializerRegistry serializers;
+
+    public RpcServerHandshakeHandler(MethodTable methodTable, CompressionType compressionType, SerializerRegistry serializers) {
+        this.methodTable = methodTable;
+        this.compressionType = compressionType;
+        this.serializers = serializers;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, RpcHandshake msg) {
+        CompressionType requested = CompressionType.getCompressionTypeByTypeCode(msg.getCompressionType());
+        CompressionType negotiated = requested == compressionType ? compressionType : CompressionType.NONE;
+        logger.info("收到客户端握手，返回方法表，压缩方式为 : {}", negotiated);
+        RpcHandshake handshake = methodTable.toHandshake();
+        handshake.setCompressionType(negotiated.getTypeCode());
+        handshake.setCompact(true);
+        // 客户端的默认序列化器可能和服务端不同，用客户端握手使用的序列化器回复
+        handshake.setSerializerTypeCode(msg.getSerializerTypeCode());
+        RpcSerializer fastKryo = serializers.get(Serializers.FAST_KRYO.getTypeCode());
+        if(fastKryo instanceof FastKryoSerializer){
+            ((FastKryoSerializer) fastKryo).setPeerClassNames(msg.getKryoClassNames());
+            handshake.setKryoClassNames(KryoRegistry.instance().classNames());
+        }
+        // 握手响应本身不能压缩，客户端收到后才知道压缩方式，所以写出之后再设置
+        ctx.writeAndFlush(handshake);
+        ctx.channel().attr(RpcProtocol.COMPRESSION).set(negotiated);
+    }
+}
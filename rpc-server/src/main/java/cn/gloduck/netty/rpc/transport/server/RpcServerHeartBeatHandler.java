@@ -1,6 +1,8 @@
 package cn.gloduck.netty.rpc.transport.server;
 
 import cn.gloduck.netty.rpc.codec.RpcBeat;
+import cn.gloduck.netty.rpc.codec.RpcMessage;
+import cn.gloduck.netty.rpc.codec.RpcPing;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.timeout.IdleStateEvent;
@@ -8,10 +10,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 服务端心跳处理器
+ * 服务端心跳处理器，收到{@link RpcPing}时带回时间戳回复pong
  * @author Gloduck
  */
-public class RpcServerHeartBeatHandler extends SimpleChannelInboundHandler<RpcBeat> {
+public class RpcServerHeartBeatHandler extends SimpleChannelInboundHandler<RpcMessage> {
     private static final Logger logger = LoggerFactory.getLogger(RpcServerHeartBeatHandler.class);
     private int counter;
     private int limit;
@@ -22,9 +24,17 @@ public class RpcServerHeartBeatHandler extends SimpleChannelInboundHandler<RpcBe
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, RpcBeat msg) {
+    public boolean acceptInboundMessage(Object msg) {
+        return msg instanceof RpcBeat || (msg instanceof RpcPing && !((RpcPing) msg).isPong());
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, RpcMessage msg) {
         // 收到心跳后重置心跳计数器
         this.counter = 0;
+        if(msg instanceof RpcPing){
+            ctx.writeAndFlush(RpcPing.pong(msg.getId()));
+        }
         logger.info("收到心跳，重置计数器");
     }
 
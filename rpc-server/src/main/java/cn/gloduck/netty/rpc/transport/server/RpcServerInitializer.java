@@ -2,15 +2,19 @@ package cn.gloduck.netty.rpc.transport.server;
 
 import cn.gloduck.netty.rpc.codec.RpcDecoder;
 import cn.gloduck.netty.rpc.codec.RpcEncoder;
+import cn.gloduck.netty.rpc.codec.RpcFragmentHandler;
 import cn.gloduck.netty.rpc.constant.RpcConstant;
+import cn.gloduck.netty.rpc.metrics.WriteMetricsHandler;
 import cn.gloduck.netty.rpc.ref.server.BeanAndMethod;
+import cn.gloduck.netty.rpc.ref.server.MethodTable;
 import cn.gloduck.netty.rpc.serializer.RpcSerializer;
+import cn.gloduck.netty.rpc.serializer.SerializerRegistry;
 import cn.gloduck.netty.rpc.serializer.jdk.JdKSerializer;
 import cn.gloduck.netty.rpc.transport.NettyConfig;
+import cn.gloduck.netty.rpc.transport.WriteCoalescer;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.timeout.IdleStateHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,29 +30,36 @@ public class RpcServerInitializer extends ChannelInitializer<SocketChannel> {
     private static final Logger logger = LoggerFactory.getLogger(RpcServerInitializer.class);
     private  RpcSerializer serializer;
     private final Map<String, BeanAndMethod> serviceBeanMapping;
+    private final MethodTable methodTable;
     private  ThreadPoolExecutor executor;
     private final NettyConfig config;
 
-    public RpcServerInitializer(NettyConfig config, Map<String, BeanAndMethod> serviceBeanMapping) {
+    public RpcServerInitializer(NettyConfig config, Map<String, BeanAndMethod> serviceBeanMapping, MethodTable methodTable) {
         this.serviceBeanMapping = serviceBeanMapping;
+        this.methodTable = methodTable;
         this.config = config;
     }
 
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
+        WriteCoalescer.install(ch, config);
         serializer = config.getNewSerializer();
         if(serializer == null){
             logger.warn("创建序列化器失败，使用默认的JDK序列化器");
             serializer = new JdKSerializer();
         }
         executor = config.getThreadPool();
-        pipeline.addLast(new LengthFieldBasedFrameDecoder(RpcConstant.MAX_FRAME_LENGTH, RpcConstant.MAGIC_NUMBER.length + 2, 4))
-                .addLast(new IdleStateHandler(RpcConstant.BEAT_READER_IDLE_TIME, RpcConstant.BEAT_WRITER_IDLE_TIME, config.getHeartBeatInterval(), TimeUnit.SECONDS))
-                .addLast(new RpcDecoder(serializer))
-                .addLast(new RpcEncoder(serializer))
+        // 编码器和解码器共用，只接受配置的序列化器和服务指定的序列化器
+        SerializerRegistry serializers = new SerializerRegistry(serializer, config.getAcceptedSerializers());
+        pipeline.addLast(new IdleStateHandler(RpcConstant.BEAT_READER_IDLE_TIME, RpcConstant.BEAT_WRITER_IDLE_TIME, config.getHeartBeatInterval(), TimeUnit.SECONDS))
+                .addLast(new RpcDecoder(serializers, RpcConstant.MAX_REASSEMBLY_SIZE))
+                .addLast(new RpcFragmentHandler())
+                .addLast(WriteMetricsHandler.instance())
+                .addLast(new RpcEncoder(serializers, config.getProtocolVersion(), config.getCompressionThreshold()))
                 .addLast(new RpcServerHeartBeatHandler(config.getHeartBeatTimes()))
-                .addLast(new RpcServerHandler(serviceBeanMapping, executor));
+                .addLast(new RpcServerHandshakeHandler(methodTable, config.getCompressionType(), serializers))
+                .addLast(new RpcServerHandler(serviceBeanMapping, methodTable, executor));
 
     }
 }